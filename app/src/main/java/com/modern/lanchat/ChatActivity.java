@@ -1,57 +1,86 @@
 package com.modern.lanchat;
 
+import android.content.ComponentName;
 import android.content.Intent;
+import android.content.ServiceConnection;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.IBinder;
 import android.os.Looper;
 import android.text.TextUtils;
 import android.util.Log;
+import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
+import android.widget.EditText;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.core.content.ContextCompat;
 import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 
 import com.google.android.material.dialog.MaterialAlertDialogBuilder;
 import com.modern.lanchat.databinding.ActivityChatBinding;
 import com.modern.lanchat.db.AppDatabase;
 import com.modern.lanchat.db.ChatMessageDao;
+import com.modern.lanchat.db.MessageSearch;
 import com.modern.lanchat.model.ChatMessage;
+import com.modern.lanchat.network.ChatClient;
+import com.modern.lanchat.network.ChatFrame;
+import com.modern.lanchat.network.HistoryStreamer;
+import com.modern.lanchat.network.TraceStamps;
+import com.modern.lanchat.network.WireFormat;
+import com.modern.lanchat.ui.FrameBatcher;
 import com.modern.lanchat.ui.MessageAdapter;
+import com.modern.lanchat.ui.MessageTextCache;
+import com.modern.lanchat.ui.MessageTimeFormatter;
+import com.modern.lanchat.ui.MessageWindow;
 
-import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.net.InetAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.net.UnknownHostException;
-import java.text.SimpleDateFormat;
+import java.nio.channels.UnresolvedAddressException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.List;
-import java.util.Locale;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 public class ChatActivity extends AppCompatActivity {
 
     private static final String TAG = "ChatActivity";
-    private static final String MSG_DELIMITER = ":"; // For "SENDER:MESSAGE"
-    private static final String HIST_PREFIX = "HIST" + MSG_DELIMITER;
-    private static final String HIST_END_MARKER = "HIST_END";
-    private static final String CLIENT_NAME_PREFIX = "CLIENT_NAME" + MSG_DELIMITER;
-    private static final String ROOM_CLOSED_MSG = "SYSTEM" + MSG_DELIMITER + "ROOM_CLOSED_BY_HOST";
+    // Per-message logging; enable with "adb shell setprop log.tag.ChatActivity VERBOSE" before the app starts
+    private static final boolean LOG_MESSAGES = Log.isLoggable(TAG, Log.VERBOSE);
+
+    private static final int HISTORY_PAGE_SIZE = HistoryStreamer.DEFAULT_PAGE_SIZE;
+    // Messages held in memory; pages beyond this are dropped and reloaded on scroll
+    private static final int WINDOW_MAX_MESSAGES = 4 * HISTORY_PAGE_SIZE;
+    private static final int PREFETCH_DISTANCE = 10; // Rows from either end that trigger the next page
+    // Inbound frames handled per display frame; the rest of a burst waits for the next one
+    private static final int MAX_INBOUND_PER_FRAME = 64;
+
+    private static final int SEARCH_PAGE_SIZE = 50;
+    private static final long METRICS_REFRESH_MS = 1000;
+
+    // Client: retries after a dropped connection, waiting 1s, 2s, 4s... between attempts
+    private static final int RECONNECT_ATTEMPTS = 5;
+    private static final long RECONNECT_BASE_DELAY_MS = 1000;
+    private static final int MAX_RECENT_SENT = 64;
+    // Client: clock sync round trips when the host turns tracing on; the fastest one is used
+    private static final int CLOCK_SYNC_SAMPLES = 5;
+    private static final long CLOCK_SYNC_INTERVAL_MS = 200;
 
     private ActivityChatBinding binding;
     private MessageAdapter messageAdapter;
-    private List<ChatMessage> chatMessages;
+    private MessageWindow messageWindow; // Bounded, paged list of the room's messages shown in messageAdapter
+    private MessageTextCache messageTextCache; // Bubble text measured off the UI thread
 
     private String roomNumber;
     private boolean isHost;
@@ -60,20 +89,31 @@ public class ChatActivity extends AppCompatActivity {
     private int hostPort;         // For both host and client
 
     private final Handler uiHandler = new Handler(Looper.getMainLooper());
+    private FrameBatcher<InboundFrame> inboundFrames;    // Client: frames from the host, applied once per frame
+    private FrameBatcher<ChatMessage> inboundMessages;   // Host: messages from clients, applied once per frame
     private ExecutorService networkExecutorService;
-    private ExecutorService dbExecutorService;
+    private ExecutorService historyExecutorService; // Host: page reads and search, kept off the DB write thread
+    private ExecutorService textLayoutExecutorService; // Measures message text ahead of binding
 
-    // Host specific
-    private ServerSocket serverSocket;
-    private final List<ClientHandler> clientHandlers = new CopyOnWriteArrayList<>(); // Thread-safe list
+    // Host specific: the room itself lives in RoomHostService, which outlives this activity
+    private RoomHostService roomHostService; // Null until bound
+    private boolean hostServiceBound = false;
+    private boolean roomOpenShown = false;
+    private final RoomHostService.Listener hostListener = new HostRoomListener();
 
     // Client specific
-    private Socket clientSocket;
-    private PrintWriter clientOutputWriter;
-    private BufferedReader clientInputReader;
-
-    // Database
+    private ChatClient chatClient; // Negotiates binary framing, falls back to text for old hosts
+    private final List<ChatMessage> pendingHistory = new ArrayList<>(); // History block being received, UI thread only
+    private volatile long lastSeenMessageId = 0; // Newest host id shown, written on the UI thread
+    private volatile boolean leavingRoom = false; // Stops reconnect attempts
+    private boolean resyncing = false; // Collecting the gap after a reconnect, UI thread only
+    private long resyncAfterId = 0;
+    private final Deque<String> recentSentTexts = new ArrayDeque<>(); // Own messages the host never echoes back
+    private volatile boolean tracing = false; // The host asked for latency stamps on this connection
+
+    // Database, host only: reads here, writes through RoomHostService
     private ChatMessageDao chatMessageDao;
+    private MessageSearch messageSearch;
     private boolean roomHasBeenTerminated = false;
 
     @Override
@@ -83,15 +123,18 @@ public class ChatActivity extends AppCompatActivity {
         setContentView(binding.getRoot());
 
         networkExecutorService = Executors.newCachedThreadPool();
-        dbExecutorService = Executors.newSingleThreadExecutor();
+        historyExecutorService = Executors.newSingleThreadExecutor();
+        textLayoutExecutorService = Executors.newSingleThreadExecutor();
+        inboundFrames = new FrameBatcher<>(this::onFramesReceived, MAX_INBOUND_PER_FRAME);
+        inboundMessages = new FrameBatcher<>(this::addLiveMessagesToUI, MAX_INBOUND_PER_FRAME);
 
         Intent intent = getIntent();
         roomNumber = intent.getStringExtra(MainActivity.EXTRA_ROOM_NUMBER);
         isHost = intent.getBooleanExtra(MainActivity.EXTRA_IS_HOST, false);
         currentUserName = intent.getStringExtra(MainActivity.EXTRA_USER_NAME);
-        hostPort = intent.getIntExtra(MainActivity.EXTRA_HOST_PORT, 0); // Important for both
+        hostPort = intent.getIntExtra(MainActivity.EXTRA_HOST_PORT, 0); // Client: required; host: 0 picks a free port
 
-        if (TextUtils.isEmpty(roomNumber) || TextUtils.isEmpty(currentUserName) || hostPort == 0) {
+        if (TextUtils.isEmpty(roomNumber) || TextUtils.isEmpty(currentUserName) || (!isHost && hostPort == 0)) {
             Toast.makeText(this, "Error: Room/User/Port info missing.", Toast.LENGTH_LONG).show();
             finish();
             return;
@@ -102,10 +145,14 @@ public class ChatActivity extends AppCompatActivity {
         setupSendButton();
 
         if (isHost) {
+            if (savedInstanceState != null && !roomNumber.equals(MainActivity.hostingRoomId)) {
+                finish(); // Recreated after the room closed, or after the process died with it
+                return;
+            }
             setTitle(getString(R.string.title_activity_chat_room, roomNumber) + " (Host)");
             chatMessageDao = AppDatabase.getDatabase(getApplicationContext()).chatMessageDao();
-            loadChatHistoryFromDb();
-            startServer();
+            messageSearch = new MessageSearch(chatMessageDao);
+            startHosting();
         } else {
             hostIpAddress = intent.getStringExtra(MainActivity.EXTRA_HOST_IP);
             if (TextUtils.isEmpty(hostIpAddress)) {
@@ -127,10 +174,24 @@ public class ChatActivity extends AppCompatActivity {
     }
 
     private void setupRecyclerView() {
-        chatMessages = new ArrayList<>();
-        messageAdapter = new MessageAdapter(chatMessages, currentUserName);
-        binding.recyclerViewMessages.setLayoutManager(new LinearLayoutManager(this));
+        messageTextCache = new MessageTextCache(textLayoutExecutorService, 2 * WINDOW_MAX_MESSAGES);
+        messageAdapter = new MessageAdapter(currentUserName, messageTextCache);
+        MessageWindow.PageLoader pageLoader = isHost ? new HostPageLoader() : new ClientPageLoader();
+        messageWindow = new MessageWindow(messageAdapter, pageLoader, HISTORY_PAGE_SIZE, WINDOW_MAX_MESSAGES);
+        LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        binding.recyclerViewMessages.setLayoutManager(layoutManager);
         binding.recyclerViewMessages.setAdapter(messageAdapter);
+        binding.recyclerViewMessages.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                // Near either end of the window: load the next page in that direction
+                if (dy < 0 && layoutManager.findFirstVisibleItemPosition() <= PREFETCH_DISTANCE) {
+                    messageWindow.requestOlder();
+                } else if (dy > 0 && layoutManager.findLastVisibleItemPosition() >= layoutManager.getItemCount() - 1 - PREFETCH_DISTANCE) {
+                    messageWindow.requestNewer();
+                }
+            }
+        });
     }
 
     private void setupSendButton() {
@@ -144,285 +205,469 @@ public class ChatActivity extends AppCompatActivity {
     }
 
     private void processAndSendMessage(String messageText) {
-        String timestamp = new SimpleDateFormat("hh:mm a", Locale.getDefault()).format(new Date());
+        long timestamp = System.currentTimeMillis();
         ChatMessage message = new ChatMessage(roomNumber, messageText, currentUserName, timestamp, false);
         message.setSentByMe(true); // UI: This is from me
-        addMessageToUI(true, message); // Add to local UI and save to DB if host
+        if (!messageWindow.isAtLiveEdge()) {
+            messageWindow.reloadLatest(); // Scrolled back in history: jump to the newest messages
+        }
+        addMessageToUI(true, message);
 
         // Network transmission
-        String networkMessage = currentUserName + MSG_DELIMITER + messageText;
         if (isHost) {
-            broadcastMessageToClients(networkMessage, null); // null: broadcast to all
+            if (roomHostService != null) roomHostService.sendHostMessage(message); // Broadcast to all
         } else { // Client
-            if (clientOutputWriter != null) {
-                networkExecutorService.execute(() -> clientOutputWriter.println(networkMessage));
+            rememberSentText(messageText);
+            ChatClient client = chatClient;
+            if (client != null) {
+                ChatFrame chat = ChatFrame.chat(currentUserName, messageText);
+                // Traced from the tap, so the first hop includes the hand-off to the network thread
+                ChatFrame networkMessage = tracing ? chat.withTrace(TraceStamps.sent(client.hostMicros())) : chat;
+                networkExecutorService.execute(() -> {
+                    try {
+                        client.send(networkMessage);
+                    } catch (IOException e) {
+                        Log.e(TAG, "Client: failed to send message", e);
+                    }
+                });
             }
         }
     }
 
-    // UI update and DB saving (if host)
     private void addMessageToUI(boolean scrollToBottom, ChatMessage message) {
-        // Ensure isSentByMe is correctly set for UI based on who is viewing
-        message.setSentByMe(message.getSenderName().equals(currentUserName) ||
-                (message.isSystemMessage() && message.getSenderName().equals(ChatMessage.SENDER_SYSTEM)));
-
-        chatMessages.add(message);
-        messageAdapter.notifyItemInserted(chatMessages.size() - 1);
-        if (scrollToBottom && !chatMessages.isEmpty()) {
-            binding.recyclerViewMessages.scrollToPosition(chatMessages.size() - 1);
+        applySentByMe(message);
+        // Left out while the user is reading older pages; it is stored, or fetched with the next newer page
+        if (messageWindow.addLive(message) && scrollToBottom) {
+            scrollToNewest();
         }
+    }
 
-        if (isHost && chatMessageDao != null && !message.isSystemMessage()) { // Don't save system messages unless desired
-            ChatMessage dbMessage = new ChatMessage(); // Create new obj for DB
-            dbMessage.roomId = message.getRoomId();
-            dbMessage.messageText = message.getMessageText();
-            dbMessage.senderName = message.getSenderName();
-            dbMessage.timestamp = message.getTimestamp();
-            dbMessage.isSystemMessage = message.isSystemMessage();
-            dbExecutorService.execute(() -> chatMessageDao.insertMessage(dbMessage));
+    // A run of live messages, already marked with applySentByMe: one range insert and one scroll
+    private void addLiveMessagesToUI(List<ChatMessage> messages) {
+        if (messageWindow.addLiveAll(messages) && !messages.isEmpty()) {
+            scrollToNewest();
         }
     }
 
+    // The adapter diffs in the background, so scroll once the rows it is scrolling to are there
+    private void scrollToNewest() {
+        messageWindow.whenShown(() -> {
+            int count = messageAdapter.getItemCount();
+            if (count > 0) binding.recyclerViewMessages.scrollToPosition(count - 1);
+        });
+    }
+
+    // Ensure isSentByMe is correctly set for UI based on who is viewing. Safe on any thread.
+    private void applySentByMe(ChatMessage message) {
+        message.setSentByMe(message.getSenderName().equals(currentUserName) ||
+                (message.isSystemMessage() && message.getSenderName().equals(ChatMessage.SENDER_SYSTEM)));
+    }
+
     private void addSystemMessageToUI(String text) {
-        String timestamp = new SimpleDateFormat("hh:mm a", Locale.getDefault()).format(new Date());
+        long timestamp = System.currentTimeMillis();
         ChatMessage systemMessage = new ChatMessage(roomNumber, text, ChatMessage.SENDER_SYSTEM, timestamp, true);
         addMessageToUI(true, systemMessage);
     }
 
-    // Called when a message is received from network (by host or client from its input stream)
-    private void onNetworkMessageReceived(String rawMessage) {
-        Log.d(TAG, (isHost ? "Host" : "Client") + " received raw: " + rawMessage);
-        if (rawMessage == null) return;
+    // Client: called on the reader thread for every frame from the host (the host handles client frames in HostRelayListener)
+    private void onNetworkMessageReceived(ChatFrame frame) {
+        if (LOG_MESSAGES) Log.v(TAG, (isHost ? "Host" : "Client") + " received: " + frame);
+        if (frame.getType() == ChatFrame.Type.ROOM_CLOSED && !isHost) {
+            leavingRoom = true; // Set before the host's close ends run(), so the client does not reconnect
+        }
+        if (frame.getType() == ChatFrame.Type.TRACE_MODE) {
+            tracing = frame.isTraceEnabled();
+            if (tracing) syncClockWithHost();
+            return;
+        }
+
+        // Build the message here on the reader thread, so the UI thread only has to insert it
+        ChatMessage message = null;
+        if (frame.getType() == ChatFrame.Type.HISTORY) {
+            message = new ChatMessage(roomNumber, frame.getText(), frame.getSender(), frame.getTimestamp(), false);
+        } else if (frame.getType() == ChatFrame.Type.CHAT) {
+            message = new ChatMessage(roomNumber, frame.getText(), frame.getSender(), System.currentTimeMillis(), frame.isSystemMessage());
+        }
+        if (message != null) {
+            message.setId(frame.getId());
+            applySentByMe(message);
+        }
+        ChatClient client = chatClient;
+        long receivedMicros = tracing && frame.getTrace() != null && client != null ? client.hostMicros() : 0;
+        inboundFrames.post(new InboundFrame(frame, message, receivedMicros));
+    }
+
+    // A frame from the host with its message already built; not modified once posted
+    private static final class InboundFrame {
+        final ChatFrame frame;
+        final ChatMessage message; // HISTORY and CHAT only
+        final long receivedMicros; // Host clock, for a traced CHAT; 0 otherwise
 
-        uiHandler.post(() -> {
-            if (rawMessage.startsWith(HIST_PREFIX)) {
-                // Client receiving history
-                String histContent = rawMessage.substring(HIST_PREFIX.length());
-                String[] parts = histContent.split(MSG_DELIMITER, 3); // sender, timestamp, text
-                if (parts.length == 3) {
-                    ChatMessage histMsg = new ChatMessage(roomNumber, parts[2], parts[0], parts[1], false);
-                    addMessageToUI(false, histMsg); // Don't scroll for each history item
-                }
-            } else if (rawMessage.equals(HIST_END_MARKER) && !isHost) {
-                // Client: History sending finished
-                if (!chatMessages.isEmpty()) {
-                    binding.recyclerViewMessages.scrollToPosition(chatMessages.size() - 1);
-                }
-                Toast.makeText(this, "Chat history loaded.", Toast.LENGTH_SHORT).show();
-            } else if (rawMessage.equals(ROOM_CLOSED_MSG) && !isHost) {
-                Toast.makeText(ChatActivity.this, "Host has closed the room.", Toast.LENGTH_LONG).show();
-                cleanupClientResources();
-                finish();
-            }
-            else { // Regular chat message
-                String[] parts = rawMessage.split(MSG_DELIMITER, 2);
-                if (parts.length == 2) {
-                    String senderName = parts[0];
-                    String messageText = parts[1];
-                    String timestamp = new SimpleDateFormat("hh:mm a", Locale.getDefault()).format(new Date());
-                    boolean systemMsg = senderName.equals(ChatMessage.SENDER_SYSTEM);
-
-                    ChatMessage message = new ChatMessage(roomNumber, messageText, senderName, timestamp, systemMsg);
-                    addMessageToUI(true, message);
-
-                    // If host received a message from a client, broadcast it to other clients
-                    if (isHost && !senderName.equals(currentUserName) && !systemMsg) {
-                        // The sender ClientHandler should be passed to avoid sending back to origin
-                        // This needs ClientHandler to pass itself or its ID. For simplicity, not implemented here.
-                        // broadcastMessageToClients(rawMessage, originatingClientHandler);
+        InboundFrame(ChatFrame frame, ChatMessage message, long receivedMicros) {
+            this.frame = frame;
+            this.message = message;
+            this.receivedMicros = receivedMicros;
+        }
+    }
+
+    // Client: UI thread, once per display frame with the frames received since the last one.
+    // Consecutive chat messages are collected and added together; other frames apply in order.
+    private void onFramesReceived(List<InboundFrame> frames) {
+        List<ChatMessage> live = new ArrayList<>();
+        List<InboundFrame> traced = new ArrayList<>();
+        for (InboundFrame inbound : frames) {
+            ChatFrame frame = inbound.frame;
+            switch (frame.getType()) {
+                case HISTORY:
+                    // Client receiving history; shown as one block when HISTORY_END arrives
+                    pendingHistory.add(inbound.message);
+                    lastSeenMessageId = Math.max(lastSeenMessageId, frame.getId());
+                    break;
+                case HISTORY_END:
+                    if (isHost) break;
+                    addLiveMessagesToUI(live); // Keep live messages ahead of anything that follows them
+                    live.clear();
+                    // Client: a block of history is complete
+                    if (resyncing) {
+                        addResyncBlockToUI();
+                        break;
                     }
-                } else {
-                     Log.w(TAG, "Received malformed message: " + rawMessage);
-                }
+                    List<ChatMessage> block = new ArrayList<>(pendingHistory);
+                    pendingHistory.clear();
+                    if (messageWindow.isLoadingOlder()) {
+                        messageWindow.onOlderPage(block, frame.hasMore());
+                    } else if (messageWindow.isLoadingNewer()) {
+                        messageWindow.onNewerPage(block, frame.hasMore());
+                    } else {
+                        messageWindow.addLiveBlock(block, frame.hasMore()); // The page sent on joining
+                        scrollToNewest();
+                        Toast.makeText(this, "Chat history loaded.", Toast.LENGTH_SHORT).show();
+                    }
+                    break;
+                case ROOM_CLOSED:
+                    if (isHost) break;
+                    Toast.makeText(ChatActivity.this, "Host has closed the room.", Toast.LENGTH_LONG).show();
+                    cleanupClientResources();
+                    finish();
+                    return;
+                case CHAT: // Regular chat message
+                    if (resyncing && frame.getId() > 0) {
+                        pendingHistory.add(inbound.message); // Merged with the gap by id when it completes
+                        break;
+                    }
+                    lastSeenMessageId = Math.max(lastSeenMessageId, frame.getId());
+                    live.add(inbound.message);
+                    if (inbound.receivedMicros > 0) traced.add(inbound);
+                    break;
+                default:
+                    Log.w(TAG, "Ignoring unexpected frame: " + frame);
+                    break;
             }
-        });
+        }
+        addLiveMessagesToUI(live);
+        if (!traced.isEmpty()) messageWindow.whenShown(() -> reportTraced(traced));
     }
 
-
-    // --- Host Methods ---
-    private void startServer() {
-        binding.progressBarChat.setVisibility(View.VISIBLE);
+    // Client: tells the host when traced messages reached the screen, i.e. the adapter has applied
+    // them and the next layout pass draws them. All stamps are on the host's clock.
+    private void reportTraced(List<InboundFrame> shown) {
+        ChatClient client = chatClient;
+        if (client == null || !tracing) return;
+        long renderedMicros = client.hostMicros();
+        List<ChatFrame> reports = new ArrayList<>(shown.size());
+        for (InboundFrame inbound : shown) {
+            TraceStamps stamps = inbound.frame.getTrace().withDelivery(inbound.receivedMicros, renderedMicros);
+            reports.add(ChatFrame.traceReport(inbound.frame.getId(), stamps));
+        }
         networkExecutorService.execute(() -> {
             try {
-                serverSocket = new ServerSocket(hostPort);
-                uiHandler.post(() -> {
-                    binding.progressBarChat.setVisibility(View.GONE);
-                    Toast.makeText(ChatActivity.this, "Hosting on port: " + hostPort, Toast.LENGTH_SHORT).show();
-                    addSystemMessageToUI("You are hosting room " + roomNumber);
-                });
-                Log.i(TAG, "Server started on port: " + serverSocket.getLocalPort());
+                client.send(reports);
+            } catch (IOException e) {
+                Log.w(TAG, "Client: failed to send trace reports", e);
+            }
+        });
+    }
 
-                while (!Thread.currentThread().isInterrupted() && !serverSocket.isClosed()) {
-                    try {
-                        Socket client = serverSocket.accept();
-                        Log.i(TAG, "Client connected: " + client.getInetAddress());
-                        ClientHandler clientHandler = new ClientHandler(client);
-                        clientHandlers.add(clientHandler);
-                        networkExecutorService.execute(clientHandler);
-                    } catch (IOException e) {
-                        if (serverSocket.isClosed()) {
-                            Log.i(TAG, "Server socket closed, exiting accept loop.");
-                            break;
-                        }
-                        Log.e(TAG, "Error accepting client connection", e);
-                    }
+    // Client: a few round trips to learn the host's clock; ChatClient keeps the fastest
+    private void syncClockWithHost() {
+        ChatClient client = chatClient;
+        if (client == null) return;
+        networkExecutorService.execute(() -> {
+            try {
+                for (int i = 0; i < CLOCK_SYNC_SAMPLES && tracing; i++) {
+                    client.requestClockSync();
+                    Thread.sleep(CLOCK_SYNC_INTERVAL_MS);
                 }
+                Log.i(TAG, "Client: clock synced with the host, round trip " + client.getClockSyncRoundTripMicros() + " us");
             } catch (IOException e) {
-                Log.e(TAG, "Could not start server on port " + hostPort, e);
-                uiHandler.post(() -> {
-                    binding.progressBarChat.setVisibility(View.GONE);
-                    Toast.makeText(ChatActivity.this, R.string.error_failed_to_create_room, Toast.LENGTH_SHORT).show();
-                    performRoomTermination(false); // Close down
-                });
+                Log.w(TAG, "Client: clock sync failed", e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
         });
     }
 
-    private void broadcastMessageToClients(String message, ClientHandler excludeHandler) {
-        Log.d(TAG, "Host broadcasting: " + message);
-        for (ClientHandler handler : clientHandlers) {
-            if (handler != excludeHandler) { // Don't send back to the originator if it's a relay
-                handler.sendMessage(message);
-            }
+
+    // Client: the messages missed while disconnected, plus live ones that arrived meanwhile.
+    // Drops anything already shown, including our own messages, which the host never echoes.
+    private void addResyncBlockToUI() {
+        resyncing = false;
+        Collections.sort(pendingHistory, (a, b) -> Long.compare(a.getId(), b.getId()));
+        long lastAdded = resyncAfterId;
+        List<ChatMessage> missed = new ArrayList<>(pendingHistory.size());
+        for (ChatMessage msg : pendingHistory) {
+            if (msg.getId() <= lastAdded) continue;
+            lastAdded = msg.getId();
+            if (msg.getSenderName().equals(currentUserName) && recentSentTexts.remove(msg.getMessageText())) continue;
+            missed.add(msg);
         }
+        lastSeenMessageId = Math.max(lastSeenMessageId, lastAdded);
+        pendingHistory.clear();
+        addLiveMessagesToUI(missed);
+        scrollToNewest();
     }
 
-    private void sendChatHistoryToClient(PrintWriter clientWriter) {
-        if (chatMessageDao == null) return;
-        dbExecutorService.execute(() -> {
-            List<ChatMessage> history = chatMessageDao.getMessagesForRoom(roomNumber);
-            if (history != null && !history.isEmpty()) {
-                for (ChatMessage msg : history) {
-                    if (!msg.isSystemMessage()) { // Typically don't send system messages as history
-                        String histMsg = HIST_PREFIX + msg.getSenderName() + MSG_DELIMITER + msg.getTimestamp() + MSG_DELIMITER + msg.getMessageText();
-                        clientWriter.println(histMsg);
-                    }
-                }
-            }
-            clientWriter.println(HIST_END_MARKER); // Signal end of history
-        });
+    private void rememberSentText(String text) {
+        if (recentSentTexts.size() == MAX_RECENT_SENT) recentSentTexts.removeFirst();
+        recentSentTexts.addLast(text);
     }
 
-    private void loadChatHistoryFromDb() {
-        if (chatMessageDao == null) return;
-        dbExecutorService.execute(() -> {
-            final List<ChatMessage> history = chatMessageDao.getMessagesForRoom(roomNumber);
-            uiHandler.post(() -> {
-                if (history != null && !history.isEmpty()) {
-                    for (ChatMessage msg : history) {
-                        addMessageToUI(false, msg);
-                    }
-                    if (!chatMessages.isEmpty()) {
-                         binding.recyclerViewMessages.scrollToPosition(chatMessages.size() - 1);
-                    }
-                    Toast.makeText(ChatActivity.this, "Chat history loaded", Toast.LENGTH_SHORT).show();
+    // Client pages come from the host over the connection; replies end with HISTORY_END
+    private class ClientPageLoader implements MessageWindow.PageLoader {
+
+        @Override
+        public void loadOlder(long beforeId, int limit) {
+            send(ChatFrame.historyRequest(beforeId, limit));
+        }
+
+        @Override
+        public void loadNewer(long afterId, int limit) {
+            send(ChatFrame.historyAfterRequest(afterId, limit));
+        }
+
+        private void send(ChatFrame request) {
+            ChatClient client = chatClient;
+            if (client == null || !client.getWireFormat().isBinary()) {
+                messageWindow.cancelLoads(); // Text-protocol hosts cannot page
+                return;
+            }
+            networkExecutorService.execute(() -> {
+                try {
+                    client.send(request);
+                } catch (IOException e) {
+                    Log.e(TAG, "Client: failed to request history", e);
                 }
             });
-        });
+        }
     }
 
-    private class ClientHandler implements Runnable {
-        private final Socket socket;
-        private PrintWriter writer;
-        private BufferedReader reader;
-        private String clientName = "UnknownUser";
+    // --- Host Methods ---
+    // Starts the room, or finds it already running, then binds for its messages. Starting as well
+    // as binding keeps the room alive once this activity unbinds.
+    private void startHosting() {
+        binding.progressBarChat.setVisibility(View.VISIBLE);
+        Intent service = new Intent(this, RoomHostService.class)
+                .putExtra(MainActivity.EXTRA_ROOM_NUMBER, roomNumber)
+                .putExtra(MainActivity.EXTRA_USER_NAME, currentUserName)
+                .putExtra(MainActivity.EXTRA_HOST_PORT, hostPort)
+                .putExtra(MainActivity.EXTRA_CREATE_STARTED_NANOS, getIntent().getLongExtra(MainActivity.EXTRA_CREATE_STARTED_NANOS, 0));
+        ContextCompat.startForegroundService(this, service);
+        hostServiceBound = bindService(service, hostConnection, BIND_AUTO_CREATE);
+    }
 
-        ClientHandler(Socket socket) {
-            this.socket = socket;
+    private final ServiceConnection hostConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            RoomHostService service = ((RoomHostService.LocalBinder) binder).getService();
+            if (service.isRoomClosed()) {
+                // Closed before we bound, e.g. its port could not be bound
+                Toast.makeText(ChatActivity.this, R.string.error_failed_to_create_room, Toast.LENGTH_SHORT).show();
+                finish();
+                return;
+            }
+            roomHostService = service;
+            service.setListener(hostListener);
+            // Stored history, including whatever arrived while no screen was bound; live messages
+            // from here on come through the listener and the reload merges them
+            messageWindow.reloadLatest();
+            if (service.isRoomOpen()) onRoomOpened();
         }
 
         @Override
-        public void run() {
-            try {
-                writer = new PrintWriter(socket.getOutputStream(), true);
-                reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+        public void onServiceDisconnected(ComponentName name) {
+            roomHostService = null;
+        }
+    };
 
-                // First message from client should be their name
-                String nameMessage = reader.readLine();
-                if (nameMessage != null && nameMessage.startsWith(CLIENT_NAME_PREFIX)) {
-                    clientName = nameMessage.substring(CLIENT_NAME_PREFIX.length());
-                } else {
-                    Log.w(TAG, "Client did not send name correctly. Using IP.");
-                    clientName = socket.getInetAddress().getHostAddress();
-                }
-                String joinMsg = clientName + " joined the chat.";
-                addSystemMessageToUI(joinMsg); // Host UI
-                broadcastMessageToClients(ChatMessage.SENDER_SYSTEM + MSG_DELIMITER + joinMsg, this); // Notify other clients
+    private void onRoomOpened() {
+        binding.progressBarChat.setVisibility(View.GONE);
+        if (roomOpenShown) return;
+        roomOpenShown = true;
+        addSystemMessageToUI("You are hosting room " + roomNumber);
+    }
 
-                sendChatHistoryToClient(writer); // Send history to this new client
+    // Callbacks arrive on the service's network threads, so hand UI work to uiHandler
+    private class HostRoomListener implements RoomHostService.Listener {
 
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    Log.d(TAG, "Host received from " + clientName + ": " + line);
-                    onNetworkMessageReceived(line); // Process for host UI
-                    broadcastMessageToClients(line, this); // Relay to other clients
-                }
-            } catch (IOException e) {
-                Log.e(TAG, "Error handling client " + clientName, e);
-            } finally {
-                cleanup();
-                String leaveMsg = clientName + " left the chat.";
-                addSystemMessageToUI(leaveMsg);
-                broadcastMessageToClients(ChatMessage.SENDER_SYSTEM + MSG_DELIMITER + leaveMsg, null);
-            }
+        @Override
+        public void onClientMessage(ChatMessage message) {
+            applySentByMe(message);
+            inboundMessages.post(message); // Host UI, batched per display frame
+        }
+
+        @Override
+        public void onRoomNotice(String text) {
+            uiHandler.post(() -> addSystemMessageToUI(text));
+        }
+
+        @Override
+        public void onRoomOpened(int port) {
+            uiHandler.post(() -> {
+                Toast.makeText(ChatActivity.this, "Hosting on port: " + port, Toast.LENGTH_SHORT).show();
+                ChatActivity.this.onRoomOpened();
+            });
         }
 
-        void sendMessage(String message) {
-            if (writer != null) {
-                writer.println(message);
+        @Override
+        public void onRoomFailed(boolean whileOpening) {
+            uiHandler.post(() -> {
+                binding.progressBarChat.setVisibility(View.GONE);
+                Toast.makeText(ChatActivity.this, whileOpening ? R.string.error_failed_to_create_room : R.string.error_network_error,
+                        Toast.LENGTH_SHORT).show();
+                roomHasBeenTerminated = true; // The service has already closed the room
+                finish();
+            });
+        }
+    }
+
+    // Host pages are keyset reads over (roomId, id) on the history pool, fetching one extra row to learn whether more remain
+    private class HostPageLoader implements MessageWindow.PageLoader {
+
+        @Override
+        public void loadOlder(long beforeId, int limit) {
+            Runnable read = () -> historyExecutorService.execute(() -> {
+                List<ChatMessage> newestFirst = chatMessageDao.getMessagesBefore(roomNumber, beforeId, limit + 1);
+                boolean more = newestFirst.size() > limit;
+                List<ChatMessage> page = new ArrayList<>(more ? newestFirst.subList(0, limit) : newestFirst);
+                Collections.reverse(page);
+                uiHandler.post(() -> messageWindow.onOlderPage(markSentByMe(page), more));
+            });
+            RoomHostService service = roomHostService;
+            if (beforeId == Long.MAX_VALUE && service != null) {
+                service.whenStored(read); // The newest page must include messages still in the write buffer
+            } else {
+                read.run();
             }
         }
 
-        void cleanup() {
-            clientHandlers.remove(this);
-            try {
-                if (writer != null) writer.close();
-                if (reader != null) reader.close();
-                if (socket != null && !socket.isClosed()) socket.close();
-            } catch (IOException e) {
-                Log.e(TAG, "Error closing client handler resources for " + clientName, e);
+        @Override
+        public void loadNewer(long afterId, int limit) {
+            RoomHostService service = roomHostService;
+            historyExecutorService.execute(() -> {
+                // Messages are shown before they are written, so the service merges in its write buffer;
+                // without it, a last page read meanwhile would say nothing newer remains and lose them
+                List<ChatMessage> rows = service != null
+                        ? service.getMessagesAfter(afterId, limit + 1)
+                        : chatMessageDao.getMessagesAfter(roomNumber, afterId, limit + 1);
+                boolean more = rows.size() > limit;
+                List<ChatMessage> page = more ? new ArrayList<>(rows.subList(0, limit)) : rows;
+                uiHandler.post(() -> messageWindow.onNewerPage(markSentByMe(page), more));
+            });
+        }
+
+        private List<ChatMessage> markSentByMe(List<ChatMessage> page) {
+            for (ChatMessage msg : page) {
+                msg.setSentByMe(msg.getSenderName().equals(currentUserName));
             }
+            return page;
         }
     }
 
     // --- Client Methods ---
     private void connectToHost() {
         binding.progressBarChat.setVisibility(View.VISIBLE);
-        networkExecutorService.execute(() -> {
+        networkExecutorService.execute(this::runClientConnection);
+    }
+
+    // Network thread: connects, then reconnects with backoff whenever the connection drops
+    private void runClientConnection() {
+        boolean connectedBefore = false;
+        int failedAttempts = 0;
+        while (!leavingRoom) {
             try {
                 Log.i(TAG, "Client attempting to connect to " + hostIpAddress + ":" + hostPort);
-                clientSocket = new Socket(hostIpAddress, hostPort);
-                clientOutputWriter = new PrintWriter(clientSocket.getOutputStream(), true);
-                clientInputReader = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-
-                // Send client name to server
-                clientOutputWriter.println(CLIENT_NAME_PREFIX + currentUserName);
-
+                // On a reconnect, ask only for what we missed
+                ChatClient client = ChatClient.connect(hostIpAddress, hostPort, currentUserName,
+                        connectedBefore ? lastSeenMessageId : 0);
+                chatClient = client;
+                Log.i(TAG, "Client connected using " + client.getWireFormat() + " protocol");
+                boolean reconnected = connectedBefore;
+                connectedBefore = true;
+                failedAttempts = 0;
+                // Frames reach the UI through the per-frame batcher, which can overtake a plain post,
+                // so wait until the connection state is reset before reading any
+                CountDownLatch connectedShown = new CountDownLatch(1);
                 uiHandler.post(() -> {
-                    binding.progressBarChat.setVisibility(View.GONE);
-                    Toast.makeText(ChatActivity.this, "Connected to room " + roomNumber, Toast.LENGTH_SHORT).show();
-                    addSystemMessageToUI("You joined room " + roomNumber);
+                    onClientConnected(reconnected, client.getWireFormat());
+                    connectedShown.countDown();
                 });
-
-                String lineFromServer;
-                while (!Thread.currentThread().isInterrupted() && (lineFromServer = clientInputReader.readLine()) != null) {
-                    onNetworkMessageReceived(lineFromServer);
+                try {
+                    connectedShown.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    client.close();
+                    return;
                 }
-            } catch (UnknownHostException e) {
+
+                client.run(this::onNetworkMessageReceived); // Blocks until the connection closes
+                Log.d(TAG, "Client connection closed by host.");
+            } catch (UnresolvedAddressException e) {
                 Log.e(TAG, "Client: Unknown host " + hostIpAddress, e);
                 handleConnectionError("Host not found or invalid IP.");
+                return;
             } catch (IOException e) {
-                Log.e(TAG, "Client: I/O error during connection or communication", e);
-                handleConnectionError("Connection error: " + e.getMessage());
-            } finally {
-                if (clientSocket == null || clientSocket.isClosed()) { // If connection never established or closed by error
-                    Log.d(TAG, "Client connection thread finishing due to error or closure.");
-                } else { // Connection closed normally by server (e.g. ROOM_CLOSED_MSG) or client leaving
-                    Log.d(TAG, "Client connection thread finishing.");
+                if (!connectedBefore) {
+                    Log.e(TAG, "Client: I/O error during connection", e);
+                    handleConnectionError("Connection error: " + e.getMessage());
+                    return;
                 }
-                // Do not call cleanupClientResources here if ROOM_CLOSED_MSG was handled, as it already calls it.
+                Log.w(TAG, "Client: connection lost", e);
             }
-        });
+            if (leavingRoom) return;
+            if (++failedAttempts > RECONNECT_ATTEMPTS) {
+                handleConnectionError("Lost connection to the host.");
+                return;
+            }
+            if (failedAttempts == 1) {
+                uiHandler.post(() -> addSystemMessageToUI("Connection lost, reconnecting..."));
+            }
+            try {
+                Thread.sleep(RECONNECT_BASE_DELAY_MS << (failedAttempts - 1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void onClientConnected(boolean reconnected, WireFormat format) {
+        binding.progressBarChat.setVisibility(View.GONE);
+        tracing = false; // A new connection: the host says again if it is tracing, and the clock is synced again
+        pendingHistory.clear(); // A block cut off by the drop
+        messageWindow.cancelLoads();
+        if (!reconnected) {
+            Toast.makeText(ChatActivity.this, "Connected to room " + roomNumber, Toast.LENGTH_SHORT).show();
+            addSystemMessageToUI("You joined room " + roomNumber);
+            return;
+        }
+        if (format.isBinary() && lastSeenMessageId > 0) {
+            resyncing = true; // The host sends only the gap, ending with HISTORY_END
+            resyncAfterId = lastSeenMessageId;
+        } else {
+            // Older hosts replay the whole room, so start from a clean list rather than duplicate it
+            messageWindow.clear();
+        }
+        addSystemMessageToUI("Reconnected to room " + roomNumber);
     }
 
     private void handleConnectionError(String errorMessage) {
@@ -449,12 +694,30 @@ public class ChatActivity extends AppCompatActivity {
     public boolean onPrepareOptionsMenu(Menu menu) {
         MenuItem terminateItem = menu.findItem(R.id.action_terminate_room);
         MenuItem shareItem = menu.findItem(R.id.action_share_room_id);
+        MenuItem statsItem = menu.findItem(R.id.action_connection_stats);
+        MenuItem searchItem = menu.findItem(R.id.action_search_history);
+        MenuItem metricsItem = menu.findItem(R.id.action_room_metrics);
+        MenuItem traceItem = menu.findItem(R.id.action_trace_latency);
+        MenuItem exportTraceItem = menu.findItem(R.id.action_export_trace);
         if (isHost) {
             if (terminateItem != null) terminateItem.setVisible(true);
             if (shareItem != null) shareItem.setVisible(true);
+            if (statsItem != null) statsItem.setVisible(true);
+            if (searchItem != null) searchItem.setVisible(true);
+            if (metricsItem != null) metricsItem.setVisible(true);
+            if (traceItem != null) {
+                traceItem.setVisible(true);
+                traceItem.setChecked(roomHostService != null && roomHostService.isTracing());
+            }
+            if (exportTraceItem != null) exportTraceItem.setVisible(true);
         } else {
             if (terminateItem != null) terminateItem.setVisible(false);
             if (shareItem != null) shareItem.setVisible(false); // Or allow clients to share too
+            if (statsItem != null) statsItem.setVisible(false);
+            if (searchItem != null) searchItem.setVisible(false); // Only the host keeps the archive
+            if (metricsItem != null) metricsItem.setVisible(false); // The relay runs on the host
+            if (traceItem != null) traceItem.setVisible(false); // Clients follow the host's trace mode
+            if (exportTraceItem != null) exportTraceItem.setVisible(false);
         }
         return super.onPrepareOptionsMenu(menu);
     }
@@ -471,6 +734,24 @@ public class ChatActivity extends AppCompatActivity {
         } else if (itemId == R.id.action_share_room_id) {
             shareRoomId();
             return true;
+        } else if (itemId == R.id.action_connection_stats) {
+            if (isHost) showConnectionStats();
+            return true;
+        } else if (itemId == R.id.action_search_history) {
+            if (isHost) showSearchDialog();
+            return true;
+        } else if (itemId == R.id.action_room_metrics) {
+            if (isHost) showRoomMetrics();
+            return true;
+        } else if (itemId == R.id.action_trace_latency) {
+            if (isHost && roomHostService != null) {
+                roomHostService.setTracing(!roomHostService.isTracing());
+                item.setChecked(roomHostService.isTracing());
+            }
+            return true;
+        } else if (itemId == R.id.action_export_trace) {
+            if (isHost) exportTrace();
+            return true;
         }
         return super.onOptionsItemSelected(item);
     }
@@ -483,6 +764,103 @@ public class ChatActivity extends AppCompatActivity {
         startActivity(Intent.createChooser(sendIntent, getString(R.string.share_room_title)));
     }
 
+    // Per-client outbound queue counters, to spot a laggard before it is evicted
+    private void showConnectionStats() {
+        if (roomHostService == null) return;
+        new MaterialAlertDialogBuilder(this)
+            .setTitle(R.string.title_connection_stats)
+            .setMessage(roomHostService.connectionStats())
+            .setPositiveButton(R.string.button_ok, null)
+            .show();
+    }
+
+    // Live view of the room's metrics, refreshed every second while the dialog is open
+    private void showRoomMetrics() {
+        if (roomHostService == null) return;
+        AlertDialog dialog = new MaterialAlertDialogBuilder(this)
+            .setTitle(R.string.title_room_metrics)
+            .setMessage(roomHostService.metricsDump())
+            .setPositiveButton(R.string.button_ok, null)
+            .show();
+        uiHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                if (!dialog.isShowing() || roomHostService == null) return;
+                dialog.setMessage(roomHostService.metricsDump());
+                uiHandler.postDelayed(this, METRICS_REFRESH_MS);
+            }
+        }, METRICS_REFRESH_MS);
+    }
+
+    // Writes the collected trace reports as CSV to app storage, where "adb pull" can fetch them
+    private void exportTrace() {
+        RoomHostService service = roomHostService;
+        if (service == null) return;
+        File external = getExternalFilesDir("traces");
+        File dir = external != null ? external : new File(getFilesDir(), "traces");
+        historyExecutorService.execute(() -> {
+            String result;
+            try {
+                File file = service.exportTrace(dir);
+                result = file != null ? getString(R.string.trace_exported, file.getAbsolutePath()) : getString(R.string.trace_empty);
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to export the latency trace", e);
+                result = getString(R.string.trace_export_failed);
+            }
+            String message = result;
+            uiHandler.post(() -> Toast.makeText(ChatActivity.this, message, Toast.LENGTH_LONG).show());
+        });
+    }
+
+    private void showSearchDialog() {
+        View dialogView = LayoutInflater.from(this).inflate(R.layout.dialog_search_history, null);
+        final EditText editTextSearch = dialogView.findViewById(R.id.editTextSearch);
+        new MaterialAlertDialogBuilder(this)
+            .setTitle(R.string.title_search_history)
+            .setView(dialogView)
+            .setPositiveButton(R.string.button_search, (dialog, which) -> {
+                String query = editTextSearch.getText().toString().trim();
+                if (!TextUtils.isEmpty(query)) searchHistory(query, null);
+            })
+            .setNegativeButton(R.string.button_cancel, null)
+            .show();
+    }
+
+    // Ranked full-text search over this room's archive; reads run on the history pool, not the write thread
+    // cursor is null for the first page
+    private void searchHistory(String query, MessageSearch.Cursor cursor) {
+        if (messageSearch == null) return;
+        historyExecutorService.execute(() -> {
+            MessageSearch.Page page = cursor == null
+                    ? messageSearch.search(query, roomNumber, SEARCH_PAGE_SIZE)
+                    : messageSearch.search(cursor, SEARCH_PAGE_SIZE);
+            uiHandler.post(() -> showSearchResults(query, page));
+        });
+    }
+
+    private void showSearchResults(String query, MessageSearch.Page page) {
+        if (isFinishing()) return;
+        List<ChatMessage> results = page.results;
+        if (results.isEmpty()) {
+            Toast.makeText(this, getString(R.string.search_no_results, query), Toast.LENGTH_SHORT).show();
+            return;
+        }
+        String[] items = new String[results.size()];
+        for (int i = 0; i < items.length; i++) {
+            ChatMessage msg = results.get(i);
+            String time = MessageTimeFormatter.format(msg.getTimestamp());
+            items[i] = msg.getSenderName() + (time.isEmpty() ? "" : " (" + time + ")") + ": " + msg.getMessageText();
+        }
+        MaterialAlertDialogBuilder builder = new MaterialAlertDialogBuilder(this)
+            .setTitle(getString(R.string.title_search_history) + ": " + query)
+            .setItems(items, null)
+            .setPositiveButton(R.string.button_ok, null);
+        if (page.next != null) {
+            builder.setNeutralButton(R.string.button_more_results, (dialog, which) -> searchHistory(query, page.next));
+        }
+        builder.show();
+    }
+
     private void confirmAndLeaveRoom() {
         String message = isHost ? "Leaving as host will close the room for everyone. Continue?" : "Are you sure you want to leave the room?";
         new MaterialAlertDialogBuilder(this)
@@ -514,50 +892,23 @@ public class ChatActivity extends AppCompatActivity {
         roomHasBeenTerminated = true;
 
         addSystemMessageToUI("Host is closing the room...");
-        broadcastMessageToClients(ROOM_CLOSED_MSG, null); // Notify clients
-
-        // Stop server and clean up host resources
-        cleanupServerResources();
-
-        if (deleteHistory && isHost && chatMessageDao != null) {
-            dbExecutorService.execute(() -> {
-                chatMessageDao.deleteMessagesForRoom(roomNumber);
-                uiHandler.post(() -> Toast.makeText(ChatActivity.this, "Room history deleted.", Toast.LENGTH_SHORT).show());
-            });
+        if (roomHostService != null) {
+            roomHostService.closeRoom(deleteHistory); // Notifies clients, stops advertising, deletes history if asked
+        } else {
+            stopService(new Intent(this, RoomHostService.class)); // Not bound yet; its onDestroy closes the room
         }
-        Toast.makeText(this, "Room terminated.", Toast.LENGTH_LONG).show();
-        MainActivity.hostingRoomId = null; // Signal MainActivity
+        Toast.makeText(this, deleteHistory ? "Room terminated and its history deleted." : "Room terminated.", Toast.LENGTH_LONG).show();
         finish();
     }
 
     // --- Cleanup ---
-    private void cleanupServerResources() {
-        Log.d(TAG, "Cleaning up server resources.");
-        for (ClientHandler handler : clientHandlers) {
-            handler.cleanup(); // Closes individual client sockets and streams
-        }
-        clientHandlers.clear();
-        try {
-            if (serverSocket != null && !serverSocket.isClosed()) {
-                serverSocket.close();
-                Log.i(TAG, "Server socket closed.");
-            }
-        } catch (IOException e) {
-            Log.e(TAG, "Error closing server socket", e);
-        }
-    }
 
     private void cleanupClientResources() {
         Log.d(TAG, "Cleaning up client resources.");
-        try {
-            if (clientOutputWriter != null) clientOutputWriter.close();
-            if (clientInputReader != null) clientInputReader.close();
-            if (clientSocket != null && !clientSocket.isClosed()) {
-                clientSocket.close();
-                Log.i(TAG, "Client socket closed.");
-            }
-        } catch (IOException e) {
-            Log.e(TAG, "Error closing client resources", e);
+        leavingRoom = true;
+        if (chatClient != null) {
+            chatClient.close(); // Also unblocks the reader thread
+            Log.i(TAG, "Client socket closed.");
         }
     }
 
@@ -565,13 +916,16 @@ public class ChatActivity extends AppCompatActivity {
     protected void onDestroy() {
         super.onDestroy();
         Log.d(TAG, "ChatActivity onDestroy. isHost: " + isHost + ", roomTerminated: " + roomHasBeenTerminated);
+        leavingRoom = true; // A client waiting to reconnect gives up
+        if (inboundFrames != null) inboundFrames.stop();
+        if (inboundMessages != null) inboundMessages.stop();
 
-        if (isHost && !roomHasBeenTerminated) {
-            // If host leaves without explicitly terminating (e.g. back button after confirmation)
-            // ensure server resources are cleaned up. performRoomTermination handles this.
-            // If it was a true termination, resources are already cleaned.
-            // If it was just leaving (performRoomTermination(false)), server is also cleaned.
-        } else if (!isHost && (clientSocket != null && !clientSocket.isClosed())) {
+        if (isHost) {
+            // The room outlives this screen (rotation, back button); only performRoomTermination closes it
+            if (roomHostService != null) roomHostService.clearListener(hostListener);
+            if (hostServiceBound) unbindService(hostConnection);
+            roomHostService = null;
+        } else if (chatClient != null && chatClient.isConnected()) {
             // Client is being destroyed, ensure its resources are cleaned
             cleanupClientResources();
         }
@@ -579,9 +933,13 @@ public class ChatActivity extends AppCompatActivity {
         if (networkExecutorService != null && !networkExecutorService.isShutdown()) {
             networkExecutorService.shutdownNow(); // Attempt to stop all tasks
         }
-        if (dbExecutorService != null && !dbExecutorService.isShutdown()) {
-            dbExecutorService.shutdown();
+        if (historyExecutorService != null && !historyExecutorService.isShutdown()) {
+            historyExecutorService.shutdownNow();
+        }
+        if (textLayoutExecutorService != null) {
+            textLayoutExecutorService.shutdownNow();
         }
+        if (messageTextCache != null) messageTextCache.clear();
         uiHandler.removeCallbacksAndMessages(null); // Clean up handler
     }
 }
\ No newline at end of file
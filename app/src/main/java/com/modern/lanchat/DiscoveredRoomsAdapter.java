@@ -6,26 +6,57 @@ import android.view.ViewGroup;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.modern.lanchat.R;
 import com.modern.lanchat.model.DiscoveredRoom;
 
-import java.util.List;
+import java.util.HashMap;
 import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Rows for discovered rooms. The caller owns the list and submits a copy whenever it changes;
+ * the diff runs on a background thread, so discovery churn only rebinds the rooms that changed.
+ */
+public class DiscoveredRoomsAdapter extends ListAdapter<DiscoveredRoom, DiscoveredRoomsAdapter.RoomViewHolder> {
+
+    private static final DiffUtil.ItemCallback<DiscoveredRoom> DIFF_CALLBACK = new DiffUtil.ItemCallback<DiscoveredRoom>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull DiscoveredRoom oldItem, @NonNull DiscoveredRoom newItem) {
+            return oldItem.getKey().equals(newItem.getKey());
+        }
 
-public class DiscoveredRoomsAdapter extends RecyclerView.Adapter<DiscoveredRoomsAdapter.RoomViewHolder> {
+        @Override
+        public boolean areContentsTheSame(@NonNull DiscoveredRoom oldItem, @NonNull DiscoveredRoom newItem) {
+            return oldItem.equals(newItem);
+        }
+    };
 
-    private final List<DiscoveredRoom> discoveredRoomsList;
-    private OnRoomClickListener onRoomClickListener;
+    private final OnRoomClickListener onRoomClickListener;
+    private final Map<String, Long> stableIds = new HashMap<>(); // Room key to row id, UI thread only
 
     public interface OnRoomClickListener {
         void onRoomClick(DiscoveredRoom room);
     }
 
-    public DiscoveredRoomsAdapter(List<DiscoveredRoom> discoveredRoomsList, OnRoomClickListener listener) {
-        this.discoveredRoomsList = discoveredRoomsList;
+    public DiscoveredRoomsAdapter(OnRoomClickListener listener) {
+        super(DIFF_CALLBACK);
         this.onRoomClickListener = listener;
+        setHasStableIds(true);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        String key = getItem(position).getKey();
+        Long id = stableIds.get(key);
+        if (id == null) {
+            id = (long) stableIds.size() + 1;
+            stableIds.put(key, id);
+        }
+        return id;
     }
 
     @NonNull
@@ -38,60 +69,10 @@ public class DiscoveredRoomsAdapter extends RecyclerView.Adapter<DiscoveredRooms
 
     @Override
     public void onBindViewHolder(@NonNull RoomViewHolder holder, int position) {
-        DiscoveredRoom room = discoveredRoomsList.get(position);
+        DiscoveredRoom room = getItem(position);
         holder.bind(room, onRoomClickListener);
     }
 
-    @Override
-    public int getItemCount() {
-        return discoveredRoomsList.size();
-    }
-
-    // Method to update the list of rooms
-    public void updateRooms(List<DiscoveredRoom> newRooms) {
-        discoveredRoomsList.clear();
-        if (newRooms != null) {
-            discoveredRoomsList.addAll(newRooms);
-        }
-        notifyDataSetChanged(); // Or use DiffUtil for better performance with large lists
-    }
-
-    public void addRoom(DiscoveredRoom room) {
-        // Prevent duplicates based on hostAddress and port (or a unique room ID from NSD)
-        for (DiscoveredRoom existingRoom : discoveredRoomsList) {
-            if (existingRoom.getHostAddress().equals(room.getHostAddress()) &&
-                existingRoom.getHostPort() == room.getHostPort() &&
-                existingRoom.getRoomNumber().equals(room.getRoomNumber())) {
-                return; // Room already exists
-            }
-        }
-        discoveredRoomsList.add(room);
-        notifyItemInserted(discoveredRoomsList.size() - 1);
-    }
-
-    public void removeRoom(DiscoveredRoom roomToRemove) {
-        int position = -1;
-        for (int i = 0; i < discoveredRoomsList.size(); i++) {
-            DiscoveredRoom room = discoveredRoomsList.get(i);
-            // Matching criteria might need to be more robust depending on NSD service info
-            if (room.getHostAddress().equals(roomToRemove.getHostAddress()) &&
-                room.getHostPort() == roomToRemove.getHostPort() &&
-                room.getRoomNumber().equals(roomToRemove.getRoomNumber())) {
-                position = i;
-                break;
-            }
-        }
-        if (position != -1) {
-            discoveredRoomsList.remove(position);
-            notifyItemRemoved(position);
-        }
-    }
-
-    public void clearRooms() {
-        discoveredRoomsList.clear();
-        notifyDataSetChanged();
-    }
-
 
     static class RoomViewHolder extends RecyclerView.ViewHolder {
         TextView textViewRoomIdentifier;
@@ -106,8 +87,12 @@ public class DiscoveredRoomsAdapter extends RecyclerView.Adapter<DiscoveredRooms
         void bind(final DiscoveredRoom room, final OnRoomClickListener listener) {
             textViewRoomIdentifier.setText(String.format(Locale.getDefault(),
                     "%s (ID: %s)", room.getRoomName(), room.getRoomNumber()));
-            textViewHostInfo.setText(String.format(Locale.getDefault(),
-                    "Host: %s (%s:%d)", room.getHostName(), room.getHostAddress(), room.getHostPort()));
+            String hostInfo = String.format(Locale.getDefault(),
+                    "Host: %s (%s:%d)", room.getHostName(), room.getHostAddress(), room.getHostPort());
+            if (room.getMemberCount() >= 0) { // Only beacons carry it
+                hostInfo += String.format(Locale.getDefault(), " · %d in room", room.getMemberCount());
+            }
+            textViewHostInfo.setText(hostInfo);
 
             itemView.setOnClickListener(v -> {
                 if (listener != null) {
@@ -116,4 +101,4 @@ public class DiscoveredRoomsAdapter extends RecyclerView.Adapter<DiscoveredRooms
             });
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,72 @@
+package com.modern.lanchat.ui;
+
+import android.view.Choreographer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Collects items from any thread and hands them to the UI thread in batches, at most once per
+ * display frame. A burst of network traffic therefore costs one adapter update per frame rather
+ * than one looper message per item. Items beyond {@code maxPerFrame} wait for the next frame,
+ * so a large burst cannot stall a single frame either.
+ */
+public class FrameBatcher<T> {
+
+    public interface Handler<T> {
+        /** Called on the UI thread with items in the order they were posted. */
+        void onBatch(List<T> batch);
+    }
+
+    private final ConcurrentLinkedQueue<T> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean frameScheduled = new AtomicBoolean(false);
+    private final Choreographer choreographer;
+    private final Handler<T> handler;
+    private final int maxPerFrame;
+    private final Choreographer.FrameCallback frameCallback = frameTimeNanos -> drain();
+    private volatile boolean stopped = false;
+
+    /** Must be created on the UI thread, whose Choreographer it uses. */
+    public FrameBatcher(Handler<T> handler, int maxPerFrame) {
+        this.choreographer = Choreographer.getInstance();
+        this.handler = handler;
+        this.maxPerFrame = maxPerFrame;
+    }
+
+    /** Queues an item for the next frame. Safe to call from any thread. */
+    public void post(T item) {
+        queue.add(item);
+        scheduleFrame();
+    }
+
+    /** Drops anything queued and stops delivering. */
+    public void stop() {
+        stopped = true;
+        choreographer.removeFrameCallback(frameCallback);
+        queue.clear();
+    }
+
+    private void scheduleFrame() {
+        if (!stopped && frameScheduled.compareAndSet(false, true)) {
+            choreographer.postFrameCallback(frameCallback); // Choreographer is safe to call from any thread
+        }
+    }
+
+    private void drain() {
+        frameScheduled.set(false);
+        if (stopped) return;
+        List<T> batch = new ArrayList<>(Math.min(queue.size(), maxPerFrame));
+        T item;
+        while (batch.size() < maxPerFrame && (item = queue.poll()) != null) {
+            batch.add(item);
+        }
+        if (!batch.isEmpty()) {
+            handler.onBatch(batch);
+        }
+        if (!queue.isEmpty()) {
+            scheduleFrame(); // Leftovers, or items posted while this batch ran
+        }
+    }
+}
@@ -7,32 +7,44 @@ import android.net.nsd.NsdManager;
 import android.net.nsd.NsdServiceInfo;
 import android.net.wifi.WifiInfo;
 import android.net.wifi.WifiManager;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.text.TextUtils;
 import android.util.Log;
 import android.view.LayoutInflater;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
 import android.widget.EditText;
 import android.widget.Toast;
 
 import androidx.activity.result.ActivityResultLauncher;
 import androidx.activity.result.contract.ActivityResultContracts;
+import androidx.annotation.NonNull;
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.recyclerview.widget.LinearLayoutManager;
 
 import com.google.android.material.dialog.MaterialAlertDialogBuilder;
 import com.modern.lanchat.databinding.ActivityMainBinding;
+import com.modern.lanchat.discovery.BeaconScanner;
+import com.modern.lanchat.discovery.DiscoveryMode;
+import com.modern.lanchat.discovery.DiscoveryStats;
+import com.modern.lanchat.discovery.ResolveQueue;
+import com.modern.lanchat.discovery.RoomBeacon;
+import com.modern.lanchat.discovery.RoomRegistry;
 import com.modern.lanchat.model.DiscoveredRoom;
 import com.modern.lanchat.ui.DiscoveredRoomsAdapter;
 
 import java.io.IOException;
 import java.net.InetAddress;
-import java.net.ServerSocket;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Locale;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class MainActivity extends AppCompatActivity implements DiscoveredRoomsAdapter.OnRoomClickListener {
 
@@ -41,11 +53,13 @@ public class MainActivity extends AppCompatActivity implements DiscoveredRoomsAd
 
     public static final String PREFS_NAME = "LanChatPrefs";
     public static final String KEY_USER_NAME = "userName";
+    public static final String KEY_DISCOVERY_MODE = "discoveryMode"; // A DiscoveryMode name
     public static final String EXTRA_ROOM_NUMBER = "roomNumber";
     public static final String EXTRA_IS_HOST = "isHost";
     public static final String EXTRA_USER_NAME = "userName";
     public static final String EXTRA_HOST_IP = "hostIp";
     public static final String EXTRA_HOST_PORT = "hostPort";
+    public static final String EXTRA_CREATE_STARTED_NANOS = "createStartedNanos"; // System.nanoTime() of the create tap
 
 
     private String userName;
@@ -56,14 +70,28 @@ public class MainActivity extends AppCompatActivity implements DiscoveredRoomsAd
     // Network Service Discovery (NSD)
     private NsdManager nsdManager;
     private NsdManager.DiscoveryListener discoveryListener;
-    private NsdManager.RegistrationListener registrationListener;
-    private String serviceName = null; // NSD service name
     public static final String SERVICE_TYPE = "_lanchat._tcp."; // Your unique service type
-    private ServerSocket serverSocket; // For the host to listen
-    private int hostPort = 0; // Port the host is listening on
 
-    private List<DiscoveredRoom> discoveredRoomsList;
+    // Discovery is restarted periodically so NSD re-reports the rooms still there; rooms missing
+    // from several refreshes in a row have expired
+    private static final long DISCOVERY_REFRESH_MS = 30_000;
+    private static final long ROOM_TTL_MS = 3 * DISCOVERY_REFRESH_MS;
+
+    private static final int RESOLVE_MAX_CONCURRENT = 4;
+
+    private RoomRegistry roomRegistry; // UI thread only; keyed by NSD service name and room number
+    private ResolveQueue resolveQueue; // UI thread only; resolves found services without overlapping
     private DiscoveredRoomsAdapter discoveredRoomsAdapter;
+    private final Handler uiHandler = new Handler(Looper.getMainLooper());
+    private final Runnable discoveryRefresh = this::refreshDiscovery;
+
+    // Discovery by UDP beacon, alongside or instead of NSD
+    private DiscoveryMode discoveryMode = DiscoveryMode.NSD;
+    private ExecutorService discoveryExecutorService; // Runs the beacon scanner and its probes
+    private BeaconScanner beaconScanner;
+    private WifiManager.MulticastLock beaconLock; // Some devices filter broadcasts unless it is held
+    private final DiscoveryStats nsdStats = new DiscoveryStats("NSD");
+    private final DiscoveryStats beaconStats = new DiscoveryStats("Beacons");
 
     // ActivityResultLauncher for getting result from ChatActivity (e.g., if room was terminated)
     private ActivityResultLauncher<Intent> chatActivityLauncher;
@@ -87,6 +115,8 @@ public class MainActivity extends AppCompatActivity implements DiscoveredRoomsAd
         binding.buttonJoinRoom.setOnClickListener(v -> handleJoinRoom());
 
         nsdManager = (NsdManager) getSystemService(Context.NSD_SERVICE);
+        resolveQueue = newResolveQueue();
+        discoveryExecutorService = Executors.newCachedThreadPool();
 
         // Initialize ActivityResultLauncher
         chatActivityLauncher = registerForActivityResult(
@@ -105,6 +135,7 @@ public class MainActivity extends AppCompatActivity implements DiscoveredRoomsAd
     private void loadUserName() {
         SharedPreferences prefs = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
         userName = prefs.getString(KEY_USER_NAME, null);
+        discoveryMode = DiscoveryMode.fromPreference(prefs.getString(KEY_DISCOVERY_MODE, null));
     }
 
     private void saveUserName(String name) {
@@ -158,15 +189,18 @@ public class MainActivity extends AppCompatActivity implements DiscoveredRoomsAd
     }
 
     private void setupRecyclerView() {
-        discoveredRoomsList = new ArrayList<>();
-        discoveredRoomsAdapter = new DiscoveredRoomsAdapter(discoveredRoomsList, this);
+        discoveredRoomsAdapter = new DiscoveredRoomsAdapter(this);
+        roomRegistry = new RoomRegistry(ROOM_TTL_MS, rooms -> {
+            discoveredRoomsAdapter.submitList(rooms);
+            updateDiscoveredRoomsUI();
+        });
         binding.recyclerViewDiscoveredRooms.setLayoutManager(new LinearLayoutManager(this));
         binding.recyclerViewDiscoveredRooms.setAdapter(discoveredRoomsAdapter);
         updateDiscoveredRoomsUI();
     }
 
     private void updateDiscoveredRoomsUI() {
-        if (discoveredRoomsList.isEmpty()) {
+        if (roomRegistry.isEmpty()) {
             binding.textViewNoRooms.setVisibility(View.VISIBLE);
             binding.recyclerViewDiscoveredRooms.setVisibility(View.GONE);
             binding.textViewDiscoveredRoomsLabel.setText(R.string.label_no_rooms_available);
@@ -192,25 +226,10 @@ public class MainActivity extends AppCompatActivity implements DiscoveredRoomsAd
         currentHostingRoomNumber = String.valueOf(10000 + new Random().nextInt(90000));
         hostingRoomId = currentHostingRoomNumber; // Set global static flag
 
-        // Start server socket to get a port
-        try {
-            serverSocket = new ServerSocket(0); // 0 for dynamically allocated port
-            hostPort = serverSocket.getLocalPort();
-            Log.i(TAG, "Server socket started on port: " + hostPort);
-            // Note: We are NOT yet accepting connections here. ChatActivity will do that.
-            // For simplicity, we pass the serverSocket or its port to ChatActivity.
-            // A more robust design would have a dedicated network service.
-
-            registerNsdService(hostPort, currentHostingRoomNumber, userName);
-            updateHostingUI();
-            navigateToChatActivity(currentHostingRoomNumber, true, null, 0);
-        } catch (IOException e) {
-            Log.e(TAG, "Error starting server socket", e);
-            Toast.makeText(this, "Failed to start hosting: " + e.getMessage(), Toast.LENGTH_LONG).show();
-            hostingRoomId = null; // Reset if failed
-            currentHostingRoomNumber = null;
-            updateHostingUI();
-        }
+        // No socket here: RoomHostService binds a free port once, hands that channel to the relay,
+        // and advertises the room only when it is accepting. It reports failures to ChatActivity.
+        updateHostingUI();
+        navigateToChatActivity(currentHostingRoomNumber, true, null, 0);
     }
 
     private void updateHostingUI() {
@@ -239,14 +258,8 @@ public class MainActivity extends AppCompatActivity implements DiscoveredRoomsAd
         }
         binding.textInputLayoutRoomNumber.setError(null);
 
-        // Find the room in the discovered list
-        DiscoveredRoom targetRoom = null;
-        for (DiscoveredRoom room : discoveredRoomsList) {
-            if (room.getRoomNumber().equals(roomNumToJoin)) {
-                targetRoom = room;
-                break;
-            }
-        }
+        // Find the room among the discovered ones
+        DiscoveredRoom targetRoom = roomRegistry.findByRoomNumber(roomNumToJoin);
 
         if (targetRoom != null) {
             Log.i(TAG, "Joining discovered room: " + targetRoom.getRoomNumber() + " at " + targetRoom.getHostAddress() + ":" + targetRoom.getHostPort());
@@ -279,33 +292,51 @@ public class MainActivity extends AppCompatActivity implements DiscoveredRoomsAd
             intent.putExtra(EXTRA_HOST_IP, hostIp);
             intent.putExtra(EXTRA_HOST_PORT, port);
         }
-        // Pass the serverSocket's port if hosting. ChatActivity will manage the socket.
-        if (isHost && serverSocket != null) {
-            intent.putExtra(EXTRA_HOST_PORT, serverSocket.getLocalPort());
-            // ChatActivity will need to take over the serverSocket or create its own.
-            // For this example, let's assume ChatActivity creates its own listener on this port.
-            // Closing the one here as ChatActivity will re-open it.
-            // This is a simplification; a shared service or passing the socket itself would be better.
-            try {
-                if(serverSocket != null && !serverSocket.isClosed()){
-                    // serverSocket.close(); // ChatActivity will take over this port.
-                    // Actually, let ChatActivity handle the socket. HostPort is enough.
-                }
-            } catch (Exception e) {
-                Log.e(TAG, "Error closing temporary server socket", e);
-            }
+        if (isHost) {
+            intent.putExtra(EXTRA_CREATE_STARTED_NANOS, System.nanoTime()); // Room startup is timed from here
         }
         chatActivityLauncher.launch(intent);
     }
 
     // --- NSD Implementation ---
+    private ResolveQueue newResolveQueue() {
+        // Android 14 lets NsdManager resolve several services at once; earlier versions one at a time
+        int maxConcurrent = Build.VERSION.SDK_INT >= Build.VERSION_CODES.UPSIDE_DOWN_CAKE ? RESOLVE_MAX_CONCURRENT : 1;
+        return new ResolveQueue(nsdManager, uiHandler, maxConcurrent, ResolveQueue.DEFAULT_MAX_ATTEMPTS,
+                ResolveQueue.DEFAULT_RETRY_BASE_MS, new ResolveQueue.Callback() {
+            @Override
+            public void onResolved(String serviceName, NsdServiceInfo serviceInfo, long latencyMs) {
+                Log.i(TAG, "NSD Service resolved in " + latencyMs + " ms: " + serviceInfo);
+                String roomNum = serviceInfo.getAttributes().get("roomNumber") != null ? new String(serviceInfo.getAttributes().get("roomNumber")) : "N/A";
+                String hostUsername = serviceInfo.getAttributes().get("userName") != null ? new String(serviceInfo.getAttributes().get("userName")) : "Unknown Host";
+                String roomFriendlyName = serviceInfo.getAttributes().get("roomName") != null ? new String(serviceInfo.getAttributes().get("roomName")) : "Room " + roomNum;
+
+                DiscoveredRoom room = new DiscoveredRoom(
+                        roomNum,
+                        roomFriendlyName, // Can be enhanced
+                        hostUsername,
+                        serviceInfo.getHost().getHostAddress(),
+                        serviceInfo.getPort()
+                );
+                long now = SystemClock.elapsedRealtime();
+                nsdStats.onSeen(room.getKey(), now);
+                roomRegistry.update(serviceName, room, now);
+            }
+
+            @Override
+            public void onGaveUp(String serviceName, int errorCode) {
+                Log.e(TAG, "NSD Resolve failed for " + serviceName + " Error: " + errorCode);
+            }
+        });
+    }
+
     private void initializeNsdDiscovery() {
         discoveryListener = new NsdManager.DiscoveryListener() {
             @Override
             public void onDiscoveryStarted(String regType) {
                 Log.d(TAG, "NSD Service discovery started: " + regType);
                 runOnUiThread(() -> {
-                    binding.textViewDiscoveredRoomsLabel.setText("Discovering rooms...");
+                    if (roomRegistry.isEmpty()) binding.textViewDiscoveredRoomsLabel.setText("Discovering rooms...");
                     binding.progressBar.setVisibility(View.VISIBLE);
                 });
             }
@@ -315,34 +346,13 @@ public class MainActivity extends AppCompatActivity implements DiscoveredRoomsAd
                 Log.d(TAG, "NSD Service found: " + service.getServiceName() + " type: " + service.getServiceType());
                 if (!service.getServiceType().equals(SERVICE_TYPE)) {
                     Log.d(TAG, "Unknown Service Type: " + service.getServiceType());
-                } else if (service.getServiceName().equals(MainActivity.this.serviceName)) {
-                    Log.d(TAG, "Same machine: " + MainActivity.this.serviceName); // Own service
+                } else if (service.getServiceName().equals(RoomHostService.getAdvertisedServiceName())) {
+                    Log.d(TAG, "Same machine: " + service.getServiceName()); // Own service
                 } else {
-                    nsdManager.resolveService(service, new NsdManager.ResolveListener() {
-                        @Override
-                        public void onResolveFailed(NsdServiceInfo serviceInfo, int errorCode) {
-                            Log.e(TAG, "NSD Resolve failed for " + serviceInfo.getServiceName() + " Error: " + errorCode);
-                        }
-
-                        @Override
-                        public void onServiceResolved(NsdServiceInfo serviceInfo) {
-                            Log.i(TAG, "NSD Service resolved: " + serviceInfo);
-                            String roomNum = serviceInfo.getAttributes().get("roomNumber") != null ? new String(serviceInfo.getAttributes().get("roomNumber")) : "N/A";
-                            String hostUsername = serviceInfo.getAttributes().get("userName") != null ? new String(serviceInfo.getAttributes().get("userName")) : "Unknown Host";
-                            String roomFriendlyName = serviceInfo.getAttributes().get("roomName") != null ? new String(serviceInfo.getAttributes().get("roomName")) : "Room " + roomNum;
-
-                            DiscoveredRoom room = new DiscoveredRoom(
-                                    roomNum,
-                                    roomFriendlyName, // Can be enhanced
-                                    hostUsername,
-                                    serviceInfo.getHost().getHostAddress(),
-                                    serviceInfo.getPort()
-                            );
-                            runOnUiThread(() -> {
-                                discoveredRoomsAdapter.addRoom(room);
-                                updateDiscoveredRoomsUI();
-                            });
-                        }
+                    runOnUiThread(() -> {
+                        // Already listed: found again after a refresh, so it is still there
+                        if (roomRegistry.touch(service.getServiceName(), SystemClock.elapsedRealtime())) return;
+                        resolveQueue.enqueue(service);
                     });
                 }
             }
@@ -350,25 +360,8 @@ public class MainActivity extends AppCompatActivity implements DiscoveredRoomsAd
             @Override
             public void onServiceLost(NsdServiceInfo service) {
                 Log.e(TAG, "NSD Service lost: " + service.getServiceName());
-                // Find and remove the room from the list
-                 DiscoveredRoom roomToRemove = null;
-                for (DiscoveredRoom r : discoveredRoomsList) {
-                    // Matching needs to be careful: service name from NSD might be different from room ID
-                    // Best to match on host IP and port if possible, or unique service ID from NSD record.
-                    // For now, a simpler match if attributes were stored.
-                    // This part needs robust unique identification of services.
-                    if (r.getHostAddress().equals(service.getHost().getHostAddress()) && r.getHostPort() == service.getPort()) {
-                        roomToRemove = r;
-                        break;
-                    }
-                }
-                if (roomToRemove != null) {
-                    final DiscoveredRoom finalRoomToRemove = roomToRemove;
-                    runOnUiThread(() -> {
-                        discoveredRoomsAdapter.removeRoom(finalRoomToRemove);
-                        updateDiscoveredRoomsUI();
-                    });
-                }
+                String lostName = service.getServiceName(); // Lost services arrive unresolved; the name is what identifies them
+                runOnUiThread(() -> roomRegistry.remove(lostName));
             }
 
             @Override
@@ -376,7 +369,7 @@ public class MainActivity extends AppCompatActivity implements DiscoveredRoomsAd
                 Log.i(TAG, "NSD Discovery stopped: " + serviceType);
                  runOnUiThread(() -> {
                     binding.progressBar.setVisibility(View.GONE);
-                    if (discoveredRoomsList.isEmpty()) {
+                    if (roomRegistry.isEmpty()) {
                          binding.textViewDiscoveredRoomsLabel.setText(R.string.label_no_rooms_available);
                     }
                 });
@@ -401,77 +394,148 @@ public class MainActivity extends AppCompatActivity implements DiscoveredRoomsAd
         nsdManager.discoverServices(SERVICE_TYPE, NsdManager.PROTOCOL_DNS_SD, discoveryListener);
     }
 
-    private void stopNsdDiscovery() {
-        if (discoveryListener != null) {
-            try {
-                nsdManager.stopServiceDiscovery(discoveryListener);
-            } catch (IllegalArgumentException e) {
-                Log.e(TAG, "Error stopping NSD discovery, listener not registered or already unregistered.", e);
-            }
-            discoveryListener = null;
+    // Expires rooms that stopped announcing, then asks again so the rest are found again
+    private void refreshDiscovery() {
+        roomRegistry.expire(SystemClock.elapsedRealtime());
+        if (discoveryMode.usesNsd()) {
+            stopNsdDiscovery();
+            initializeNsdDiscovery();
+        }
+        if (discoveryMode.usesBeacons()) {
+            probeBeacons();
         }
+        uiHandler.postDelayed(discoveryRefresh, DISCOVERY_REFRESH_MS);
     }
 
-    private void registerNsdService(int port, String roomNum, String hostUserName) {
-        NsdServiceInfo serviceInfo = new NsdServiceInfo();
-        serviceInfo.setServiceName("LanChatRoom_" + roomNum); // Unique service name
-        serviceInfo.setServiceType(SERVICE_TYPE);
-        serviceInfo.setPort(port);
-        // Add attributes
-        serviceInfo.setAttribute("roomNumber", roomNum);
-        serviceInfo.setAttribute("userName", hostUserName);
-        // serviceInfo.setAttribute("roomName", "My Awesome Chat Room"); // Optional friendly name
+    private void startDiscovery() {
+        long now = SystemClock.elapsedRealtime();
+        nsdStats.start(now);
+        beaconStats.start(now);
+        if (discoveryMode.usesNsd()) initializeNsdDiscovery();
+        if (discoveryMode.usesBeacons()) startBeaconScan();
+        uiHandler.removeCallbacks(discoveryRefresh);
+        uiHandler.postDelayed(discoveryRefresh, DISCOVERY_REFRESH_MS);
+    }
 
-        this.serviceName = serviceInfo.getServiceName(); // Store our own service name
+    private void stopDiscovery() {
+        uiHandler.removeCallbacks(discoveryRefresh);
+        stopNsdDiscovery();
+        resolveQueue.cancelAll();
+        stopBeaconScan();
+        Log.i(TAG, "Discovery (" + discoveryMode + "): " + nsdStats + "; " + beaconStats + "; NSD resolves: " + resolveQueue.stats());
+    }
 
-        registrationListener = new NsdManager.RegistrationListener() {
-            @Override
-            public void onServiceRegistered(NsdServiceInfo NsdServiceInfo) {
-                MainActivity.this.serviceName = NsdServiceInfo.getServiceName();
-                Log.i(TAG, "NSD Service registered: " + MainActivity.this.serviceName);
+    // --- Beacon discovery ---
+    private void startBeaconScan() {
+        WifiManager wifiManager = (WifiManager) getApplicationContext().getSystemService(Context.WIFI_SERVICE);
+        if (wifiManager != null) {
+            beaconLock = wifiManager.createMulticastLock("lanchat-beacons");
+            beaconLock.setReferenceCounted(false);
+            beaconLock.acquire();
+        }
+        BeaconScanner scanner = new BeaconScanner(RoomBeacon.DEFAULT_PORT, (from, beacon) -> {
+            DiscoveredRoom room = new DiscoveredRoom(beacon.roomNumber, null, beacon.hostName,
+                    from.getAddress().getHostAddress(), beacon.port, beacon.memberCount);
+            runOnUiThread(() -> {
+                long now = SystemClock.elapsedRealtime();
+                beaconStats.onSeen(room.getKey(), now);
+                roomRegistry.update("beacon:" + room.getKey(), room, now);
+            });
+        });
+        beaconScanner = scanner;
+        discoveryExecutorService.execute(() -> {
+            try {
+                scanner.open();
+                scanner.probe(); // Hosts answer now rather than at their next beacon
+            } catch (IOException e) {
+                Log.e(TAG, "Beacon discovery unavailable on port " + RoomBeacon.DEFAULT_PORT, e);
+                scanner.close();
+                return;
             }
+            scanner.run(); // Blocks until stopBeaconScan()
+        });
+    }
 
-            @Override
-            public void onRegistrationFailed(NsdServiceInfo serviceInfo, int errorCode) {
-                Log.e(TAG, "NSD Service registration failed: " + errorCode);
-                MainActivity.this.serviceName = null;
-                // Handle failure (e.g., inform user, retry)
+    private void probeBeacons() {
+        BeaconScanner scanner = beaconScanner;
+        if (scanner == null) return;
+        discoveryExecutorService.execute(() -> {
+            try {
+                scanner.probe();
+            } catch (IOException e) {
+                Log.w(TAG, "Beacon probe failed", e);
             }
+        });
+    }
 
-            @Override
-            public void onServiceUnregistered(NsdServiceInfo arg0) {
-                Log.i(TAG, "NSD Service unregistered: " + arg0.getServiceName());
-                MainActivity.this.serviceName = null;
-            }
+    private void stopBeaconScan() {
+        if (beaconScanner != null) {
+            beaconScanner.close();
+            beaconScanner = null;
+        }
+        if (beaconLock != null) {
+            beaconLock.release();
+            beaconLock = null;
+        }
+    }
 
-            @Override
-            public void onUnregistrationFailed(NsdServiceInfo serviceInfo, int errorCode) {
-                Log.e(TAG, "NSD Service unregistration failed: " + errorCode);
-            }
-        };
+    // --- Options menu: discovery mode and stats ---
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.main_menu, menu);
+        return true;
+    }
 
-        nsdManager.registerService(serviceInfo, NsdManager.PROTOCOL_DNS_SD, registrationListener);
+    @Override
+    public boolean onOptionsItemSelected(@NonNull MenuItem item) {
+        int itemId = item.getItemId();
+        if (itemId == R.id.action_discovery_mode) {
+            showDiscoveryModeDialog();
+            return true;
+        } else if (itemId == R.id.action_discovery_stats) {
+            showDiscoveryStats();
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
     }
 
-    private void unregisterNsdService() {
-        if (registrationListener != null) {
+    private void showDiscoveryModeDialog() {
+        new MaterialAlertDialogBuilder(this)
+                .setTitle(R.string.title_discovery_mode)
+                .setSingleChoiceItems(R.array.discovery_mode_labels, discoveryMode.ordinal(), (dialog, which) -> {
+                    DiscoveryMode chosen = DiscoveryMode.values()[which];
+                    dialog.dismiss();
+                    if (chosen == discoveryMode) return;
+                    getSharedPreferences(PREFS_NAME, MODE_PRIVATE).edit().putString(KEY_DISCOVERY_MODE, chosen.name()).apply();
+                    boolean discovering = hostingRoomId == null;
+                    if (discovering) stopDiscovery();
+                    discoveryMode = chosen;
+                    if (discovering) {
+                        roomRegistry.clear();
+                        startDiscovery();
+                    }
+                })
+                .show();
+    }
+
+    private void showDiscoveryStats() {
+        String stats = "Mode: " + discoveryMode + "\n\n" + nsdStats + "\n" + beaconStats
+                + "\n\nNSD resolves: " + resolveQueue.stats();
+        new MaterialAlertDialogBuilder(this)
+                .setTitle(R.string.title_discovery_stats)
+                .setMessage(stats)
+                .setPositiveButton(R.string.button_ok, null)
+                .show();
+    }
+
+    private void stopNsdDiscovery() {
+        if (discoveryListener != null) {
             try {
-                nsdManager.unregisterService(registrationListener);
+                nsdManager.stopServiceDiscovery(discoveryListener);
             } catch (IllegalArgumentException e) {
-                Log.e(TAG, "Error unregistering NSD service, listener not registered or already unregistered.", e);
-            }
-            registrationListener = null;
-            this.serviceName = null;
-            // Close the server socket that was opened for hosting info
-            try {
-                if (serverSocket != null && !serverSocket.isClosed()) {
-                    serverSocket.close();
-                    serverSocket = null;
-                    Log.i(TAG, "Hosting server socket closed during unregistration.");
-                }
-            } catch (IOException e) {
-                Log.e(TAG, "Error closing server socket during NSD unregistration", e);
+                Log.e(TAG, "Error stopping NSD discovery, listener not registered or already unregistered.", e);
             }
+            discoveryListener = null;
         }
     }
 
@@ -481,44 +545,30 @@ public class MainActivity extends AppCompatActivity implements DiscoveredRoomsAd
         displayIpAddress(); // Refresh IP
         // Update hosting UI based on static var (simplification)
         if (hostingRoomId == null && currentHostingRoomNumber != null) {
-            // This means ChatActivity likely terminated the room
-            unregisterNsdService(); // Stop advertising if it was running
+            // This means the room was terminated; RoomHostService has stopped advertising it
             currentHostingRoomNumber = null; // Clear local room number
         }
         updateHostingUI();
 
         if (hostingRoomId == null) { // Only discover if not currently hosting
-            discoveredRoomsAdapter.clearRooms(); // Clear previous results before new discovery
+            roomRegistry.clear(); // Clear previous results before new discovery
             updateDiscoveredRoomsUI();
-            initializeNsdDiscovery();
+            startDiscovery();
         }
     }
 
     @Override
     protected void onPause() {
         super.onPause();
-        stopNsdDiscovery(); // Stop discovery when activity is not in foreground
-        // Note: If hosting, we might want to keep advertising.
-        // However, if ChatActivity handles hosting, then MainActivity unregistering here is okay
-        // if ChatActivity also unregisters when it's done.
-        // If hostingRoomId is not null here, it implies ChatActivity is likely active or will take over.
-        // For now, MainActivity will stop discovery. Host advertising is tied to hostingRoomId.
+        stopDiscovery(); // Stop discovery when activity is not in foreground
+        // Advertising a hosted room is RoomHostService's job and carries on in the background.
     }
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
         stopNsdDiscovery(); // Ensure discovery is stopped
-        unregisterNsdService(); // Ensure service is unregistered if it was active
-
-        // Close the server socket if it's still open and managed by MainActivity
-        try {
-            if (serverSocket != null && !serverSocket.isClosed()) {
-                serverSocket.close();
-                Log.i(TAG, "Server socket closed in onDestroy.");
-            }
-        } catch (IOException e) {
-            Log.e(TAG, "Error closing server socket in onDestroy", e);
-        }
+        stopBeaconScan();
+        discoveryExecutorService.shutdownNow();
     }
 }
\ No newline at end of file
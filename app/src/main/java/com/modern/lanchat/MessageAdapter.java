@@ -6,30 +6,100 @@ import android.view.ViewGroup;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.appcompat.widget.AppCompatTextView;
+import androidx.core.text.PrecomputedTextCompat;
+import androidx.core.widget.TextViewCompat;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.modern.lanchat.R;
 import com.modern.lanchat.model.ChatMessage;
 
-import java.util.List;
+import java.util.Objects;
 
-public class MessageAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
+/**
+ * Message rows for a {@link MessageWindow}, which submits snapshots of its list. Snapshots are
+ * diffed on a background thread, so only rows that changed are rebound.
+ */
+public class MessageAdapter extends ListAdapter<ChatMessage, RecyclerView.ViewHolder> {
 
     private static final int VIEW_TYPE_MESSAGE_SENT = 1;
     private static final int VIEW_TYPE_MESSAGE_RECEIVED = 2;
     private static final int VIEW_TYPE_SYSTEM_MESSAGE = 3; // For system messages
 
-    private final List<ChatMessage> messageList;
+    // The same message has the same host id, or is the same instance before the host numbers it
+    private static final DiffUtil.ItemCallback<ChatMessage> DIFF_CALLBACK = new DiffUtil.ItemCallback<ChatMessage>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull ChatMessage oldItem, @NonNull ChatMessage newItem) {
+            return oldItem == newItem || (oldItem.getId() > 0 && oldItem.getId() == newItem.getId());
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull ChatMessage oldItem, @NonNull ChatMessage newItem) {
+            return oldItem.getTimestamp() == newItem.getTimestamp()
+                    && oldItem.isSentByMe() == newItem.isSentByMe()
+                    && oldItem.isSystemMessage() == newItem.isSystemMessage()
+                    && Objects.equals(oldItem.getSenderName(), newItem.getSenderName())
+                    && Objects.equals(oldItem.getMessageText(), newItem.getMessageText());
+        }
+    };
+
     private final String currentUserName;
+    private final MessageTextCache textCache;
+    // Text metrics of each bubble style, taken from the first view holder of that style
+    private PrecomputedTextCompat.Params sentTextParams;
+    private PrecomputedTextCompat.Params receivedTextParams;
 
-    public MessageAdapter(List<ChatMessage> messageList, String currentUserName) {
-        this.messageList = messageList;
+    public MessageAdapter(String currentUserName, MessageTextCache textCache) {
+        super(DIFF_CALLBACK);
         this.currentUserName = currentUserName;
+        this.textCache = textCache;
+        // Measure inserted messages in the background before they are scrolled into view
+        registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                for (int i = positionStart; i < positionStart + itemCount; i++) {
+                    prefetchText(i);
+                }
+            }
+        });
+    }
+
+    private void prefetchText(int position) {
+        int viewType = getItemViewType(position);
+        PrecomputedTextCompat.Params params = textParams(viewType);
+        if (params == null) return; // No bubble of this style yet; its first bind measures it
+        ChatMessage message = getItem(position);
+        textCache.prefetch(message.getId(), viewType, message.getMessageText(), params);
+    }
+
+    private PrecomputedTextCompat.Params textParams(int viewType) {
+        if (viewType == VIEW_TYPE_MESSAGE_SENT) return sentTextParams;
+        if (viewType == VIEW_TYPE_MESSAGE_RECEIVED) return receivedTextParams;
+        return null; // System notices are short; measured inline
+    }
+
+    // Uses cached measured text if there is any, otherwise measures off the UI thread where the view allows it
+    private void bindMessageText(TextView view, ChatMessage message, int viewType) {
+        PrecomputedTextCompat.Params params = textParams(viewType);
+        PrecomputedTextCompat cached = textCache.get(message.getId(), viewType);
+        boolean canWait = params != null && view instanceof AppCompatTextView;
+        if (canWait) {
+            ((AppCompatTextView) view).setTextFuture(null); // A recycled view may still wait on its previous message
+        }
+        if (cached != null && cached.getParams().equals(params)) {
+            TextViewCompat.setPrecomputedText(view, cached);
+        } else if (canWait) {
+            ((AppCompatTextView) view).setTextFuture(textCache.load(message.getId(), viewType, message.getMessageText(), params));
+        } else {
+            view.setText(message.getMessageText());
+        }
     }
 
     @Override
     public int getItemViewType(int position) {
-        ChatMessage message = messageList.get(position);
+        ChatMessage message = getItem(position);
 
         if (message.isSystemMessage()) {
             return VIEW_TYPE_SYSTEM_MESSAGE;
@@ -48,11 +118,15 @@ public class MessageAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder
         if (viewType == VIEW_TYPE_MESSAGE_SENT) {
             view = LayoutInflater.from(parent.getContext())
                     .inflate(R.layout.item_chat_message_sent, parent, false);
-            return new SentMessageViewHolder(view);
+            SentMessageViewHolder holder = new SentMessageViewHolder(view);
+            if (sentTextParams == null) sentTextParams = TextViewCompat.getTextMetricsParams(holder.messageText);
+            return holder;
         } else if (viewType == VIEW_TYPE_MESSAGE_RECEIVED) {
             view = LayoutInflater.from(parent.getContext())
                     .inflate(R.layout.item_chat_message_received, parent, false);
-            return new ReceivedMessageViewHolder(view);
+            ReceivedMessageViewHolder holder = new ReceivedMessageViewHolder(view);
+            if (receivedTextParams == null) receivedTextParams = TextViewCompat.getTextMetricsParams(holder.messageText);
+            return holder;
         } else { // VIEW_TYPE_SYSTEM_MESSAGE
             // For system messages, we can create a simple centered text view layout
             // or reuse one of the existing ones if styling is similar.
@@ -66,13 +140,17 @@ public class MessageAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder
 
     @Override
     public void onBindViewHolder(@NonNull RecyclerView.ViewHolder holder, int position) {
-        ChatMessage message = messageList.get(position);
+        ChatMessage message = getItem(position);
         switch (holder.getItemViewType()) {
             case VIEW_TYPE_MESSAGE_SENT:
-                ((SentMessageViewHolder) holder).bind(message);
+                SentMessageViewHolder sentHolder = (SentMessageViewHolder) holder;
+                bindMessageText(sentHolder.messageText, message, VIEW_TYPE_MESSAGE_SENT);
+                sentHolder.bind(message);
                 break;
             case VIEW_TYPE_MESSAGE_RECEIVED:
-                ((ReceivedMessageViewHolder) holder).bind(message);
+                ReceivedMessageViewHolder receivedHolder = (ReceivedMessageViewHolder) holder;
+                bindMessageText(receivedHolder.messageText, message, VIEW_TYPE_MESSAGE_RECEIVED);
+                receivedHolder.bind(message);
                 break;
             case VIEW_TYPE_SYSTEM_MESSAGE:
                 ((SystemMessageViewHolder) holder).bind(message);
@@ -80,11 +158,6 @@ public class MessageAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder
         }
     }
 
-    @Override
-    public int getItemCount() {
-        return messageList.size();
-    }
-
     // ViewHolder for sent messages
     private static class SentMessageViewHolder extends RecyclerView.ViewHolder {
         TextView messageText, timestampText;
@@ -98,9 +171,9 @@ public class MessageAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder
         }
 
         void bind(ChatMessage message) {
-            messageText.setText(message.getMessageText());
-            if (message.getTimestamp() != null && !message.getTimestamp().isEmpty()) {
-                timestampText.setText(message.getTimestamp());
+            // messageText is bound by the adapter through the text cache
+            if (message.getTimestamp() > 0) {
+                timestampText.setText(MessageTimeFormatter.format(message.getTimestamp()));
                 timestampText.setVisibility(View.VISIBLE);
             } else {
                 timestampText.setVisibility(View.GONE);
@@ -121,10 +194,10 @@ public class MessageAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder
         }
 
         void bind(ChatMessage message) {
-            messageText.setText(message.getMessageText());
+            // messageText is bound by the adapter through the text cache
             senderNameText.setText(message.getSenderName());
-            if (message.getTimestamp() != null && !message.getTimestamp().isEmpty()) {
-                timestampText.setText(message.getTimestamp());
+            if (message.getTimestamp() > 0) {
+                timestampText.setText(MessageTimeFormatter.format(message.getTimestamp()));
                 timestampText.setVisibility(View.VISIBLE);
             } else {
                 timestampText.setVisibility(View.GONE);
@@ -0,0 +1,73 @@
+package com.modern.lanchat.ui;
+
+import android.util.LruCache;
+
+import androidx.core.text.PrecomputedTextCompat;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Measured message text, computed on a background executor and kept in a bounded LRU. Binding a
+ * bubble whose text is cached does no text measurement on the UI thread. Entries are keyed on the
+ * host's message id and the bubble style, since sent and received bubbles measure differently.
+ * Messages without an id are measured on the executor but not cached.
+ */
+public class MessageTextCache {
+
+    private final LruCache<String, PrecomputedTextCompat> cache;
+    private final Executor executor;
+
+    public MessageTextCache(Executor executor, int maxEntries) {
+        this.executor = executor;
+        this.cache = new LruCache<>(maxEntries);
+    }
+
+    /** The cached text, or null if it has not been measured yet. */
+    public PrecomputedTextCompat get(long messageId, int style) {
+        return messageId > 0 ? cache.get(key(messageId, style)) : null;
+    }
+
+    /** Measures the text in the background, for when the message is bound. */
+    public void prefetch(long messageId, int style, CharSequence text, PrecomputedTextCompat.Params params) {
+        if (messageId <= 0 || get(messageId, style) != null) return;
+        submit(newTask(messageId, style, text, params));
+    }
+
+    /** Measures the text in the background; the view can pick the result up with setTextFuture. */
+    public Future<PrecomputedTextCompat> load(long messageId, int style, CharSequence text, PrecomputedTextCompat.Params params) {
+        FutureTask<PrecomputedTextCompat> task = newTask(messageId, style, text, params);
+        if (!submit(task)) {
+            task.run(); // Executor gone with the activity: measure here rather than show nothing
+        }
+        return task;
+    }
+
+    public void clear() {
+        cache.evictAll();
+    }
+
+    private FutureTask<PrecomputedTextCompat> newTask(long messageId, int style, CharSequence text,
+                                                     PrecomputedTextCompat.Params params) {
+        return new FutureTask<>(() -> {
+            PrecomputedTextCompat measured = PrecomputedTextCompat.create(text, params);
+            if (messageId > 0) cache.put(key(messageId, style), measured);
+            return measured;
+        });
+    }
+
+    private boolean submit(Runnable task) {
+        try {
+            executor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    private static String key(long messageId, int style) {
+        return messageId + "/" + style;
+    }
+}
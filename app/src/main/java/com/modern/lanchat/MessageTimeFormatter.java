@@ -0,0 +1,55 @@
+package com.modern.lanchat.ui;
+
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Formats message timestamps for display. SimpleDateFormat is expensive to build and not
+ * thread-safe, so each thread keeps its own formatters instead of creating one per message.
+ */
+public final class MessageTimeFormatter {
+
+    private static final ThreadLocal<MessageTimeFormatter> INSTANCE = new ThreadLocal<MessageTimeFormatter>() {
+        @Override
+        protected MessageTimeFormatter initialValue() {
+            return new MessageTimeFormatter();
+        }
+    };
+
+    private final SimpleDateFormat timeFormat = new SimpleDateFormat("hh:mm a", Locale.getDefault());
+    private final SimpleDateFormat dateTimeFormat = new SimpleDateFormat("MMM d, hh:mm a", Locale.getDefault());
+    private final Date date = new Date();
+    private long todayStart;
+    private long tomorrowStart;
+
+    private MessageTimeFormatter() {}
+
+    /** Time of day for today's messages, date and time for older ones, "" when unknown (0). */
+    public static String format(long epochMillis) {
+        return epochMillis <= 0 ? "" : INSTANCE.get().formatMillis(epochMillis);
+    }
+
+    private String formatMillis(long epochMillis) {
+        long now = System.currentTimeMillis();
+        if (now < todayStart || now >= tomorrowStart) {
+            updateToday(now);
+        }
+        date.setTime(epochMillis);
+        boolean today = epochMillis >= todayStart && epochMillis < tomorrowStart;
+        return (today ? timeFormat : dateTimeFormat).format(date);
+    }
+
+    private void updateToday(long now) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(now);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        todayStart = calendar.getTimeInMillis();
+        calendar.add(Calendar.DAY_OF_MONTH, 1);
+        tomorrowStart = calendar.getTimeInMillis();
+    }
+}
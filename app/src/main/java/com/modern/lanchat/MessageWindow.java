@@ -0,0 +1,273 @@
+package com.modern.lanchat.ui;
+
+import androidx.recyclerview.widget.ListAdapter;
+
+import com.modern.lanchat.model.ChatMessage;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A bounded slice of a room's messages backing {@link MessageAdapter}. Pages are keyed on the
+ * host's message id and load on demand in both directions through a {@link PageLoader}. When the
+ * window grows past {@code maxSize}, it drops messages from the end away from the page just added.
+ * Memory therefore stays flat however long the room is. UI thread only.
+ *
+ * <p>Each change hands the adapter a snapshot, and the adapter diffs it off the UI thread. Only rows
+ * that actually changed are rebound, so callers never issue notify calls themselves. Work that
+ * needs the rows on screen, such as scrolling to a new message, goes through {@link #whenShown}.</p>
+ *
+ * <p>While the window holds the newest messages it is "at the live edge" and live messages are
+ * appended. Once newer messages have been dropped, live ones are left to the next newer page,
+ * except those arriving while the last one is read, which are appended after it.</p>
+ */
+public class MessageWindow {
+
+    /** Loads one page, then reports it back on the UI thread through {@link #onOlderPage} or {@link #onNewerPage}. */
+    public interface PageLoader {
+        /** Up to {@code limit} messages with an id below {@code beforeId}, oldest first. */
+        void loadOlder(long beforeId, int limit);
+
+        /** Up to {@code limit} messages with an id above {@code afterId}, oldest first. */
+        void loadNewer(long afterId, int limit);
+    }
+
+    private static final long LATEST = Long.MAX_VALUE; // loadOlder bound that fetches the newest page
+
+    private final List<ChatMessage> items = new ArrayList<>();
+    private final ListAdapter<ChatMessage, ?> adapter;
+    private final PageLoader loader;
+    private final int pageSize;
+    private final int maxSize;
+
+    private boolean hasOlder = false;
+    private boolean hasNewer = false; // False while the window holds the newest messages
+    private long pendingOlderBefore = -1; // Bound of the load in flight, -1 if none
+    private long pendingNewerAfter = -1;
+    private final List<ChatMessage> liveDuringNewerLoad = new ArrayList<>(); // Left out while the last page may be in flight
+    private int publishedVersion = 0; // Snapshots handed to the adapter, and the newest one it shows
+    private int shownVersion = 0;
+    private final List<Runnable> afterShown = new ArrayList<>();
+
+    public MessageWindow(ListAdapter<ChatMessage, ?> adapter, PageLoader loader, int pageSize, int maxSize) {
+        this.adapter = adapter;
+        this.loader = loader;
+        this.pageSize = pageSize;
+        this.maxSize = maxSize;
+    }
+
+    public int size() {
+        return items.size();
+    }
+
+    /** Runs {@code action} once the adapter shows the latest change, immediately if it already does. */
+    public void whenShown(Runnable action) {
+        if (shownVersion == publishedVersion) {
+            action.run();
+        } else {
+            afterShown.add(action);
+        }
+    }
+
+    public boolean isAtLiveEdge() {
+        return !hasNewer;
+    }
+
+    public boolean isLoading() {
+        return pendingOlderBefore >= 0 || pendingNewerAfter >= 0;
+    }
+
+    public boolean isLoadingOlder() {
+        return pendingOlderBefore >= 0;
+    }
+
+    public boolean isLoadingNewer() {
+        return pendingNewerAfter >= 0;
+    }
+
+    /** Forgets loads in flight, e.g. when the connection they were sent on dropped. */
+    public void cancelLoads() {
+        pendingOlderBefore = -1;
+        pendingNewerAfter = -1;
+        liveDuringNewerLoad.clear();
+    }
+
+    /** Appends a live message if the window is at the live edge; returns false if it was left out. */
+    public boolean addLive(ChatMessage message) {
+        if (hasNewer) {
+            if (pendingNewerAfter >= 0) liveDuringNewerLoad.add(message);
+            return false;
+        }
+        items.add(message);
+        trimOldest();
+        publish();
+        return true;
+    }
+
+    /** Appends a run of live messages as one change; returns false if they were left out. */
+    public boolean addLiveAll(List<ChatMessage> messages) {
+        if (hasNewer) {
+            if (pendingNewerAfter >= 0) liveDuringNewerLoad.addAll(messages);
+            return false;
+        }
+        if (messages.isEmpty()) return true;
+        items.addAll(messages);
+        trimOldest();
+        publish();
+        return true;
+    }
+
+    /** Appends a block already known to follow what is shown, such as the first page on joining. */
+    public void addLiveBlock(List<ChatMessage> block, boolean olderExists) {
+        if (items.isEmpty() || oldestId() == 0) hasOlder = olderExists;
+        if (hasNewer || block.isEmpty()) return;
+        items.addAll(block);
+        trimOldest();
+        publish();
+    }
+
+    /** Empties the window and loads the newest page. */
+    public void reloadLatest() {
+        clear();
+        pendingOlderBefore = LATEST;
+        loader.loadOlder(LATEST, pageSize);
+    }
+
+    public void clear() {
+        items.clear();
+        liveDuringNewerLoad.clear();
+        publish();
+        hasOlder = false;
+        hasNewer = false;
+        pendingOlderBefore = -1;
+        pendingNewerAfter = -1;
+    }
+
+    /** Call when the user nears the top. */
+    public void requestOlder() {
+        if (!hasOlder || isLoading()) return;
+        long beforeId = oldestId();
+        if (beforeId == 0) return; // Nothing shown carries an id to page from
+        pendingOlderBefore = beforeId;
+        loader.loadOlder(beforeId, pageSize);
+    }
+
+    /** Call when the user nears the bottom. */
+    public void requestNewer() {
+        if (!hasNewer || isLoading()) return;
+        long afterId = newestId();
+        if (afterId == 0) return;
+        pendingNewerAfter = afterId;
+        loader.loadNewer(afterId, pageSize);
+    }
+
+    /** Delivers a page asked for with {@link PageLoader#loadOlder}; {@code more} is whether older ones remain. */
+    public void onOlderPage(List<ChatMessage> page, boolean more) {
+        long requested = pendingOlderBefore;
+        pendingOlderBefore = -1;
+        if (requested < 0) return;
+        if (requested != LATEST && requested != oldestId()) return; // The window moved meanwhile
+        // A latest page can overlap messages added since the reload, our own ones not yet numbered
+        List<ChatMessage> fresh = withoutShown(page, requested == LATEST);
+        hasOlder = more;
+        items.addAll(0, fresh);
+        trimNewest();
+        publish();
+    }
+
+    /** Delivers a page asked for with {@link PageLoader#loadNewer}; {@code more} is whether newer ones remain. */
+    public void onNewerPage(List<ChatMessage> page, boolean more) {
+        long requested = pendingNewerAfter;
+        pendingNewerAfter = -1;
+        List<ChatMessage> arrived = new ArrayList<>(liveDuringNewerLoad);
+        liveDuringNewerLoad.clear();
+        if (requested < 0 || requested != newestId()) return;
+        List<ChatMessage> fresh = withoutShown(page, false);
+        hasNewer = more;
+        items.addAll(fresh);
+        if (!more) {
+            // Back at the live edge: live messages that came while the page was read may be newer than it
+            items.addAll(withoutShown(arrived, false));
+        }
+        trimOldest();
+        publish();
+    }
+
+    /** Id of the oldest shown message the host has numbered, or 0 if there is none. */
+    public long oldestId() {
+        for (ChatMessage msg : items) {
+            if (msg.getId() > 0) return msg.getId();
+        }
+        return 0;
+    }
+
+    public long newestId() {
+        for (int i = items.size() - 1; i >= 0; i--) {
+            if (items.get(i).getId() > 0) return items.get(i).getId();
+        }
+        return 0;
+    }
+
+    // Drops page rows already shown: by id, and optionally against unnumbered messages by sender and text
+    private List<ChatMessage> withoutShown(List<ChatMessage> page, boolean matchUnnumbered) {
+        Set<Long> shownIds = new HashSet<>();
+        List<ChatMessage> unnumbered = new ArrayList<>();
+        for (ChatMessage msg : items) {
+            if (msg.getId() > 0) shownIds.add(msg.getId());
+            else if (matchUnnumbered && !msg.isSystemMessage()) unnumbered.add(msg);
+        }
+        List<ChatMessage> fresh = new ArrayList<>(page.size());
+        for (ChatMessage msg : page) {
+            if (shownIds.contains(msg.getId()) || removeSame(unnumbered, msg)) continue;
+            fresh.add(msg);
+        }
+        return fresh;
+    }
+
+    private static boolean removeSame(List<ChatMessage> unnumbered, ChatMessage msg) {
+        for (int i = 0; i < unnumbered.size(); i++) {
+            ChatMessage shown = unnumbered.get(i);
+            if (shown.getSenderName().equals(msg.getSenderName()) && shown.getMessageText().equals(msg.getMessageText())) {
+                unnumbered.remove(i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void trimOldest() {
+        int excess = items.size() - maxSize;
+        if (excess <= 0) return;
+        for (int i = 0; i < excess; i++) {
+            if (items.get(i).getId() > 0) hasOlder = true; // Reloadable by id
+        }
+        items.subList(0, excess).clear();
+    }
+
+    private void trimNewest() {
+        int excess = items.size() - maxSize;
+        if (excess <= 0) return;
+        int from = items.size() - excess;
+        // Messages without an id (system notices, our own before the host numbers them) cannot
+        // be fetched again, so only leave the live edge when a numbered one is dropped
+        for (int i = from; i < items.size(); i++) {
+            if (items.get(i).getId() > 0) hasNewer = true;
+        }
+        items.subList(from, items.size()).clear();
+    }
+
+    private void publish() {
+        int version = ++publishedVersion;
+        adapter.submitList(new ArrayList<>(items), () -> {
+            shownVersion = version;
+            if (version != publishedVersion) return; // A newer snapshot is still being diffed
+            List<Runnable> actions = new ArrayList<>(afterShown);
+            afterShown.clear();
+            for (Runnable action : actions) {
+                action.run();
+            }
+        });
+    }
+}
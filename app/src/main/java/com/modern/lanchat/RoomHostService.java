@@ -0,0 +1,739 @@
+package com.modern.lanchat;
+
+import android.app.Notification;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ServiceInfo;
+import android.net.nsd.NsdManager;
+import android.net.nsd.NsdServiceInfo;
+import android.os.Binder;
+import android.os.Build;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.text.TextUtils;
+import android.util.Log;
+
+import androidx.core.app.NotificationChannelCompat;
+import androidx.core.app.NotificationCompat;
+import androidx.core.app.NotificationManagerCompat;
+import androidx.core.app.ServiceCompat;
+
+import com.modern.lanchat.db.AppDatabase;
+import com.modern.lanchat.db.ChatMessageDao;
+import com.modern.lanchat.db.HistoryCompactor;
+import com.modern.lanchat.db.MessageWriteBuffer;
+import com.modern.lanchat.db.RetentionPolicy;
+import com.modern.lanchat.discovery.BeaconAnnouncer;
+import com.modern.lanchat.discovery.DiscoveryMode;
+import com.modern.lanchat.discovery.RoomBeacon;
+import com.modern.lanchat.metrics.Counter;
+import com.modern.lanchat.metrics.MetricsRegistry;
+import com.modern.lanchat.model.ChatMessage;
+import com.modern.lanchat.network.ChatFrame;
+import com.modern.lanchat.network.ClientSession;
+import com.modern.lanchat.network.HistoryStreamer;
+import com.modern.lanchat.network.OverflowPolicy;
+import com.modern.lanchat.network.RelayServer;
+import com.modern.lanchat.network.TraceClock;
+import com.modern.lanchat.network.TraceCollector;
+import com.modern.lanchat.network.TraceStamps;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hosts a room independently of any activity. The relay server and its client sessions, the NSD
+ * and beacon announcements, history streaming and the database writer all live here, and the
+ * service stays in the foreground while the room is open. Rotating or leaving ChatActivity
+ * therefore never drops the clients; the room ends only through {@link #closeRoom}.
+ *
+ * <p>Start it with the room extras from {@link MainActivity}, then bind for the live message
+ * stream. An activity that binds again has missed what arrived meanwhile, so it reloads the
+ * stored history once {@link #whenStored} says the write buffer is empty. Public methods are
+ * for the main thread.</p>
+ *
+ * <p>The listening socket is bound once and handed to the relay as it is. The room is advertised
+ * only once the relay loop is accepting, and the time from the create tap to each startup step,
+ * up to the first accepted client, shows in the connection stats.</p>
+ *
+ * <p>With {@link #setTracing} on, binary clients stamp the messages they send and report the
+ * ones they show; the host stamps each message on receipt and on relay, and a
+ * {@link TraceCollector} turns the reports into per-hop latency histograms and an exportable
+ * file.</p>
+ */
+public class RoomHostService extends Service {
+
+    private static final String TAG = "RoomHostService";
+    // Per-message logging, off unless enabled with "adb shell setprop log.tag.RoomHostService VERBOSE"
+    // before the app starts; read once so the disabled case costs no string building
+    private static final boolean LOG_MESSAGES = Log.isLoggable(TAG, Log.VERBOSE);
+
+    /** Room events for the bound activity. Called on the service's network threads; post UI work yourself. */
+    public interface Listener {
+        /** A chat message from a client. Its id is set on the main thread once it is relayed. */
+        void onClientMessage(ChatMessage message);
+
+        /** A notice for the host, such as a client joining or leaving. */
+        void onRoomNotice(String text);
+
+        /** The room is accepting clients on {@code port}. */
+        void onRoomOpened(int port);
+
+        /** The room could not open, or its relay failed; either way the room is closed. */
+        void onRoomFailed(boolean whileOpening);
+    }
+
+    public class LocalBinder extends Binder {
+        public RoomHostService getService() {
+            return RoomHostService.this;
+        }
+    }
+
+    // Per-client outbound limits; one slow client must not hold up the room
+    private static final int OUTBOUND_MAX_FRAMES = RelayServer.DEFAULT_MAX_QUEUED_FRAMES;
+    private static final long OUTBOUND_MAX_BYTES = RelayServer.DEFAULT_MAX_QUEUED_BYTES;
+    private static final OverflowPolicy OUTBOUND_OVERFLOW_POLICY = OverflowPolicy.DISCONNECT;
+
+    private static final int HISTORY_PAGE_SIZE = HistoryStreamer.DEFAULT_PAGE_SIZE;
+    private static final int HISTORY_THREADS = 2;
+
+    // Chat messages are written in batches, each batch one transaction
+    private static final int DB_WRITE_MAX_BATCH = MessageWriteBuffer.DEFAULT_MAX_BATCH;
+    private static final long DB_WRITE_MAX_DELAY_MS = MessageWriteBuffer.DEFAULT_MAX_DELAY_MS;
+
+    // History each room keeps; older messages are pruned in the background
+    private static final RetentionPolicy HISTORY_RETENTION =
+            new RetentionPolicy(50_000, TimeUnit.DAYS.toMillis(90), 0);
+
+    private static final int TRACE_MAX_ROWS = 50_000; // Trace reports kept for export; the oldest go first
+
+    private static final String CHANNEL_ID = "room_hosting";
+    private static final int NOTIFICATION_ID = 1;
+
+    // The NSD name this device advertises, so discovery can skip its own room
+    private static volatile String advertisedServiceName = null;
+
+    private final IBinder binder = new LocalBinder();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private volatile Listener listener;
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    private final Counter messagesIn = metrics.counter("room.messages_in");
+    private final Counter messagesRelayed = metrics.counter("room.messages_relayed");
+    private volatile boolean tracing = false;
+    private volatile TraceCollector traceCollector; // Created the first time tracing is turned on
+
+    private ExecutorService networkExecutorService;     // Relay loop and beacon announcer
+    private ScheduledExecutorService dbExecutorService; // Single thread; scheduled for write-behind flushes
+    private ScheduledExecutorService maintenanceExecutorService; // History retention and VACUUM, off the write thread
+    private ExecutorService historyExecutorService;     // History paging, kept off the DB write thread
+
+    private String roomNumber;
+    private String hostName;
+    private int requestedPort; // 0: any free port
+    private int hostPort;      // The port actually bound
+
+    // Room startup, as System.nanoTime(); 0 until the step happens
+    private long createStartedNanos;
+    private volatile long boundNanos;
+    private volatile long listeningNanos;
+    private volatile long advertisedNanos;
+    private volatile boolean roomOpen = false;
+    private boolean roomClosed = false;
+
+    private RelayServer relayServer; // Single selector thread serving every client
+    private HistoryStreamer historyStreamer;
+    private volatile BeaconAnnouncer beaconAnnouncer; // Null unless discovery by beacon is on
+    private ChatMessageDao chatMessageDao;
+    private MessageWriteBuffer messageWriteBuffer;
+    private HistoryCompactor historyCompactor;
+
+    // Sequence ids are handed out here rather than by the insert, so relaying never waits for the disk
+    private final AtomicLong lastMessageId = new AtomicLong();
+    private final Object relayOrderLock = new Object(); // An id is taken and relayed in one step, keeping clients in id order
+    private boolean messageIdsSeeded = false; // Set once lastMessageId holds the newest stored id; guarded by relayOrderLock
+    private final List<Runnable> relayAfterSeed = new ArrayList<>(); // Messages accepted before that, in arrival order
+
+    private NsdManager nsdManager;
+    private NsdManager.RegistrationListener registrationListener;
+
+    public static String getAdvertisedServiceName() {
+        return advertisedServiceName;
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        networkExecutorService = Executors.newCachedThreadPool();
+        dbExecutorService = Executors.newSingleThreadScheduledExecutor();
+        maintenanceExecutorService = Executors.newSingleThreadScheduledExecutor();
+        historyExecutorService = Executors.newFixedThreadPool(HISTORY_THREADS);
+        nsdManager = (NsdManager) getSystemService(Context.NSD_SERVICE);
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        String room = intent != null ? intent.getStringExtra(MainActivity.EXTRA_ROOM_NUMBER) : null;
+        if (roomNumber == null) {
+            roomNumber = room;
+            hostName = intent != null ? intent.getStringExtra(MainActivity.EXTRA_USER_NAME) : null;
+            requestedPort = intent != null ? intent.getIntExtra(MainActivity.EXTRA_HOST_PORT, 0) : 0;
+            createStartedNanos = intent != null ? intent.getLongExtra(MainActivity.EXTRA_CREATE_STARTED_NANOS, 0) : 0;
+            if (createStartedNanos == 0) createStartedNanos = System.nanoTime();
+        } else if (room != null && !room.equals(roomNumber)) {
+            Log.w(TAG, "Already hosting room " + roomNumber + "; ignoring a start for room " + room);
+        }
+        // Every start must go foreground, even one that only re-opens the room's screen
+        startInForeground();
+        if (TextUtils.isEmpty(roomNumber) || TextUtils.isEmpty(hostName)) {
+            Log.e(TAG, "Room or user missing; not hosting");
+            closeRoom(false);
+        } else if (relayServer == null && !roomClosed) {
+            openRoom();
+        }
+        return START_NOT_STICKY; // A room cannot be restored after the process dies
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return binder;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /** Detaches {@code listener} unless another one has replaced it meanwhile. */
+    public void clearListener(Listener listener) {
+        if (this.listener == listener) this.listener = null;
+    }
+
+    public String getRoomNumber() {
+        return roomNumber;
+    }
+
+    public boolean isRoomOpen() {
+        return roomOpen;
+    }
+
+    public boolean isRoomClosed() {
+        return roomClosed;
+    }
+
+    /** Stores and relays a message the host typed; {@code shown} gets its id on the main thread. */
+    public void sendHostMessage(ChatMessage shown) {
+        if (roomClosed) return;
+        ChatFrame message = ChatFrame.chat(shown.getSenderName(), shown.getMessageText());
+        if (tracing) {
+            message = message.withTrace(TraceStamps.sent(0).withHostReceived(TraceClock.nowMicros())); // Nothing to send over
+        }
+        storeAndBroadcast(shown, message, null);
+    }
+
+    /**
+     * Turns latency tracing on or off for every binary client, now and as they join. Reports
+     * collected so far are kept until {@link #exportTrace} or the room closes. Main thread.
+     */
+    public void setTracing(boolean enabled) {
+        if (enabled && traceCollector == null) {
+            traceCollector = new TraceCollector(metrics, TRACE_MAX_ROWS);
+        }
+        tracing = enabled;
+        RelayServer relay = relayServer;
+        if (relay == null) return;
+        for (ClientSession session : relay.getSessions()) {
+            if (session.getWireFormat().isBinary()) { // Set by the hello, right after its ack is queued
+                relay.send(session, ChatFrame.traceMode(enabled));
+            }
+        }
+        Log.i(TAG, "Latency tracing " + (enabled ? "on" : "off") + " for room " + roomNumber);
+    }
+
+    public boolean isTracing() {
+        return tracing;
+    }
+
+    /**
+     * Writes the trace reports collected so far to a CSV file in {@code dir}, for offline
+     * analysis. Blocks on file I/O, so call it off the main thread.
+     * @return the file, or null if there is nothing to export.
+     */
+    public File exportTrace(File dir) throws IOException {
+        TraceCollector collector = traceCollector;
+        if (collector == null || collector.size() == 0) return null;
+        if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Cannot create " + dir);
+        File file = new File(dir, "trace-room" + roomNumber + "-" + System.currentTimeMillis() + ".csv");
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            collector.writeCsv(out);
+        }
+        Log.i(TAG, "Exported " + collector.size() + " trace reports to " + file);
+        return file;
+    }
+
+    /**
+     * Runs {@code action} on the database thread once every message received so far is written.
+     * Keep it short, e.g. hand a read to another executor.
+     */
+    public void whenStored(Runnable action) {
+        if (messageWriteBuffer == null || dbExecutorService.isShutdown()) {
+            action.run();
+            return;
+        }
+        messageWriteBuffer.flushNow();
+        dbExecutorService.execute(action);
+    }
+
+    /** Tells every client the room is closed, stops advertising and stops the service. */
+    public void closeRoom(boolean deleteHistory) {
+        if (roomClosed) return;
+        roomClosed = true;
+        roomOpen = false;
+        Log.d(TAG, "Closing room " + roomNumber + (deleteHistory ? " and deleting its history" : ""));
+        unregisterNsdService();
+        if (relayServer != null) {
+            relayServer.broadcast(ChatFrame.roomClosed(), null);
+            relayServer.close(); // Flushes queued output (e.g. the room-closed notice), then closes every client
+            Log.i(TAG, "Relay server closed.");
+        }
+        if (beaconAnnouncer != null) {
+            beaconAnnouncer.close();
+            Log.i(TAG, "Beacon announcer stopped: " + beaconAnnouncer.stats());
+        }
+        if (historyCompactor != null) historyCompactor.stop();
+        if (messageWriteBuffer != null) {
+            messageWriteBuffer.flushNow(); // Buffered messages are written first, then deleted with the rest
+            if (deleteHistory) {
+                String room = roomNumber;
+                dbExecutorService.execute(() -> {
+                    chatMessageDao.deleteMessagesForRoom(room);
+                    Log.i(TAG, "Deleted the history of room " + room);
+                });
+            }
+        }
+        MainActivity.hostingRoomId = null; // Signal MainActivity
+        ServiceCompat.stopForeground(this, ServiceCompat.STOP_FOREGROUND_REMOVE);
+        stopSelf(); // Bound activities keep the service until they unbind
+    }
+
+    // Per-client outbound queue counters, to spot a laggard before it is evicted
+    public String connectionStats() {
+        StringBuilder stats = new StringBuilder();
+        RelayServer relay = relayServer;
+        if (relay != null) {
+            stats.append("Room startup: ").append(startupTimings()).append("\n\n");
+            stats.append("Overflow policy: ").append(relay.getOverflowPolicy()).append('\n');
+            stats.append("Slow clients disconnected: ").append(relay.getSlowConsumersDisconnected()).append("\n\n");
+            for (ClientSession session : relay.getSessions()) {
+                stats.append(session.getClientName() != null ? session.getClientName() : session.getRemoteAddress())
+                        .append(": ").append(session.getQueueStats()).append('\n');
+            }
+            if (relay.getSessions().isEmpty()) {
+                stats.append("No clients connected.");
+            }
+        }
+        if (messageWriteBuffer != null) {
+            stats.append("\nDatabase writes: ").append(messageWriteBuffer.stats());
+        }
+        if (historyCompactor != null) {
+            stats.append("\nHistory retention: ").append(historyCompactor.stats());
+        }
+        if (beaconAnnouncer != null) {
+            stats.append("\nDiscovery beacons: ").append(beaconAnnouncer.stats());
+        }
+        return stats.toString();
+    }
+
+    /** Throughput, latency and queue metrics as text; counter rates are since the previous call. */
+    public String metricsDump() {
+        return metrics.dump();
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        Log.d(TAG, "RoomHostService onDestroy. roomClosed: " + roomClosed);
+        closeRoom(false); // Stopped by the system rather than by the host
+        networkExecutorService.shutdownNow();
+        dbExecutorService.shutdown(); // The final flush queued by closeRoom still runs
+        maintenanceExecutorService.shutdownNow(); // Drops queued delete chunks; the next room's pass redoes them
+        historyExecutorService.shutdownNow(); // Interrupts any replay waiting on a slow client
+        mainHandler.removeCallbacksAndMessages(null);
+        listener = null;
+    }
+
+    private void openRoom() {
+        AppDatabase database = AppDatabase.getDatabase(getApplicationContext());
+        chatMessageDao = database.chatMessageDao();
+        historyCompactor = new HistoryCompactor(database, getSharedPreferences(HistoryCompactor.PREFS_NAME, MODE_PRIVATE),
+                maintenanceExecutorService, HistoryCompactor.DEFAULT_CHUNK_ROWS);
+        historyCompactor.setDefaultPolicy(HISTORY_RETENTION);
+        historyCompactor.start(HistoryCompactor.DEFAULT_INTERVAL_MS);
+        messageWriteBuffer = new MessageWriteBuffer(chatMessageDao, dbExecutorService, DB_WRITE_MAX_BATCH, DB_WRITE_MAX_DELAY_MS);
+        messageWriteBuffer.setMetrics(metrics);
+        dbExecutorService.execute(() -> {
+            Long newestId = chatMessageDao.getNewestId(); // Slow on the first open after a migration rebuilds the index
+            synchronized (relayOrderLock) {
+                lastMessageId.set(newestId != null ? newestId : 0);
+                for (Runnable relayMessage : relayAfterSeed) {
+                    relayMessage.run();
+                }
+                relayAfterSeed.clear();
+                messageIdsSeeded = true;
+            }
+        });
+
+        // The one bind of the room's port; the relay takes the channel over as it is
+        ServerSocketChannel channel;
+        try {
+            channel = RelayServer.bind(requestedPort);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not bind port " + requestedPort, e);
+            closeRoom(false);
+            return;
+        }
+        boundNanos = System.nanoTime();
+        hostPort = channel.socket().getLocalPort();
+
+        RelayServer relay = new RelayServer(channel, new HostRelayListener());
+        relay.setOutboundLimits(OUTBOUND_MAX_FRAMES, OUTBOUND_MAX_BYTES, OUTBOUND_OVERFLOW_POLICY);
+        relay.setMetrics(metrics);
+        relay.setOnListening(() -> onRelayListening(relay));
+        relayServer = relay;
+        historyStreamer = new HistoryStreamer(relay, new RoomHistorySource(), historyExecutorService, HISTORY_PAGE_SIZE);
+        networkExecutorService.execute(() -> {
+            try {
+                relay.open();
+            } catch (IOException e) {
+                Log.e(TAG, "Could not start server on port " + hostPort, e);
+                relay.close();
+                Listener current = listener;
+                if (current != null) current.onRoomFailed(true);
+                mainHandler.post(() -> closeRoom(false));
+                return;
+            }
+            relay.run(); // Blocks this thread until the relay is closed
+            Log.i(TAG, "Relay loop exited.");
+        });
+    }
+
+    // Selector thread, just before the first select: clients can join from here on, so announce the room
+    private void onRelayListening(RelayServer relay) {
+        listeningNanos = System.nanoTime();
+        roomOpen = true;
+        Log.i(TAG, "Server started on port: " + hostPort + " (" + millisSinceCreate(listeningNanos) + " ms after create)");
+        mainHandler.post(() -> registerNsdService(hostPort));
+        networkExecutorService.execute(() -> startBeaconAnnouncer(relay));
+        Listener current = listener;
+        if (current != null) current.onRoomOpened(hostPort);
+    }
+
+    private long millisSinceCreate(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos - createStartedNanos);
+    }
+
+    // Each startup step as milliseconds after the create tap
+    private String startupTimings() {
+        StringBuilder timings = new StringBuilder();
+        appendTiming(timings, "bound", boundNanos);
+        appendTiming(timings, "listening", listeningNanos);
+        appendTiming(timings, "advertised", advertisedNanos);
+        RelayServer relay = relayServer;
+        appendTiming(timings, "first client", relay != null ? relay.getFirstAcceptNanos() : 0);
+        return timings.toString();
+    }
+
+    private void appendTiming(StringBuilder timings, String step, long nanos) {
+        if (timings.length() > 0) timings.append(", ");
+        timings.append(step).append(' ').append(nanos != 0 ? "+" + millisSinceCreate(nanos) + " ms" : "-");
+    }
+
+    private void startInForeground() {
+        NotificationManagerCompat.from(this).createNotificationChannel(
+                new NotificationChannelCompat.Builder(CHANNEL_ID, NotificationManagerCompat.IMPORTANCE_LOW)
+                        .setName(getString(R.string.notification_channel_hosting))
+                        .build());
+        // Tapping the notification returns to the room, whether or not its screen is still open
+        Intent open = new Intent(this, ChatActivity.class)
+                .putExtra(MainActivity.EXTRA_ROOM_NUMBER, roomNumber)
+                .putExtra(MainActivity.EXTRA_IS_HOST, true)
+                .putExtra(MainActivity.EXTRA_USER_NAME, hostName)
+                .putExtra(MainActivity.EXTRA_HOST_PORT, hostPort)
+                .addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP | Intent.FLAG_ACTIVITY_SINGLE_TOP);
+        PendingIntent contentIntent = PendingIntent.getActivity(this, 0, open,
+                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+        Notification notification = new NotificationCompat.Builder(this, CHANNEL_ID)
+                .setSmallIcon(android.R.drawable.stat_notify_chat)
+                .setContentTitle(getString(R.string.notification_hosting_title, roomNumber))
+                .setContentText(getString(R.string.notification_hosting_text))
+                .setContentIntent(contentIntent)
+                .setOngoing(true)
+                .setCategory(NotificationCompat.CATEGORY_SERVICE)
+                .build();
+        int type = Build.VERSION.SDK_INT >= 34 ? ServiceInfo.FOREGROUND_SERVICE_TYPE_REMOTE_MESSAGING : 0;
+        ServiceCompat.startForeground(this, NOTIFICATION_ID, notification, type);
+    }
+
+    // Announces the room by UDP beacon too, if discovery by beacon is switched on
+    private void startBeaconAnnouncer(RelayServer relay) {
+        String mode = getSharedPreferences(MainActivity.PREFS_NAME, MODE_PRIVATE).getString(MainActivity.KEY_DISCOVERY_MODE, null);
+        if (!DiscoveryMode.fromPreference(mode).usesBeacons()) return;
+        String room = roomNumber;
+        String name = hostName;
+        int port = hostPort;
+        BeaconAnnouncer announcer = new BeaconAnnouncer(RoomBeacon.DEFAULT_PORT, BeaconAnnouncer.DEFAULT_INTERVAL_MS,
+                () -> new RoomBeacon(room, name, port, relay.getSessions().size() + 1)); // +1: the host
+        try {
+            announcer.open();
+        } catch (IOException e) {
+            Log.e(TAG, "Could not open beacon port " + RoomBeacon.DEFAULT_PORT + "; the room is still found over NSD", e);
+            return;
+        }
+        beaconAnnouncer = announcer;
+        networkExecutorService.execute(announcer);
+    }
+
+    // Advertised only once the relay is listening, so nobody resolves a room that cannot be joined yet
+    private void registerNsdService(int port) {
+        if (roomClosed) return;
+        NsdServiceInfo serviceInfo = new NsdServiceInfo();
+        serviceInfo.setServiceName("LanChatRoom_" + roomNumber); // Unique service name
+        serviceInfo.setServiceType(MainActivity.SERVICE_TYPE);
+        serviceInfo.setPort(port);
+        serviceInfo.setAttribute("roomNumber", roomNumber);
+        serviceInfo.setAttribute("userName", hostName);
+        advertisedServiceName = serviceInfo.getServiceName();
+
+        registrationListener = new NsdManager.RegistrationListener() {
+            @Override
+            public void onServiceRegistered(NsdServiceInfo info) {
+                advertisedServiceName = info.getServiceName(); // NSD renames it on a clash
+                advertisedNanos = System.nanoTime();
+                Log.i(TAG, "NSD Service registered: " + advertisedServiceName + " (" + millisSinceCreate(advertisedNanos) + " ms after create)");
+            }
+
+            @Override
+            public void onRegistrationFailed(NsdServiceInfo info, int errorCode) {
+                Log.e(TAG, "NSD Service registration failed: " + errorCode);
+                advertisedServiceName = null;
+            }
+
+            @Override
+            public void onServiceUnregistered(NsdServiceInfo info) {
+                Log.i(TAG, "NSD Service unregistered: " + info.getServiceName());
+            }
+
+            @Override
+            public void onUnregistrationFailed(NsdServiceInfo info, int errorCode) {
+                Log.e(TAG, "NSD Service unregistration failed: " + errorCode);
+            }
+        };
+        nsdManager.registerService(serviceInfo, NsdManager.PROTOCOL_DNS_SD, registrationListener);
+    }
+
+    private void unregisterNsdService() {
+        if (registrationListener == null) return;
+        try {
+            nsdManager.unregisterService(registrationListener);
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Error unregistering NSD service, listener not registered or already unregistered.", e);
+        }
+        registrationListener = null;
+        advertisedServiceName = null;
+    }
+
+    // Relays a chat message as soon as it is accepted, stamped with the next sequence id so clients
+    // can resume from it, and hands the row to the write buffer under that same id. The disk and any
+    // database backlog stay off the relay path; history reads merge in rows not yet written. The
+    // shown copy gets the id too, so the host's message window can page from it.
+    private void storeAndBroadcast(ChatMessage shown, ChatFrame message, ClientSession excludeSession) {
+        synchronized (relayOrderLock) {
+            if (messageIdsSeeded) {
+                relayWithNextId(shown, message, excludeSession);
+            } else {
+                // Only until the room has read its newest stored id; the seeding task relays these first
+                relayAfterSeed.add(() -> relayWithNextId(shown, message, excludeSession));
+            }
+        }
+    }
+
+    // Caller holds relayOrderLock
+    private void relayWithNextId(ChatMessage shown, ChatFrame message, ClientSession excludeSession) {
+        long id = lastMessageId.incrementAndGet();
+        ChatMessage dbMessage = new ChatMessage(roomNumber, message.getText(), message.getSender(), shown.getTimestamp(), false);
+        dbMessage.setId(id);
+        messageWriteBuffer.add(dbMessage); // Before the relay, so a client joining now finds it in history
+        ChatFrame relayed = message.withId(id);
+        if (relayed.getTrace() != null) {
+            relayed = relayed.withTrace(relayed.getTrace().withHostRelayed(TraceClock.nowMicros()));
+        }
+        broadcastMessageToClients(relayed, excludeSession);
+        messagesRelayed.increment();
+        mainHandler.post(() -> shown.setId(id));
+    }
+
+    private void broadcastMessageToClients(ChatFrame message, ClientSession excludeSession) {
+        if (LOG_MESSAGES) Log.v(TAG, "Host broadcasting: " + message);
+        RelayServer relay = relayServer;
+        if (relay != null) {
+            relay.broadcast(message, excludeSession); // null: broadcast to all
+        }
+    }
+
+    private void notifyRoom(String text) {
+        Listener current = listener;
+        if (current != null) current.onRoomNotice(text);
+    }
+
+    /**
+     * Up to {@code limit} of this room's messages with an id above {@code afterId}, oldest first,
+     * including ones relayed but not written yet. Reads the database, so not on the main thread.
+     */
+    public List<ChatMessage> getMessagesAfter(long afterId, int limit) {
+        List<ChatMessage> unwritten = messageWriteBuffer.unwritten();
+        List<ChatMessage> rows = mergeUnwritten(chatMessageDao.getMessagesAfter(roomNumber, afterId, limit), unwritten, afterId, Long.MAX_VALUE);
+        return rows.subList(0, Math.min(limit, rows.size()));
+    }
+
+    /** Like {@link #getMessagesAfter}, for the {@code limit} newest messages below {@code beforeId}. */
+    public List<ChatMessage> getMessagesBefore(long beforeId, int limit) {
+        List<ChatMessage> unwritten = messageWriteBuffer.unwritten();
+        List<ChatMessage> rows = mergeUnwritten(chatMessageDao.getMessagesBefore(roomNumber, beforeId, limit), unwritten, 0, beforeId);
+        return rows.subList(Math.max(0, rows.size() - limit), rows.size());
+    }
+
+    // Messages are relayed before they are written, so pages also take in the write buffer's
+    // unwritten rows. The buffer is read before the database: a batch committing in between then
+    // shows up in one or both, never in neither. Returns stored and unwritten rows of this room
+    // with an id in (afterId, beforeId), oldest first
+    private List<ChatMessage> mergeUnwritten(List<ChatMessage> stored, List<ChatMessage> unwritten, long afterId, long beforeId) {
+        TreeMap<Long, ChatMessage> byId = new TreeMap<>();
+        for (ChatMessage msg : stored) {
+            byId.put(msg.getId(), msg);
+        }
+        for (ChatMessage msg : unwritten) {
+            if (msg.getId() > afterId && msg.getId() < beforeId && !msg.isSystemMessage()
+                    && roomNumber.equals(msg.getRoomId())) {
+                byId.put(msg.getId(), msg);
+            }
+        }
+        return new ArrayList<>(byId.values());
+    }
+
+    // Keyset-paged reads for HistoryStreamer; runs on historyExecutorService, not the DB write thread
+    private class RoomHistorySource implements HistoryStreamer.Source {
+
+        @Override
+        public List<ChatFrame> loadAfter(long afterId, int limit) {
+            return toHistoryFrames(getMessagesAfter(afterId, limit));
+        }
+
+        @Override
+        public List<ChatFrame> loadBefore(long beforeId, int limit) {
+            return toHistoryFrames(getMessagesBefore(beforeId, limit));
+        }
+
+        private List<ChatFrame> toHistoryFrames(List<ChatMessage> messages) {
+            List<ChatFrame> frames = new ArrayList<>(messages.size());
+            for (ChatMessage msg : messages) {
+                frames.add(ChatFrame.history(msg.getId(), msg.getSenderName(), msg.getTimestamp(), msg.getMessageText()));
+            }
+            return frames;
+        }
+    }
+
+    // Callbacks arrive on the relay's selector thread, so keep them short
+    private class HostRelayListener implements RelayServer.Listener {
+
+        private boolean firstClientLogged = false; // Selector thread only
+
+        @Override
+        public void onClientJoined(ClientSession session) {
+            Log.i(TAG, "Client connected: " + session.getRemoteAddress() + " as " + session.getClientName() + " (" + session.getWireFormat() + ")");
+            if (!firstClientLogged) {
+                firstClientLogged = true;
+                Log.i(TAG, "Room startup: " + startupTimings());
+            }
+            String joinMsg = session.getClientName() + " joined the chat.";
+            notifyRoom(joinMsg); // Host UI
+            broadcastMessageToClients(ChatFrame.system(joinMsg), session); // Notify other clients
+            if (tracing && session.getWireFormat().isBinary()) {
+                relayServer.send(session, ChatFrame.traceMode(true));
+            }
+            historyStreamer.onClientJoined(session); // Latest page, the missed gap on resume, or a full replay for text clients
+        }
+
+        @Override
+        public void onClientMessage(ClientSession session, ChatFrame frame) {
+            long receivedMicros = TraceClock.nowMicros();
+            if (frame.getType() == ChatFrame.Type.TRACE_SYNC) {
+                // Answered even with tracing off, in case it was just turned off: the reply is cheap
+                relayServer.send(session, ChatFrame.traceSync(
+                        frame.getTrace().withHostReceived(receivedMicros).withHostRelayed(TraceClock.nowMicros())));
+                return;
+            }
+            if (frame.getType() == ChatFrame.Type.TRACE_REPORT) {
+                TraceCollector collector = traceCollector;
+                if (tracing && collector != null) collector.record(frame.getId(), session.getClientName(), frame.getTrace());
+                return;
+            }
+            if (frame.getType() == ChatFrame.Type.HISTORY_REQUEST) {
+                historyStreamer.sendBefore(session, frame.getId(), frame.getLimit());
+                return;
+            }
+            if (frame.getType() == ChatFrame.Type.HISTORY_AFTER_REQUEST) {
+                historyStreamer.sendAfter(session, frame.getId(), frame.getLimit());
+                return;
+            }
+            if (frame.getType() != ChatFrame.Type.CHAT) {
+                Log.w(TAG, "Ignoring " + frame.getType() + " from client " + session.getClientName());
+                return;
+            }
+            if (LOG_MESSAGES) Log.v(TAG, "Host received: " + frame);
+            messagesIn.increment();
+            if (tracing) {
+                // Unstamped messages, e.g. from clients that cannot trace, are still timed from here on
+                TraceStamps stamps = frame.getTrace() != null ? frame.getTrace() : TraceStamps.sent(0);
+                frame = frame.withTrace(stamps.withHostReceived(receivedMicros));
+            }
+            ChatMessage message = new ChatMessage(roomNumber, frame.getText(), frame.getSender(), System.currentTimeMillis(), frame.isSystemMessage());
+            Listener current = listener;
+            if (current != null) current.onClientMessage(message); // Host UI
+            storeAndBroadcast(message, frame, session); // Relay to other clients
+        }
+
+        @Override
+        public void onClientLeft(ClientSession session) {
+            String leaveMsg = session.getClientName() + " left the chat.";
+            notifyRoom(leaveMsg);
+            broadcastMessageToClients(ChatFrame.system(leaveMsg), null);
+        }
+
+        @Override
+        public void onAcceptFailed(IOException e) {
+            Log.w(TAG, "Dropped a connection while accepting it", e);
+        }
+
+        @Override
+        public void onServerError(IOException e) {
+            Log.e(TAG, "Relay server failed", e);
+            Listener current = listener;
+            if (current != null) current.onRoomFailed(false);
+            mainHandler.post(() -> closeRoom(false));
+        }
+    }
+}
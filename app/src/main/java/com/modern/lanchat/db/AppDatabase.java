@@ -1,16 +1,55 @@
 package com.modern.lanchat.db;
 
 import android.content.Context;
+import androidx.annotation.NonNull;
 import androidx.room.Database;
 import androidx.room.Room;
 import androidx.room.RoomDatabase;
+import androidx.room.migration.Migration;
+import androidx.sqlite.db.SupportSQLiteDatabase;
 import com.modern.lanchat.model.ChatMessage;
+import com.modern.lanchat.model.ChatMessageFts;
 
-@Database(entities = {ChatMessage.class}, version = 1, exportSchema = false)
+@Database(entities = {ChatMessage.class, ChatMessageFts.class}, version = 3, exportSchema = false)
 public abstract class AppDatabase extends RoomDatabase {
 
     public abstract ChatMessageDao chatMessageDao();
 
+    // Version 2: timestamp goes from a "hh:mm a" string to epoch millis, indexed per room.
+    // The old strings carry no date, so migrated rows keep their order by id but get timestamp 0.
+    static final Migration MIGRATION_1_2 = new Migration(1, 2) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE chat_messages_new (id INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, "
+                    + "roomId TEXT, messageText TEXT, senderName TEXT, "
+                    + "timestamp INTEGER NOT NULL, isSystemMessage INTEGER NOT NULL)");
+            db.execSQL("INSERT INTO chat_messages_new (id, roomId, messageText, senderName, timestamp, isSystemMessage) "
+                    + "SELECT id, roomId, messageText, senderName, 0, isSystemMessage FROM chat_messages");
+            db.execSQL("DROP TABLE chat_messages");
+            db.execSQL("ALTER TABLE chat_messages_new RENAME TO chat_messages");
+            db.execSQL("CREATE INDEX IF NOT EXISTS index_chat_messages_roomId_id ON chat_messages (roomId, id)");
+            db.execSQL("CREATE INDEX IF NOT EXISTS index_chat_messages_roomId_timestamp ON chat_messages (roomId, timestamp)");
+        }
+    };
+
+    // Version 3: FTS4 index over message text. The triggers match the ones Room creates for a
+    // contentEntity, and 'rebuild' indexes the rows that already exist.
+    static final Migration MIGRATION_2_3 = new Migration(2, 3) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS `chat_messages_fts` USING FTS4(`messageText` TEXT, content=`chat_messages`)");
+            db.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_chat_messages_fts_BEFORE_UPDATE BEFORE UPDATE ON `chat_messages` "
+                    + "BEGIN DELETE FROM `chat_messages_fts` WHERE `docid`=OLD.`rowid`; END");
+            db.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_chat_messages_fts_BEFORE_DELETE BEFORE DELETE ON `chat_messages` "
+                    + "BEGIN DELETE FROM `chat_messages_fts` WHERE `docid`=OLD.`rowid`; END");
+            db.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_chat_messages_fts_AFTER_UPDATE AFTER UPDATE ON `chat_messages` "
+                    + "BEGIN INSERT INTO `chat_messages_fts`(`docid`, `messageText`) VALUES (NEW.`rowid`, NEW.`messageText`); END");
+            db.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_chat_messages_fts_AFTER_INSERT AFTER INSERT ON `chat_messages` "
+                    + "BEGIN INSERT INTO `chat_messages_fts`(`docid`, `messageText`) VALUES (NEW.`rowid`, NEW.`messageText`); END");
+            db.execSQL("INSERT INTO chat_messages_fts(chat_messages_fts) VALUES('rebuild')");
+        }
+    };
+
     private static volatile AppDatabase INSTANCE;
 
     public static AppDatabase getDatabase(final Context context) {
@@ -19,9 +58,10 @@ public abstract class AppDatabase extends RoomDatabase {
                 if (INSTANCE == null) {
                     INSTANCE = Room.databaseBuilder(context.getApplicationContext(),
                                     AppDatabase.class, "lan_chat_history_db")
-                            // For development, destructive migration is okay.
-                            // For production, implement proper migrations.
-                            .fallbackToDestructiveMigration()
+                            .addMigrations(MIGRATION_1_2, MIGRATION_2_3)
+                            // Not left to AUTOMATIC, which skips WAL on low-RAM devices: history reads
+                            // must carry on while HistoryCompactor holds the write lock
+                            .setJournalMode(JournalMode.WRITE_AHEAD_LOGGING)
                             .build();
                 }
             }
@@ -4,18 +4,86 @@ import androidx.room.Dao;
 import androidx.room.Insert;
 import androidx.room.OnConflictStrategy;
 import androidx.room.Query;
+import androidx.room.RawQuery;
+import androidx.sqlite.db.SupportSQLiteQuery;
 import com.modern.lanchat.model.ChatMessage;
 import java.util.List;
 
 @Dao
 public interface ChatMessageDao {
 
+    // Returns the new row id; a message with its id already set keeps it
     @Insert(onConflict = OnConflictStrategy.REPLACE)
-    void insertMessage(ChatMessage message);
+    long insertMessage(ChatMessage message);
+
+    // One transaction for the whole batch; ids come back in list order. The host sets each id
+    // before relaying the message, so these rows keep the sequence id clients already saw
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    List<Long> insertMessages(List<ChatMessage> messages);
+
+    // Seeds the host's in-memory sequence, so new ids follow every row already stored in any room
+    @Query("SELECT MAX(id) FROM chat_messages")
+    Long getNewestId();
 
     @Query("SELECT * FROM chat_messages WHERE roomId = :roomId ORDER BY id ASC")
     List<ChatMessage> getMessagesForRoom(String roomId);
 
+    // Keyset pages over the (roomId, id) index, so each page costs O(limit) whatever the room size
+    @Query("SELECT * FROM chat_messages WHERE roomId = :roomId AND id > :afterId AND isSystemMessage = 0 ORDER BY id ASC LIMIT :limit")
+    List<ChatMessage> getMessagesAfter(String roomId, long afterId, int limit);
+
+    // Newest first; callers reverse the page for display
+    @Query("SELECT * FROM chat_messages WHERE roomId = :roomId AND id < :beforeId AND isSystemMessage = 0 ORDER BY id DESC LIMIT :limit")
+    List<ChatMessage> getMessagesBefore(String roomId, long beforeId, int limit);
+
+    // Both served by the (roomId, timestamp) index; bounds are epoch millis, from inclusive, to exclusive
+    @Query("SELECT * FROM chat_messages WHERE roomId = :roomId AND timestamp >= :fromMillis AND timestamp < :toMillis ORDER BY timestamp ASC, id ASC")
+    List<ChatMessage> getMessagesBetween(String roomId, long fromMillis, long toMillis);
+
+    // Rows migrated from version 1 have timestamp 0, an unknown age, and are never matched by age
+    @Query("DELETE FROM chat_messages WHERE roomId = :roomId AND timestamp > 0 AND timestamp < :cutoffMillis")
+    int deleteMessagesOlderThan(String roomId, long cutoffMillis);
+
+    // Corpus statistics for a full-text query: matchinfo 'pcnx' carries the row count and, per
+    // term, the rows containing it, which are the same on every matching row
+    @Query("SELECT matchinfo(chat_messages_fts, 'pcnx') FROM chat_messages_fts WHERE chat_messages_fts MATCH :match LIMIT 1")
+    byte[] getMatchStats(String match);
+
+    // A page of full-text matches ranked in SQL; MessageSearch builds the ranking expression,
+    // whose shape depends on how many terms the query has
+    @RawQuery
+    List<ChatMessage> searchRanked(SupportSQLiteQuery query);
+
+    // Id of the newest match beyond the window of :window matches below :beforeId, or null if
+    // the window holds every remaining match. roomId null searches every room
+    @Query("SELECT chat_messages_fts.docid FROM chat_messages_fts "
+            + "JOIN chat_messages ON chat_messages.id = chat_messages_fts.docid "
+            + "WHERE chat_messages_fts MATCH :match AND chat_messages.isSystemMessage = 0 "
+            + "AND (:roomId IS NULL OR chat_messages.roomId = :roomId) AND chat_messages_fts.docid < :beforeId "
+            + "ORDER BY chat_messages_fts.docid DESC LIMIT 1 OFFSET :window")
+    Long getSearchWindowEnd(String match, String roomId, long beforeId, int window);
+
+    // Retention: cutoffs are resolved to ids so the deletes below walk the (roomId, id) index
+    @Query("SELECT DISTINCT roomId FROM chat_messages")
+    List<String> getRoomIds();
+
+    // Id of the newest message beyond the newest :keep, or null if the room has no more than that
+    @Query("SELECT id FROM chat_messages WHERE roomId = :roomId ORDER BY id DESC LIMIT 1 OFFSET :keep")
+    Long getIdBeforeNewest(String roomId, int keep);
+
+    // Skips migrated rows (timestamp 0): their age is unknown, so only the count and size limits apply to them
+    @Query("SELECT MAX(id) FROM chat_messages WHERE roomId = :roomId AND timestamp > 0 AND timestamp < :cutoffMillis")
+    Long getNewestIdOlderThan(String roomId, long cutoffMillis);
+
+    @Query("SELECT id, LENGTH(CAST(IFNULL(messageText, '') AS BLOB)) + LENGTH(CAST(IFNULL(senderName, '') AS BLOB)) AS bytes "
+            + "FROM chat_messages WHERE roomId = :roomId AND id < :beforeId ORDER BY id DESC LIMIT :limit")
+    List<MessageSize> getMessageSizesBefore(String roomId, long beforeId, int limit);
+
+    // One bounded chunk, oldest first, so no single delete holds the write lock for long
+    @Query("DELETE FROM chat_messages WHERE id IN "
+            + "(SELECT id FROM chat_messages WHERE roomId = :roomId AND id <= :maxId ORDER BY id LIMIT :limit)")
+    int deleteMessagesUpTo(String roomId, long maxId, int limit);
+
     @Query("DELETE FROM chat_messages WHERE roomId = :roomId")
     void deleteMessagesForRoom(String roomId);
 
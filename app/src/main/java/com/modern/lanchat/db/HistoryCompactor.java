@@ -0,0 +1,232 @@
+package com.modern.lanchat.db;
+
+import android.content.SharedPreferences;
+import android.util.Log;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies {@link RetentionPolicy} to stored history in the background. A pass works out, per
+ * room, the newest id that falls outside the policy. It then deletes up to that id in chunks
+ * of {@code chunkRows}, each chunk its own short transaction, so message writes get the write
+ * lock in between rather than waiting behind one long delete.
+ *
+ * <p>After a pass that reclaimed rows, the WAL is checkpointed. A VACUUM, which does lock the
+ * database for its duration, runs at most once per {@link #VACUUM_INTERVAL_MS} and only after
+ * {@link #VACUUM_MIN_RECLAIMED_ROWS} rows have gone since the last one. Both are kept in
+ * preferences, since a room's compactor lives only as long as the room.</p>
+ *
+ * <p>All of this runs on an executor of its own, never on the thread that writes messages or
+ * serves history. In WAL mode, history reads go on from the last committed state while maintenance
+ * holds the write lock. Message writes wait for it on their own thread, and the relay does not
+ * wait for them.</p>
+ */
+public class HistoryCompactor {
+
+    private static final String TAG = "HistoryCompactor";
+
+    public static final int DEFAULT_CHUNK_ROWS = 500;
+    public static final long DEFAULT_INTERVAL_MS = TimeUnit.MINUTES.toMillis(30);
+
+    private static final long VACUUM_INTERVAL_MS = TimeUnit.DAYS.toMillis(7);
+    private static final long VACUUM_MIN_RECLAIMED_ROWS = 10_000;
+    private static final int SIZE_SCAN_PAGE = 1000;
+
+    /** Preferences file the compactor keeps its VACUUM bookkeeping in. */
+    public static final String PREFS_NAME = "history_compactor";
+    private static final String KEY_LAST_VACUUM_MILLIS = "last_vacuum_millis";
+    private static final String KEY_RECLAIMED_SINCE_VACUUM = "reclaimed_since_vacuum";
+
+    private static final class Target {
+        final String roomId;
+        final long cutoffId; // Delete this id and everything older in the room
+
+        Target(String roomId, long cutoffId) {
+            this.roomId = roomId;
+            this.cutoffId = cutoffId;
+        }
+    }
+
+    private final AppDatabase database;
+    private final ChatMessageDao dao;
+    private final SharedPreferences prefs;
+    private final ScheduledExecutorService executor;
+    private final int chunkRows;
+
+    private volatile RetentionPolicy defaultPolicy = RetentionPolicy.KEEP_ALL;
+    private final Map<String, RetentionPolicy> roomPolicies = new ConcurrentHashMap<>();
+    private ScheduledFuture<?> schedule; // Guarded by this
+    private volatile boolean stopped = false;
+
+    // Maintenance executor only
+    private boolean passRunning = false;
+    private long reclaimedThisPass;
+
+    private volatile long runs;
+    private volatile long rowsDeleted;
+    private volatile long chunks;
+    private volatile long checkpoints;
+    private volatile long vacuums;
+    private volatile long lastRunMillis;
+
+    /**
+     * {@code executor} must be a single thread kept for maintenance, not the one that writes messages.
+     * {@code prefs} should be the {@link #PREFS_NAME} file, shared by every compactor of the database.
+     */
+    public HistoryCompactor(AppDatabase database, SharedPreferences prefs, ScheduledExecutorService executor, int chunkRows) {
+        this.database = database;
+        this.dao = database.chatMessageDao();
+        this.prefs = prefs;
+        this.executor = executor;
+        this.chunkRows = chunkRows;
+    }
+
+    /** Policy for rooms without their own. */
+    public void setDefaultPolicy(RetentionPolicy policy) {
+        defaultPolicy = policy;
+    }
+
+    public void setRoomPolicy(String roomId, RetentionPolicy policy) {
+        roomPolicies.put(roomId, policy);
+    }
+
+    /** Runs a pass every {@code intervalMs}, the first one after the same delay. */
+    public synchronized void start(long intervalMs) {
+        if (schedule != null || stopped) return;
+        schedule = executor.scheduleWithFixedDelay(this::startPass, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /** Cancels the schedule and ends a running pass after its current chunk. Cannot be restarted. */
+    public synchronized void stop() {
+        stopped = true;
+        if (schedule != null) {
+            schedule.cancel(false);
+            schedule = null;
+        }
+    }
+
+    /** Queues a pass now, unless one is already running. */
+    public void runNow() {
+        executor.execute(this::startPass);
+    }
+
+    private void startPass() {
+        if (passRunning || stopped) return;
+        Deque<Target> targets = new ArrayDeque<>();
+        try {
+            long now = System.currentTimeMillis();
+            for (String roomId : dao.getRoomIds()) {
+                RetentionPolicy policy = roomPolicies.get(roomId);
+                if (policy == null) policy = defaultPolicy;
+                if (policy.keepsAll()) continue;
+                long cutoffId = cutoffId(roomId, policy, now);
+                if (cutoffId > 0) targets.add(new Target(roomId, cutoffId));
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Retention pass failed while planning", e);
+            return;
+        }
+        passRunning = true;
+        reclaimedThisPass = 0;
+        deleteNextChunk(targets);
+    }
+
+    // Newest id the policy no longer keeps, or 0 if the room is within every limit
+    private long cutoffId(String roomId, RetentionPolicy policy, long now) {
+        long cutoffId = 0;
+        if (policy.maxMessages > 0) {
+            Long id = dao.getIdBeforeNewest(roomId, policy.maxMessages);
+            if (id != null) cutoffId = Math.max(cutoffId, id);
+        }
+        if (policy.maxAgeMillis > 0) {
+            // Rows migrated without a timestamp are not aged out on their own. Ids follow arrival order,
+            // so they go only once a timestamped message newer than them passes the cutoff
+            Long id = dao.getNewestIdOlderThan(roomId, now - policy.maxAgeMillis);
+            if (id != null) cutoffId = Math.max(cutoffId, id);
+        }
+        if (policy.maxBytes > 0) {
+            cutoffId = Math.max(cutoffId, byteCutoffId(roomId, policy.maxBytes));
+        }
+        return cutoffId;
+    }
+
+    // Walks the room newest first until the running total passes maxBytes
+    private long byteCutoffId(String roomId, long maxBytes) {
+        long total = 0;
+        long beforeId = Long.MAX_VALUE;
+        while (true) {
+            List<MessageSize> page = dao.getMessageSizesBefore(roomId, beforeId, SIZE_SCAN_PAGE);
+            for (MessageSize size : page) {
+                total += size.bytes;
+                if (total > maxBytes) return size.id;
+            }
+            if (page.size() < SIZE_SCAN_PAGE) return 0;
+            beforeId = page.get(page.size() - 1).id;
+        }
+    }
+
+    private void deleteNextChunk(Deque<Target> targets) {
+        Target target = targets.peek();
+        if (target == null) {
+            finishPass();
+            return;
+        }
+        if (stopped) {
+            // The rows left are picked up by the next room's first pass
+            passRunning = false;
+            return;
+        }
+        int deleted;
+        try {
+            deleted = dao.deleteMessagesUpTo(target.roomId, target.cutoffId, chunkRows);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Retention pass failed deleting from room " + target.roomId, e);
+            passRunning = false;
+            return;
+        }
+        chunks++;
+        rowsDeleted += deleted;
+        reclaimedThisPass += deleted;
+        if (deleted < chunkRows) targets.poll();
+        // Requeue instead of looping, so stop() and other queued maintenance get a turn
+        executor.execute(() -> deleteNextChunk(targets));
+    }
+
+    private void finishPass() {
+        passRunning = false;
+        runs++;
+        lastRunMillis = System.currentTimeMillis();
+        if (reclaimedThisPass == 0) return;
+        long reclaimedSinceVacuum = prefs.getLong(KEY_RECLAIMED_SINCE_VACUUM, 0) + reclaimedThisPass;
+        long lastVacuumMillis = prefs.getLong(KEY_LAST_VACUUM_MILLIS, 0);
+        prefs.edit().putLong(KEY_RECLAIMED_SINCE_VACUUM, reclaimedSinceVacuum).apply();
+        try {
+            SupportSQLiteDatabase db = database.getOpenHelper().getWritableDatabase();
+            db.query("PRAGMA wal_checkpoint(TRUNCATE)").close();
+            checkpoints++;
+            if (reclaimedSinceVacuum >= VACUUM_MIN_RECLAIMED_ROWS && lastRunMillis - lastVacuumMillis >= VACUUM_INTERVAL_MS) {
+                db.execSQL("INSERT INTO chat_messages_fts(chat_messages_fts) VALUES('optimize')");
+                db.execSQL("VACUUM");
+                vacuums++;
+                prefs.edit()
+                        .putLong(KEY_RECLAIMED_SINCE_VACUUM, 0)
+                        .putLong(KEY_LAST_VACUUM_MILLIS, lastRunMillis)
+                        .apply();
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Database maintenance failed", e);
+        }
+        Log.i(TAG, "Retention pass reclaimed " + reclaimedThisPass + " rows");
+    }
+
+    public RetentionStats stats() {
+        return new RetentionStats(runs, rowsDeleted, chunks, checkpoints, vacuums, lastRunMillis);
+    }
+}
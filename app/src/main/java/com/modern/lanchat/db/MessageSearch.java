@@ -0,0 +1,165 @@
+package com.modern.lanchat.db;
+
+import androidx.sqlite.db.SimpleSQLiteQuery;
+import com.modern.lanchat.model.ChatMessage;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Ranked full-text search over stored messages. Matches are taken newest first in windows of
+ * {@link #RANK_WINDOW}, and each window is ranked in SQL by a BM25-style score from its
+ * matchinfo, so a page costs the same however large the archive or deep the paging. Paging
+ * runs through a window best first, then continues with the next older window, so every match
+ * is reachable. Runs on the calling thread, so never call it on the main thread.
+ */
+public class MessageSearch {
+
+    /** How many matches, newest first, are ranked against each other. */
+    public static final int RANK_WINDOW = 1000;
+
+    /** One page of results, and where the next one starts, or null after the last. */
+    public static final class Page {
+        public final List<ChatMessage> results;
+        public final Cursor next;
+
+        Page(List<ChatMessage> results, Cursor next) {
+            this.results = results;
+            this.next = next;
+        }
+    }
+
+    /** Position in a search: the window being ranked and how far into it. Opaque to callers. */
+    public static final class Cursor {
+        final String match;
+        final String roomId;
+        final double[] weights; // Read once per search, the corpus statistics barely move meanwhile
+        final long beforeId;    // The window is the RANK_WINDOW newest matches below this id
+        final int offset;       // Rank within the window
+
+        Cursor(String match, String roomId, double[] weights, long beforeId, int offset) {
+            this.match = match;
+            this.roomId = roomId;
+            this.weights = weights;
+            this.beforeId = beforeId;
+            this.offset = offset;
+        }
+    }
+
+    // Platform SQLite cannot take a custom rank function, so each term's hit count is read back
+    // out of hex(matchinfo(..., 'x')) with this table
+    private static final String HEX_DIGITS = "'0123456789ABCDEF'";
+
+    private final ChatMessageDao dao;
+
+    public MessageSearch(ChatMessageDao dao) {
+        this.dao = dao;
+    }
+
+    /**
+     * First page of a search.
+     * @param roomId room to search, or null for every room.
+     * @return up to {@code limit} matches, best first; no results if the query has no words.
+     */
+    public Page search(String userQuery, String roomId, int limit) {
+        String match = toMatchExpression(userQuery);
+        if (match.isEmpty()) return new Page(Collections.<ChatMessage>emptyList(), null);
+
+        double[] weights = termWeights(dao.getMatchStats(match));
+        if (weights == null) return new Page(Collections.<ChatMessage>emptyList(), null); // Nothing matches anywhere
+        return search(new Cursor(match, roomId, weights, Long.MAX_VALUE, 0), limit);
+    }
+
+    /** The page at {@code cursor}, as returned with the previous one. */
+    public Page search(Cursor cursor, int limit) {
+        List<Object> args = new ArrayList<>();
+        StringBuilder sql = new StringBuilder("SELECT * FROM (SELECT *, ");
+        for (int term = 0; term < cursor.weights.length; term++) {
+            // BM25 term weight without length normalisation: idf * tf * (k1 + 1) / (tf + k1)
+            String tf = hitsInRow(term);
+            sql.append("? * ").append(tf).append(" * 2.2 / (").append(tf).append(" + 1.2) + ");
+            args.add(cursor.weights[term]);
+        }
+        // The window's LIMIT keeps SQLite from flattening it, so matchinfo runs once per row
+        sql.append("0 AS score FROM (SELECT chat_messages.*, ")
+                .append("hex(matchinfo(chat_messages_fts, 'x')) AS hits FROM chat_messages_fts ")
+                .append("JOIN chat_messages ON chat_messages.id = chat_messages_fts.docid ")
+                .append("WHERE chat_messages_fts MATCH ? AND chat_messages.isSystemMessage = 0");
+        args.add(cursor.match);
+        if (cursor.roomId != null) {
+            sql.append(" AND chat_messages.roomId = ?");
+            args.add(cursor.roomId);
+        }
+        sql.append(" AND chat_messages_fts.docid < ? ORDER BY chat_messages_fts.docid DESC LIMIT ?))")
+                .append(" ORDER BY score DESC, id DESC LIMIT ? OFFSET ?"); // Newest first among equal scores
+        args.add(cursor.beforeId);
+        args.add(RANK_WINDOW);
+        args.add(limit + 1); // One extra row tells whether this window goes on
+        args.add(cursor.offset);
+        List<ChatMessage> rows = dao.searchRanked(new SimpleSQLiteQuery(sql.toString(), args.toArray()));
+
+        Cursor next;
+        if (rows.size() > limit) {
+            rows = new ArrayList<>(rows.subList(0, limit));
+            next = new Cursor(cursor.match, cursor.roomId, cursor.weights, cursor.beforeId, cursor.offset + limit);
+        } else {
+            // This window is used up; the next one starts at the newest match it did not reach
+            Long newestOlder = dao.getSearchWindowEnd(cursor.match, cursor.roomId, cursor.beforeId, RANK_WINDOW);
+            next = newestOlder != null
+                    ? new Cursor(cursor.match, cursor.roomId, cursor.weights, newestOlder + 1, 0)
+                    : null;
+        }
+        return new Page(rows, next);
+    }
+
+    // Each word becomes a quoted prefix term, so user input cannot inject FTS operators
+    static String toMatchExpression(String userQuery) {
+        StringBuilder match = new StringBuilder();
+        for (String word : userQuery.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (word.isEmpty()) continue;
+            if (match.length() > 0) match.append(' ');
+            match.append('"').append(word).append("*\"");
+        }
+        return match.toString();
+    }
+
+    // matchinfo 'pcnx': phrases, columns, total rows, then per phrase and column the hits in
+    // this row, hits in all rows and rows with at least one hit. Returns each term's idf, or
+    // null when there was no matching row to read them from
+    static double[] termWeights(byte[] matchInfo) {
+        if (matchInfo == null || matchInfo.length < 12) return null;
+        ByteBuffer info = ByteBuffer.wrap(matchInfo).order(ByteOrder.nativeOrder());
+        int phrases = info.getInt(0);
+        int columns = info.getInt(4);
+        int rows = info.getInt(8);
+        double[] weights = new double[phrases];
+        for (int phrase = 0; phrase < phrases; phrase++) {
+            int rowsWithHits = 0;
+            for (int column = 0; column < columns; column++) {
+                int base = 12 + (phrase * columns + column) * 12;
+                if (base + 12 > matchInfo.length) break;
+                rowsWithHits = Math.max(rowsWithHits, info.getInt(base + 8));
+            }
+            weights[phrase] = Math.log(1 + (rows - rowsWithHits + 0.5) / (rowsWithHits + 0.5));
+        }
+        return weights;
+    }
+
+    // SQL for one term's hits in the current row: the low 16 bits of the first int of its
+    // matchinfo 'x' triple, read from the hex string in the platform's byte order
+    static String hitsInRow(int term) {
+        int first = term * 24 + 1; // 12 bytes, so 24 hex digits per term; substr() counts from 1
+        boolean little = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+        int low = little ? first : first + 6;
+        int high = little ? first + 2 : first + 4;
+        return "(" + hexByte(high) + " * 256 + " + hexByte(low) + ")";
+    }
+
+    private static String hexByte(int position) {
+        return "((instr(" + HEX_DIGITS + ", substr(hits, " + position + ", 1)) - 1) * 16"
+                + " + instr(" + HEX_DIGITS + ", substr(hits, " + (position + 1) + ", 1)) - 1)";
+    }
+}
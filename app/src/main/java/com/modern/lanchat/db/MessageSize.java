@@ -0,0 +1,8 @@
+package com.modern.lanchat.db;
+
+/** Stored size of one message, for byte-based retention. */
+public class MessageSize {
+
+    public long id;
+    public long bytes;
+}
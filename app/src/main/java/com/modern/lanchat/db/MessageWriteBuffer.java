@@ -0,0 +1,147 @@
+package com.modern.lanchat.db;
+
+import android.util.Log;
+import com.modern.lanchat.metrics.Counter;
+import com.modern.lanchat.metrics.Histogram;
+import com.modern.lanchat.metrics.MetricsRegistry;
+import com.modern.lanchat.model.ChatMessage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind buffer for chat messages. Messages collect here and are written in batches
+ * through {@link ChatMessageDao#insertMessages}, one transaction per batch. That costs one
+ * commit per batch rather than one per message.
+ *
+ * <p>A batch is flushed once it reaches {@code maxBatch} messages, or {@code maxDelayMs} after
+ * its first message arrived. Flushes run on the single database thread. Messages that arrive
+ * while a flush is writing go into the next batch, so a busy room groups its commits on its own.</p>
+ *
+ * <p>The buffer only persists. Messages come in with their ids already assigned and have been
+ * relayed already, so nothing waits for a batch to commit; {@link #unwritten()} covers the gap
+ * for readers.</p>
+ */
+public class MessageWriteBuffer {
+
+    private static final String TAG = "MessageWriteBuffer";
+
+    public static final int DEFAULT_MAX_BATCH = 64;
+    public static final long DEFAULT_MAX_DELAY_MS = 10;
+
+    private final ChatMessageDao dao;
+    private final ScheduledExecutorService executor;
+    private final int maxBatch;
+    private final long maxDelayMs;
+
+    private List<ChatMessage> pending = new ArrayList<>();   // Guarded by this
+    private List<ChatMessage> writing = new ArrayList<>();   // Guarded by this; taken from pending, not committed yet
+    private boolean flushScheduled = false;
+
+    // Written on the database thread only
+    private volatile long flushes;
+    private volatile long messagesWritten;
+    private volatile int largestBatch;
+    private volatile long totalFlushNanos;
+    private volatile long slowestFlushNanos;
+    private Histogram insertMicros; // Null unless setMetrics was called
+    private Counter messagesInserted;
+
+    public MessageWriteBuffer(ChatMessageDao dao, ScheduledExecutorService executor, int maxBatch, long maxDelayMs) {
+        this.dao = dao;
+        this.executor = executor;
+        this.maxBatch = maxBatch;
+        this.maxDelayMs = maxDelayMs;
+    }
+
+    /** Reports each batch's insert time and the messages written into {@code registry}. Call before the first {@link #add}. */
+    public void setMetrics(MetricsRegistry registry) {
+        insertMicros = registry.histogram("db.insert_batch", "us");
+        messagesInserted = registry.counter("db.messages_written");
+    }
+
+    /** Buffers one message for writing, its id already set. Safe to call from any thread. */
+    public void add(ChatMessage message) {
+        boolean flushNow;
+        boolean scheduleFlush = false;
+        synchronized (this) {
+            pending.add(message);
+            flushNow = pending.size() >= maxBatch;
+            if (!flushNow && !flushScheduled) {
+                flushScheduled = true;
+                scheduleFlush = true;
+            }
+        }
+        if (flushNow) {
+            executor.execute(this::flush);
+        } else if (scheduleFlush) {
+            executor.schedule(this::flush, maxDelayMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Messages added but not committed yet, oldest first: buffered, or in a batch being written.
+     * Readers merge them with what they load, so a message is never missing from history just
+     * because it is still on its way to disk. Safe to call from any thread.
+     */
+    public synchronized List<ChatMessage> unwritten() {
+        List<ChatMessage> messages = new ArrayList<>(writing.size() + pending.size());
+        messages.addAll(writing);
+        messages.addAll(pending);
+        return messages;
+    }
+
+    /**
+     * Queues a flush of everything buffered so far. Work submitted to the database executor
+     * afterwards, such as a delete or a shutdown, runs after these messages are written.
+     */
+    public void flushNow() {
+        executor.execute(this::flush);
+    }
+
+    private void flush() {
+        List<ChatMessage> batch;
+        synchronized (this) {
+            flushScheduled = false;
+            if (pending.isEmpty()) return;
+            batch = pending;
+            writing = batch;
+            pending = new ArrayList<>();
+        }
+
+        // Anything that piled up during a slow flush is written in several batches, not one huge transaction
+        for (int from = 0; from < batch.size(); from += maxBatch) {
+            int to = Math.min(from + maxBatch, batch.size());
+            write(batch.subList(from, to));
+        }
+        synchronized (this) {
+            writing = new ArrayList<>();
+        }
+    }
+
+    private void write(List<ChatMessage> batch) {
+        long start = System.nanoTime();
+        try {
+            dao.insertMessages(batch);
+        } catch (RuntimeException e) {
+            // The messages were relayed already; only their history is lost
+            Log.e(TAG, "Failed to write " + batch.size() + " messages", e);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        flushes++;
+        messagesWritten += batch.size();
+        largestBatch = Math.max(largestBatch, batch.size());
+        totalFlushNanos += elapsed;
+        slowestFlushNanos = Math.max(slowestFlushNanos, elapsed);
+        if (insertMicros != null) {
+            insertMicros.record(elapsed / 1000);
+            messagesInserted.add(batch.size());
+        }
+    }
+
+    public WriteStats stats() {
+        return new WriteStats(flushes, messagesWritten, largestBatch, totalFlushNanos, slowestFlushNanos);
+    }
+}
@@ -0,0 +1,29 @@
+package com.modern.lanchat.db;
+
+import java.util.Locale;
+
+/** How much history a room keeps. A limit of 0 means that limit is off; the oldest messages go first. */
+public final class RetentionPolicy {
+
+    public static final RetentionPolicy KEEP_ALL = new RetentionPolicy(0, 0, 0);
+
+    public final int maxMessages;
+    public final long maxAgeMillis;
+    public final long maxBytes; // Message text and sender name, UTF-8
+
+    public RetentionPolicy(int maxMessages, long maxAgeMillis, long maxBytes) {
+        this.maxMessages = maxMessages;
+        this.maxAgeMillis = maxAgeMillis;
+        this.maxBytes = maxBytes;
+    }
+
+    public boolean keepsAll() {
+        return maxMessages <= 0 && maxAgeMillis <= 0 && maxBytes <= 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "maxMessages=%d, maxAge=%d h, maxBytes=%d",
+                maxMessages, maxAgeMillis / 3_600_000L, maxBytes);
+    }
+}
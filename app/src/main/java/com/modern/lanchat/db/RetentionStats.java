@@ -0,0 +1,29 @@
+package com.modern.lanchat.db;
+
+import java.util.Locale;
+
+/** Point-in-time snapshot of a {@link HistoryCompactor}'s work. */
+public final class RetentionStats {
+
+    public final long runs;
+    public final long rowsDeleted;
+    public final long chunks;         // Delete transactions, each at most one chunk of rows
+    public final long checkpoints;
+    public final long vacuums;
+    public final long lastRunMillis;  // Epoch millis of the last completed pass, 0 if none yet
+
+    RetentionStats(long runs, long rowsDeleted, long chunks, long checkpoints, long vacuums, long lastRunMillis) {
+        this.runs = runs;
+        this.rowsDeleted = rowsDeleted;
+        this.chunks = chunks;
+        this.checkpoints = checkpoints;
+        this.vacuums = vacuums;
+        this.lastRunMillis = lastRunMillis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "runs=%d, rows reclaimed=%d in %d chunks, checkpoints=%d, vacuums=%d",
+                runs, rowsDeleted, chunks, checkpoints, vacuums);
+    }
+}
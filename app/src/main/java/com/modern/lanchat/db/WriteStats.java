@@ -0,0 +1,35 @@
+package com.modern.lanchat.db;
+
+import java.util.Locale;
+
+/** Point-in-time snapshot of a {@link MessageWriteBuffer}'s batching. */
+public final class WriteStats {
+
+    public final long flushes;           // Transactions committed
+    public final long messagesWritten;
+    public final int largestBatch;
+    public final long totalFlushNanos;
+    public final long slowestFlushNanos;
+
+    WriteStats(long flushes, long messagesWritten, int largestBatch, long totalFlushNanos, long slowestFlushNanos) {
+        this.flushes = flushes;
+        this.messagesWritten = messagesWritten;
+        this.largestBatch = largestBatch;
+        this.totalFlushNanos = totalFlushNanos;
+        this.slowestFlushNanos = slowestFlushNanos;
+    }
+
+    public double averageBatchSize() {
+        return flushes == 0 ? 0 : (double) messagesWritten / flushes;
+    }
+
+    public double averageFlushMillis() {
+        return flushes == 0 ? 0 : totalFlushNanos / 1e6 / flushes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "flushes=%d, messages=%d, batch avg=%.1f max=%d, flush avg=%.2f ms max=%.2f ms",
+                flushes, messagesWritten, averageBatchSize(), largestBatch, averageFlushMillis(), slowestFlushNanos / 1e6);
+    }
+}
@@ -0,0 +1,120 @@
+package com.modern.lanchat.discovery;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+
+/**
+ * Host side of beacon discovery: broadcasts a {@link RoomBeacon} every interval and answers
+ * probes with one sent straight back. The beacon is rebuilt for every send, so the member count
+ * stays current. {@link #run} blocks its thread until {@link #close}.
+ */
+public class BeaconAnnouncer implements Runnable {
+
+    public interface BeaconSource {
+        RoomBeacon currentBeacon();
+    }
+
+    public static final long DEFAULT_INTERVAL_MS = 2000;
+
+    private final int port;
+    private final long intervalMs;
+    private final BeaconSource source;
+    private DatagramChannel channel;
+    private Selector selector;
+    private volatile boolean running;
+
+    private volatile long beaconsSent = 0;
+    private volatile long probesAnswered = 0;
+    private volatile long sendFailures = 0;
+
+    public BeaconAnnouncer(int port, long intervalMs, BeaconSource source) {
+        this.port = port;
+        this.intervalMs = intervalMs;
+        this.source = source;
+    }
+
+    /** Binds the beacon port. Must be called once before {@link #run()}. */
+    public void open() throws IOException {
+        channel = RoomBeacon.openChannel(port);
+        selector = Selector.open();
+        channel.register(selector, SelectionKey.OP_READ);
+        running = true;
+    }
+
+    @Override
+    public void run() {
+        ByteBuffer in = ByteBuffer.allocate(RoomBeacon.MAX_DATAGRAM);
+        long nextBeaconAt = 0; // First beacon straight away
+        try {
+            while (running && !Thread.currentThread().isInterrupted()) {
+                long now = System.currentTimeMillis();
+                if (now >= nextBeaconAt) {
+                    broadcast();
+                    nextBeaconAt = now + intervalMs;
+                }
+                selector.select(Math.max(1, nextBeaconAt - now));
+                selector.selectedKeys().clear();
+                SocketAddress from;
+                while ((from = receive(in)) != null) {
+                    in.flip();
+                    if (RoomBeacon.isProbe(in)) {
+                        send(source.currentBeacon().encode(), from);
+                        probesAnswered++;
+                    }
+                    in.clear();
+                }
+            }
+        } catch (ClosedChannelException | ClosedSelectorException e) {
+            // close() ran meanwhile
+        } catch (IOException e) {
+            running = false;
+        } finally {
+            close();
+        }
+    }
+
+    private SocketAddress receive(ByteBuffer in) throws IOException {
+        in.clear();
+        return channel.receive(in);
+    }
+
+    private void broadcast() throws ClosedChannelException {
+        ByteBuffer beacon = source.currentBeacon().encode();
+        for (InetSocketAddress target : RoomBeacon.broadcastTargets(port)) {
+            send(beacon.duplicate(), target);
+        }
+        beaconsSent++;
+    }
+
+    // A send can fail while Wi-Fi changes networks; the next interval tries again
+    private void send(ByteBuffer datagram, SocketAddress target) throws ClosedChannelException {
+        try {
+            channel.send(datagram, target);
+        } catch (ClosedChannelException e) {
+            throw e;
+        } catch (IOException e) {
+            sendFailures++;
+        }
+    }
+
+    public void close() {
+        running = false;
+        try {
+            if (selector != null) selector.close();
+            if (channel != null) channel.close();
+        } catch (IOException ignored) {
+            // Closing anyway
+        }
+    }
+
+    public String stats() {
+        return "beacons sent=" + beaconsSent + ", probes answered=" + probesAnswered + ", send failures=" + sendFailures;
+    }
+}
@@ -0,0 +1,88 @@
+package com.modern.lanchat.discovery;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+
+/**
+ * Client side of beacon discovery: listens on the beacon port for {@link RoomBeacon}s and can
+ * broadcast a probe so hosts answer at once instead of at their next interval. {@link #run}
+ * blocks its thread delivering beacons until {@link #close}; {@link #probe} may be called from
+ * any other thread.
+ */
+public class BeaconScanner implements Runnable {
+
+    public interface Listener {
+        /** A beacon from the host at {@code from}. Called on the thread running {@link #run}. */
+        void onBeacon(InetSocketAddress from, RoomBeacon beacon);
+    }
+
+    private final int port;
+    private final Listener listener;
+    private DatagramChannel channel;
+    private Selector selector;
+    private volatile boolean running;
+
+    public BeaconScanner(int port, Listener listener) {
+        this.port = port;
+        this.listener = listener;
+    }
+
+    /** Binds the beacon port. Must be called once before {@link #run()} or {@link #probe()}. */
+    public void open() throws IOException {
+        channel = RoomBeacon.openChannel(port);
+        selector = Selector.open();
+        channel.register(selector, SelectionKey.OP_READ);
+        running = true;
+    }
+
+    @Override
+    public void run() {
+        ByteBuffer in = ByteBuffer.allocate(RoomBeacon.MAX_DATAGRAM);
+        try {
+            while (running && !Thread.currentThread().isInterrupted()) {
+                selector.select();
+                selector.selectedKeys().clear();
+                SocketAddress from;
+                while ((from = channel.receive(in)) != null) {
+                    in.flip();
+                    RoomBeacon beacon = RoomBeacon.decode(in); // Null for probes, including our own
+                    if (beacon != null && from instanceof InetSocketAddress) {
+                        listener.onBeacon((InetSocketAddress) from, beacon);
+                    }
+                    in.clear();
+                }
+            }
+        } catch (ClosedChannelException | ClosedSelectorException e) {
+            // close() ran meanwhile
+        } catch (IOException e) {
+            running = false;
+        } finally {
+            close();
+        }
+    }
+
+    /** Asks every host on the LAN for a beacon now. */
+    public void probe() throws IOException {
+        if (channel == null) return; // Not open yet; the first beacons arrive without asking
+        for (InetSocketAddress target : RoomBeacon.broadcastTargets(port)) {
+            channel.send(RoomBeacon.encodeProbe(), target);
+        }
+    }
+
+    public void close() {
+        running = false;
+        try {
+            if (selector != null) selector.close();
+            if (channel != null) channel.close();
+        } catch (IOException ignored) {
+            // Closing anyway
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.modern.lanchat.discovery;
+
+/** How rooms are found on the LAN. */
+public enum DiscoveryMode {
+    NSD,    // DNS-SD through NsdManager
+    BEACON, // UDP broadcast beacons, see RoomBeacon
+    BOTH;   // Both side by side, e.g. to compare them
+
+    public boolean usesNsd() {
+        return this != BEACON;
+    }
+
+    public boolean usesBeacons() {
+        return this != NSD;
+    }
+
+    /** Parses a stored preference, falling back to {@link #NSD}. */
+    public static DiscoveryMode fromPreference(String value) {
+        if (value != null) {
+            for (DiscoveryMode mode : values()) {
+                if (mode.name().equals(value)) return mode;
+            }
+        }
+        return NSD;
+    }
+}
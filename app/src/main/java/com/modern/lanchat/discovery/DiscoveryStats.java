@@ -0,0 +1,49 @@
+package com.modern.lanchat.discovery;
+
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * How quickly one discovery path turns up rooms: the time from the start of discovery until
+ * each distinct room is first seen through it. Keep one per path to compare them side by side.
+ * Not thread-safe.
+ */
+public final class DiscoveryStats {
+
+    private final String path;
+    private final Set<String> seenRooms = new HashSet<>();
+    private long startedAtMs;
+    private long firstRoomMs = -1;
+    private long lastNewRoomMs = -1;
+    private long totalFirstSeenMs = 0;
+
+    public DiscoveryStats(String path) {
+        this.path = path;
+    }
+
+    /** Starts a new measurement; rooms already seen count again. */
+    public void start(long nowMs) {
+        startedAtMs = nowMs;
+        seenRooms.clear();
+        firstRoomMs = -1;
+        lastNewRoomMs = -1;
+        totalFirstSeenMs = 0;
+    }
+
+    /** Records a sighting of the room with this key; only the first one per room counts. */
+    public void onSeen(String roomKey, long nowMs) {
+        if (!seenRooms.add(roomKey)) return;
+        long elapsed = nowMs - startedAtMs;
+        if (firstRoomMs < 0) firstRoomMs = elapsed;
+        lastNewRoomMs = elapsed;
+        totalFirstSeenMs += elapsed;
+    }
+
+    @Override
+    public String toString() {
+        if (seenRooms.isEmpty()) return path + ": no rooms";
+        return String.format(Locale.US, "%s: %d rooms, first after %d ms, all by %d ms, avg %d ms",
+                path, seenRooms.size(), firstRoomMs, lastNewRoomMs, totalFirstSeenMs / seenRooms.size());
+    }
+}
@@ -0,0 +1,156 @@
+package com.modern.lanchat.discovery;
+
+import android.net.nsd.NsdManager;
+import android.net.nsd.NsdServiceInfo;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Resolves found NSD services a few at a time. Before Android 14 NsdManager allows a single
+ * resolve in flight and fails the rest with FAILURE_ALREADY_ACTIVE, so handing it every found
+ * service at once loses most of them on a busy LAN. Services already queued or resolving are not
+ * queued twice, failures are retried with exponential backoff, and every resolve's latency is
+ * recorded. All methods and callbacks run on the handler's thread.
+ */
+public class ResolveQueue {
+
+    private static final String TAG = "ResolveQueue";
+
+    public interface Callback {
+        /** {@code latencyMs} runs from when the service was queued, including waiting and retries. */
+        void onResolved(String serviceName, NsdServiceInfo info, long latencyMs);
+
+        void onGaveUp(String serviceName, int errorCode);
+    }
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 4;
+    public static final long DEFAULT_RETRY_BASE_MS = 250;
+
+    private static final class Request {
+        final NsdServiceInfo service;
+        final long queuedAtMs;
+        int attempts = 0;
+
+        Request(NsdServiceInfo service, long queuedAtMs) {
+            this.service = service;
+            this.queuedAtMs = queuedAtMs;
+        }
+    }
+
+    private final NsdManager nsdManager;
+    private final Handler handler;
+    private final Callback callback;
+    private final int maxConcurrent;
+    private final int maxAttempts;
+    private final long retryBaseMs;
+
+    private final Deque<Request> waiting = new ArrayDeque<>();
+    private final Set<String> known = new HashSet<>(); // Waiting, resolving or backing off
+    private int active = 0;
+    private int generation = 0; // Bumped by cancelAll so late callbacks are ignored
+
+    private long resolved = 0;
+    private long failedAttempts = 0;
+    private long gaveUp = 0;
+    private long totalLatencyMs = 0;
+    private long slowestLatencyMs = 0;
+
+    public ResolveQueue(NsdManager nsdManager, Handler handler, int maxConcurrent, int maxAttempts,
+                        long retryBaseMs, Callback callback) {
+        this.nsdManager = nsdManager;
+        this.handler = handler;
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        this.maxAttempts = maxAttempts;
+        this.retryBaseMs = retryBaseMs;
+        this.callback = callback;
+    }
+
+    /** Queues a found service for resolving; returns false if it is already queued or resolving. */
+    public boolean enqueue(NsdServiceInfo service) {
+        if (!known.add(service.getServiceName())) return false;
+        waiting.add(new Request(service, SystemClock.elapsedRealtime()));
+        startNext();
+        return true;
+    }
+
+    /** Drops everything queued; resolves already handed to NsdManager finish unreported. */
+    public void cancelAll() {
+        generation++;
+        waiting.clear();
+        known.clear();
+        active = 0;
+    }
+
+    private void startNext() {
+        while (active < maxConcurrent && !waiting.isEmpty()) {
+            resolve(waiting.poll());
+        }
+    }
+
+    private void resolve(Request request) {
+        active++;
+        request.attempts++;
+        int startedIn = generation;
+        nsdManager.resolveService(request.service, new NsdManager.ResolveListener() {
+            @Override
+            public void onResolveFailed(NsdServiceInfo serviceInfo, int errorCode) {
+                handler.post(() -> {
+                    if (startedIn == generation) onFailed(request, errorCode);
+                });
+            }
+
+            @Override
+            public void onServiceResolved(NsdServiceInfo serviceInfo) {
+                handler.post(() -> {
+                    if (startedIn == generation) onSucceeded(request, serviceInfo);
+                });
+            }
+        });
+    }
+
+    private void onSucceeded(Request request, NsdServiceInfo info) {
+        active--;
+        String name = request.service.getServiceName();
+        known.remove(name);
+        long latencyMs = SystemClock.elapsedRealtime() - request.queuedAtMs;
+        resolved++;
+        totalLatencyMs += latencyMs;
+        slowestLatencyMs = Math.max(slowestLatencyMs, latencyMs);
+        Log.d(TAG, "Resolved " + name + " in " + latencyMs + " ms after " + request.attempts + " attempt(s)");
+        callback.onResolved(name, info, latencyMs);
+        startNext();
+    }
+
+    private void onFailed(Request request, int errorCode) {
+        active--;
+        failedAttempts++;
+        String name = request.service.getServiceName();
+        if (request.attempts >= maxAttempts) {
+            known.remove(name);
+            gaveUp++;
+            Log.w(TAG, "Giving up on " + name + " after " + request.attempts + " attempts, error " + errorCode);
+            callback.onGaveUp(name, errorCode);
+        } else {
+            // The slot is free again meanwhile, so other services are not held up by this one
+            long delayMs = retryBaseMs << (request.attempts - 1);
+            int queuedIn = generation;
+            handler.postDelayed(() -> {
+                if (queuedIn != generation) return;
+                waiting.add(request);
+                startNext();
+            }, delayMs);
+        }
+        startNext();
+    }
+
+    public String stats() {
+        return "resolved=" + resolved + ", failed attempts=" + failedAttempts + ", gave up=" + gaveUp
+                + ", latency avg=" + (resolved == 0 ? 0 : totalLatencyMs / resolved) + " ms max=" + slowestLatencyMs + " ms";
+    }
+}
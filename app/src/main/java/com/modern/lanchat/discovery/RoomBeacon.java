@@ -0,0 +1,144 @@
+package com.modern.lanchat.discovery;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.InterfaceAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The datagrams of beacon discovery. A host broadcasts a beacon describing its room on a fixed
+ * interval and answers probes with one, so a client can list rooms without NSD.
+ *
+ * <p>Layout, big-endian: magic "LCB1", a type byte, and for a beacon the chat port (u16), member
+ * count (u16), then room number and host name as UTF-8 each prefixed by a length byte. A probe
+ * is the magic and type alone.</p>
+ */
+public final class RoomBeacon {
+
+    public static final int DEFAULT_PORT = 45454;
+    static final int MAX_DATAGRAM = 512;
+
+    private static final int MAGIC = 0x4C434231; // "LCB1"
+    private static final byte TYPE_BEACON = 1;
+    private static final byte TYPE_PROBE = 2;
+    private static final int MAX_STRING_BYTES = 255;
+
+    public final String roomNumber;
+    public final String hostName;
+    public final int port;
+    public final int memberCount;
+
+    public RoomBeacon(String roomNumber, String hostName, int port, int memberCount) {
+        this.roomNumber = roomNumber;
+        this.hostName = hostName;
+        this.port = port;
+        this.memberCount = memberCount;
+    }
+
+    ByteBuffer encode() {
+        ByteBuffer buffer = ByteBuffer.allocate(MAX_DATAGRAM);
+        buffer.putInt(MAGIC).put(TYPE_BEACON);
+        buffer.putShort((short) port).putShort((short) Math.min(memberCount, 0xFFFF));
+        putString(buffer, roomNumber);
+        putString(buffer, hostName);
+        buffer.flip();
+        return buffer;
+    }
+
+    static ByteBuffer encodeProbe() {
+        ByteBuffer buffer = ByteBuffer.allocate(5);
+        buffer.putInt(MAGIC).put(TYPE_PROBE);
+        buffer.flip();
+        return buffer;
+    }
+
+    static boolean isProbe(ByteBuffer datagram) {
+        return datagram.remaining() >= 5 && datagram.getInt(datagram.position()) == MAGIC
+                && datagram.get(datagram.position() + 4) == TYPE_PROBE;
+    }
+
+    /** Decodes a beacon, or returns null for a probe or anything that is not ours. */
+    static RoomBeacon decode(ByteBuffer datagram) {
+        try {
+            if (datagram.getInt() != MAGIC || datagram.get() != TYPE_BEACON) return null;
+            int port = datagram.getShort() & 0xFFFF;
+            int memberCount = datagram.getShort() & 0xFFFF;
+            String roomNumber = getString(datagram);
+            String hostName = getString(datagram);
+            return new RoomBeacon(roomNumber, hostName, port, memberCount);
+        } catch (BufferUnderflowException e) {
+            return null; // Truncated
+        }
+    }
+
+    private static void putString(ByteBuffer buffer, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        int length = bytes.length;
+        if (length > MAX_STRING_BYTES) {
+            length = MAX_STRING_BYTES;
+            while ((bytes[length] & 0xC0) == 0x80) length--; // Do not split a character
+        }
+        buffer.put((byte) length).put(bytes, 0, length);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.get() & 0xFF];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** A non-blocking IPv4 channel on {@code port} that can broadcast and shares the port with other listeners. */
+    static DatagramChannel openChannel(int port) throws IOException {
+        DatagramChannel channel = DatagramChannel.open(StandardProtocolFamily.INET);
+        try {
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            channel.setOption(StandardSocketOptions.SO_BROADCAST, true);
+            channel.bind(new InetSocketAddress(port));
+            channel.configureBlocking(false);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    /** Broadcast addresses of the interfaces that are up, or the limited broadcast address if none. */
+    static List<InetSocketAddress> broadcastTargets(int port) {
+        List<InetSocketAddress> targets = new ArrayList<>();
+        try {
+            for (NetworkInterface nif : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+                if (!nif.isUp() || nif.isLoopback()) continue;
+                for (InterfaceAddress address : nif.getInterfaceAddresses()) {
+                    if (address.getBroadcast() != null) {
+                        targets.add(new InetSocketAddress(address.getBroadcast(), port));
+                    }
+                }
+            }
+        } catch (SocketException | NullPointerException e) {
+            // No interface list on this device; fall through to the limited broadcast
+        }
+        if (targets.isEmpty()) {
+            targets.add(new InetSocketAddress(limitedBroadcast(), port));
+        }
+        return targets;
+    }
+
+    private static InetAddress limitedBroadcast() {
+        try {
+            return InetAddress.getByAddress(new byte[] {(byte) 255, (byte) 255, (byte) 255, (byte) 255});
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // Four bytes is always a valid address
+        }
+    }
+}
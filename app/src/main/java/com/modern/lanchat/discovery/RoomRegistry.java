@@ -0,0 +1,173 @@
+package com.modern.lanchat.discovery;
+
+import com.modern.lanchat.model.DiscoveredRoom;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Rooms currently visible on the LAN, indexed by the sources that announce them (an NSD service
+ * name, a beacon sender) and by room number, so both a lost service and a typed room id are hash
+ * lookups. A room announced by several sources at once, e.g. over NSD and by beacon, is listed
+ * once. Every announcement refreshes a room's last-seen time, and {@link #expire} drops rooms not
+ * seen within the TTL, so a host that vanished without a goodbye does not linger. The listener
+ * hears about every change to the set. Not thread-safe; use from one thread.
+ */
+public class RoomRegistry {
+
+    public interface Listener {
+        /** The rooms after a change, in the order they were first seen. */
+        void onRoomsChanged(List<DiscoveredRoom> rooms);
+    }
+
+    private static final class Entry {
+        final Set<String> sources = new HashSet<>();
+        DiscoveredRoom room;
+        long lastSeenMs;
+
+        Entry(DiscoveredRoom room, long lastSeenMs) {
+            this.room = room;
+            this.lastSeenMs = lastSeenMs;
+        }
+    }
+
+    private final Map<String, Entry> byRoomKey = new LinkedHashMap<>(); // DiscoveredRoom.getKey()
+    private final Map<String, Entry> bySource = new HashMap<>();
+    private final Map<String, Entry> byRoomNumber = new HashMap<>();
+    private final long ttlMs;
+    private final Listener listener;
+
+    public RoomRegistry(long ttlMs, Listener listener) {
+        this.ttlMs = ttlMs;
+        this.listener = listener;
+    }
+
+    /**
+     * Records an announcement of {@code room} by {@code source}. Details the announcement leaves
+     * out, such as the member count over NSD, are kept from earlier announcements of the room.
+     * @return true if the set of rooms changed, false if this only refreshed a known room.
+     */
+    public boolean update(String source, DiscoveredRoom room, long nowMs) {
+        Entry entry = bySource.get(source);
+        if (entry == null) {
+            entry = byRoomKey.get(room.getKey()); // The same room seen through another source
+            if (entry != null) {
+                entry.sources.add(source);
+                bySource.put(source, entry);
+            }
+        }
+        if (entry == null) {
+            entry = new Entry(room, nowMs);
+            entry.sources.add(source);
+            bySource.put(source, entry);
+            byRoomKey.put(room.getKey(), entry);
+            byRoomNumber.put(room.getRoomNumber(), entry);
+            notifyChanged();
+            return true;
+        }
+        entry.lastSeenMs = nowMs;
+        DiscoveredRoom merged = room.withDefaultsFrom(entry.room);
+        if (merged.equals(entry.room)) return false;
+        if (merged.getKey().equals(entry.room.getKey())) {
+            entry.room = merged; // Same room, new details such as the member count: keeps its place
+        } else {
+            unindex(entry);
+            entry.room = merged;
+            byRoomKey.put(merged.getKey(), entry);
+            byRoomNumber.put(merged.getRoomNumber(), entry); // Two hosts with one number: the latest wins
+        }
+        notifyChanged();
+        return true;
+    }
+
+    /** Refreshes the last-seen time of a known source; returns false if the source is unknown. */
+    public boolean touch(String source, long nowMs) {
+        Entry entry = bySource.get(source);
+        if (entry == null) return false;
+        entry.lastSeenMs = nowMs;
+        return true;
+    }
+
+    /**
+     * Forgets {@code source}. Its room goes once no other source announces it.
+     * @return true if the set of rooms changed.
+     */
+    public boolean remove(String source) {
+        Entry entry = bySource.remove(source);
+        if (entry == null) return false;
+        entry.sources.remove(source);
+        if (!entry.sources.isEmpty()) return false;
+        unindex(entry);
+        notifyChanged();
+        return true;
+    }
+
+    /** Drops rooms not announced within the TTL; returns how many were dropped. */
+    public int expire(long nowMs) {
+        List<Entry> expired = new ArrayList<>();
+        for (Entry entry : byRoomKey.values()) {
+            if (nowMs - entry.lastSeenMs > ttlMs) expired.add(entry);
+        }
+        for (Entry entry : expired) {
+            unindex(entry);
+            for (String source : entry.sources) {
+                bySource.remove(source);
+            }
+        }
+        if (!expired.isEmpty()) notifyChanged();
+        return expired.size();
+    }
+
+    public void clear() {
+        if (byRoomKey.isEmpty()) return;
+        byRoomKey.clear();
+        bySource.clear();
+        byRoomNumber.clear();
+        notifyChanged();
+    }
+
+    /** The room with this number, or null if none is visible. */
+    public DiscoveredRoom findByRoomNumber(String roomNumber) {
+        Entry entry = byRoomNumber.get(roomNumber);
+        return entry != null ? entry.room : null;
+    }
+
+    public boolean isEmpty() {
+        return byRoomKey.isEmpty();
+    }
+
+    public int size() {
+        return byRoomKey.size();
+    }
+
+    public List<DiscoveredRoom> getRooms() {
+        List<DiscoveredRoom> rooms = new ArrayList<>(byRoomKey.size());
+        for (Entry entry : byRoomKey.values()) {
+            rooms.add(entry.room);
+        }
+        return rooms;
+    }
+
+    // Removes the entry from the room key and room number indexes; its sources stay mapped
+    private void unindex(Entry entry) {
+        byRoomKey.remove(entry.room.getKey());
+        String roomNumber = entry.room.getRoomNumber();
+        if (byRoomNumber.get(roomNumber) != entry) return;
+        byRoomNumber.remove(roomNumber);
+        // Rare: another host announces the same number, so let it take over the index
+        for (Entry other : byRoomKey.values()) {
+            if (other.room.getRoomNumber().equals(roomNumber)) {
+                byRoomNumber.put(roomNumber, other);
+            }
+        }
+    }
+
+    private void notifyChanged() {
+        if (listener != null) listener.onRoomsChanged(getRooms());
+    }
+}
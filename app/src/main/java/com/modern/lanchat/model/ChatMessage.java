@@ -6,7 +6,8 @@ import androidx.room.Index;
 import androidx.room.PrimaryKey;
 
 @Entity(tableName = "chat_messages",
-        indices = {@Index(value = {"roomId", "id"})}) // Index for querying by room and sorting
+        indices = {@Index(value = {"roomId", "id"}),         // Index for querying by room and sorting
+                   @Index(value = {"roomId", "timestamp"})}) // Time-range queries and retention pruning
 public class ChatMessage {
 
     @PrimaryKey(autoGenerate = true)
@@ -15,7 +16,7 @@ public class ChatMessage {
     public String roomId; // To associate messages with a specific room
     public String messageText;
     public String senderName;
-    public String timestamp; // Keep as String for now, or convert to Long for better sorting
+    public long timestamp; // Epoch millis, formatted only for display; 0 for rows migrated from version 1
     @Ignore // isSentByMe is a UI-specific flag, determined at runtime
     public boolean isSentByMe;
     public boolean isSystemMessage;
@@ -27,11 +28,11 @@ public class ChatMessage {
 
     // Main constructor for creating new messages before saving
     @Ignore
-    public ChatMessage(String roomId, String messageText, String senderName, String timestamp, boolean isSystemMessage) {
+    public ChatMessage(String roomId, String messageText, String senderName, long timestamp, boolean isSystemMessage) {
         this.roomId = roomId;
         this.messageText = messageText;
         this.senderName = senderName;
-        this.timestamp = timestamp; // Consider storing actual long timestamp and format on display
+        this.timestamp = timestamp;
         this.isSystemMessage = isSystemMessage;
         // isSentByMe will be set in the adapter or ChatActivity based on currentUserName
     }
@@ -49,8 +50,8 @@ public class ChatMessage {
     public String getSenderName() { return senderName; }
     public void setSenderName(String senderName) { this.senderName = senderName; }
 
-    public String getTimestamp() { return timestamp; }
-    public void setTimestamp(String timestamp) { this.timestamp = timestamp; }
+    public long getTimestamp() { return timestamp; }
+    public void setTimestamp(long timestamp) { this.timestamp = timestamp; }
 
     public boolean isSentByMe() { return isSentByMe; }
     public void setSentByMe(boolean sentByMe) { isSentByMe = sentByMe; }
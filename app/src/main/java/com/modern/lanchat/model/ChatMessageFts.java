@@ -0,0 +1,12 @@
+package com.modern.lanchat.model;
+
+import androidx.room.Entity;
+import androidx.room.Fts4;
+
+// Full-text index over chat_messages; Room keeps it in sync with triggers, docid = ChatMessage.id
+@Fts4(contentEntity = ChatMessage.class)
+@Entity(tableName = "chat_messages_fts")
+public class ChatMessageFts {
+
+    public String messageText;
+}
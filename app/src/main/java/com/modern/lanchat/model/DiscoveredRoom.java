@@ -1,18 +1,35 @@
 package com.modern.lanchat.model;
 
+import java.util.Objects;
+
 public class DiscoveredRoom {
     private String roomNumber; // Or a more general room identifier
     private String roomName;   // Optional: a user-friendly name for the room
     private String hostName;   // Name of the user hosting the room
     private String hostAddress; // IP address of the host
     private int hostPort;       // Port number the host is listening on
+    private int memberCount;    // People in the room, host included; -1 if the announcement did not say
 
     public DiscoveredRoom(String roomNumber, String roomName, String hostName, String hostAddress, int hostPort) {
+        this(roomNumber, roomName, hostName, hostAddress, hostPort, -1);
+    }
+
+    public DiscoveredRoom(String roomNumber, String roomName, String hostName, String hostAddress, int hostPort, int memberCount) {
         this.roomNumber = roomNumber;
         this.roomName = roomName;
         this.hostName = hostName;
         this.hostAddress = hostAddress;
         this.hostPort = hostPort;
+        this.memberCount = memberCount;
+    }
+
+    /** This announcement, with details it left out taken from an earlier one of the same room. */
+    public DiscoveredRoom withDefaultsFrom(DiscoveredRoom earlier) {
+        return new DiscoveredRoom(roomNumber,
+                roomName != null ? roomName : earlier.roomName,
+                hostName != null ? hostName : earlier.hostName,
+                hostAddress, hostPort,
+                memberCount >= 0 ? memberCount : earlier.memberCount);
     }
 
     // Getters
@@ -39,8 +56,32 @@ public class DiscoveredRoom {
         return hostPort;
     }
 
-    // You might want to override equals() and hashCode() if you store these in Sets or use them as keys in Maps.
-    // For now, it's not strictly necessary for basic RecyclerView display.
+    public int getMemberCount() {
+        return memberCount;
+    }
+
+    /** Identifies the room across updates: the same room number served from the same address and port. */
+    public String getKey() {
+        return roomNumber + "@" + hostAddress + ":" + hostPort;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        DiscoveredRoom that = (DiscoveredRoom) o;
+        return hostPort == that.hostPort &&
+                memberCount == that.memberCount &&
+                Objects.equals(roomNumber, that.roomNumber) &&
+                Objects.equals(roomName, that.roomName) &&
+                Objects.equals(hostName, that.hostName) &&
+                Objects.equals(hostAddress, that.hostAddress);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(roomNumber, roomName, hostName, hostAddress, hostPort, memberCount);
+    }
 
     @Override
     public String toString() {
@@ -50,6 +91,7 @@ public class DiscoveredRoom {
                 ", hostName='" + hostName + '\'' +
                 ", hostAddress='" + hostAddress + '\'' +
                 ", hostPort=" + hostPort +
+                ", memberCount=" + memberCount +
                 '}';
     }
 }
\ No newline at end of file
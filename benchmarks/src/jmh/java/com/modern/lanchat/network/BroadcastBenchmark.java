@@ -0,0 +1,78 @@
+package com.modern.lanchat.network;
+
+import com.modern.lanchat.metrics.MetricsRegistry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost on the host of relaying one message to a room of {@code clients}. {@link #broadcastAndFlush}
+ * is {@link RelayServer#broadcast}'s loop (encode once, enqueue the shared frame for every
+ * joined client) followed by the selector thread's flush of each client, against sockets that
+ * take every write, so it is the whole per-message fan-out short of the system calls.
+ * {@link #iterateSessions} is the walk over the session list alone.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BroadcastBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int clients;
+
+    @Param({"TEXT", "BINARY"})
+    public WireFormat format;
+
+    private final List<ClientSession> sessions = new CopyOnWriteArrayList<>(); // As in RelayServer
+    private ChatFrame message;
+    private long nextId = 0;
+
+    @Setup
+    public void setUp() {
+        RelayMetrics metrics = new RelayMetrics(new MetricsRegistry());
+        for (int i = 0; i < clients; i++) {
+            OutboundQueue queue = new OutboundQueue(RelayServer.DEFAULT_MAX_QUEUED_FRAMES,
+                    RelayServer.DEFAULT_MAX_QUEUED_BYTES, OverflowPolicy.DISCONNECT);
+            ClientSession session = new ClientSession(new SinkSocketChannel(), null, queue, metrics);
+            session.setWireFormat(format);
+            session.markHandshakeDone();
+            sessions.add(session);
+        }
+        message = ChatFrame.chat("alice", "Is everyone still up for lunch at noon?");
+    }
+
+    @Benchmark
+    public int broadcastAndFlush() throws IOException {
+        Frame frame = Frame.of(message.withId(++nextId));
+        for (ClientSession session : sessions) {
+            if (session.isHandshakeDone() && !session.isClosed()) {
+                session.enqueue(frame);
+            }
+        }
+        int drained = 0;
+        for (ClientSession session : sessions) {
+            if (session.flush()) drained++;
+        }
+        return drained;
+    }
+
+    @Benchmark
+    public int iterateSessions() {
+        int joined = 0;
+        for (ClientSession session : sessions) {
+            if (session.isHandshakeDone() && !session.isClosed()) joined++;
+        }
+        return joined;
+    }
+}
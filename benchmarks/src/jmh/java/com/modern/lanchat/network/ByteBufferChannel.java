@@ -0,0 +1,35 @@
+package com.modern.lanchat.network;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/** Serves the remaining bytes of a buffer as a channel, the way a socket hands over what it received. */
+final class ByteBufferChannel implements ReadableByteChannel {
+
+    private final ByteBuffer source;
+
+    ByteBufferChannel(ByteBuffer source) {
+        this.source = source;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) {
+        if (!source.hasRemaining()) return -1;
+        int count = Math.min(dst.remaining(), source.remaining());
+        ByteBuffer slice = source.duplicate();
+        slice.limit(slice.position() + count);
+        dst.put(slice);
+        source.position(source.position() + count);
+        return count;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return true;
+    }
+
+    @Override
+    public void close() {
+        // Nothing to release
+    }
+}
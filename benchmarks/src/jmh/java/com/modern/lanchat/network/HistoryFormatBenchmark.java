@@ -0,0 +1,83 @@
+package com.modern.lanchat.network;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Formatting history: one {@code HIST:} line as text peers receive it, a whole page in each
+ * wire format (compressed pages included), and the display timestamp. The timestamp pair
+ * compares building a SimpleDateFormat for every message, as the chat screen once did, with
+ * reusing one per thread, as MessageTimeFormatter does now.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HistoryFormatBenchmark {
+
+    private static final int PAGE_SIZE = HistoryStreamer.DEFAULT_PAGE_SIZE;
+    private static final String TIME_PATTERN = "hh:mm a";
+
+    private ChatFrame row;
+    private List<ChatFrame> page;
+    private final SimpleDateFormat reusedFormat = new SimpleDateFormat(TIME_PATTERN, Locale.US);
+    private final Date date = new Date();
+    private long timestamp;
+
+    @Setup
+    public void setUp() {
+        timestamp = 1_700_000_000_000L;
+        row = ChatFrame.history(42, "alice", timestamp, "Is everyone still up for lunch at noon?");
+        page = new ArrayList<>(PAGE_SIZE);
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            page.add(ChatFrame.history(1000 + i, i % 2 == 0 ? "alice" : "bob", timestamp + i * 1000L,
+                    "Message number " + i + " of the page"));
+        }
+    }
+
+    @Benchmark
+    public String textHistoryLine() {
+        return TextCodec.encode(row);
+    }
+
+    /** Per row: divide the score by the page size. */
+    @Benchmark
+    public ByteBuffer textHistoryPage() {
+        return Frame.of(page).newReader(WireFormat.TEXT);
+    }
+
+    /** Per row: divide the score by the page size. */
+    @Benchmark
+    public ByteBuffer binaryHistoryPage() {
+        return Frame.of(page).newReader(WireFormat.BINARY);
+    }
+
+    /** Per row: divide the score by the page size. Includes the binary encode it compresses. */
+    @Benchmark
+    public ByteBuffer deflatedHistoryPage() {
+        return Frame.of(page).newReader(WireFormat.BINARY_DEFLATE);
+    }
+
+    @Benchmark
+    public String timestampNewFormatPerMessage() {
+        return new SimpleDateFormat(TIME_PATTERN, Locale.US).format(new Date(timestamp));
+    }
+
+    @Benchmark
+    public String timestampReusedFormat() {
+        date.setTime(timestamp);
+        return reusedFormat.format(date);
+    }
+}
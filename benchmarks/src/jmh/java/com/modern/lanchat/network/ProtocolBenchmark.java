@@ -0,0 +1,111 @@
+package com.modern.lanchat.network;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding one chat message in each wire format. The text decode is the original
+ * protocol's parse: a {@code startsWith} check per control prefix, then a split on the first
+ * {@link ChatProtocol#MSG_DELIMITER}. The stream variants go through {@link FrameDecoder} as the
+ * relay does, so they include finding frame boundaries and UTF-8 decoding the receive buffer.
+ * Lives in the network package to reach the package-private codecs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ProtocolBenchmark {
+
+    private static final int STREAM_MESSAGES = 100;
+
+    @Param({"32", "512"})
+    public int textLength;
+
+    private ChatFrame message;
+    private String textLine;
+    private ByteBuffer binaryFrame;
+    private int binaryFrameLength;
+    private ByteBuffer textStream;   // STREAM_MESSAGES lines back to back
+    private ByteBuffer binaryStream; // STREAM_MESSAGES frames back to back
+
+    @Setup
+    public void setUp() {
+        StringBuilder text = new StringBuilder(textLength);
+        while (text.length() < textLength) {
+            text.append("lorem ipsum ");
+        }
+        text.setLength(textLength);
+        message = ChatFrame.chat("alice", text.toString()).withId(123_456);
+        textLine = TextCodec.encode(message);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryCodec.encode(message, out);
+        binaryFrame = ByteBuffer.wrap(out.toByteArray());
+        binaryFrameLength = binaryFrame.remaining();
+
+        StringBuilder lines = new StringBuilder();
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        for (int i = 0; i < STREAM_MESSAGES; i++) {
+            lines.append(textLine).append('\n');
+            BinaryCodec.encode(message, frames);
+        }
+        textStream = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+        binaryStream = ByteBuffer.wrap(frames.toByteArray());
+    }
+
+    @Benchmark
+    public ByteBuffer encodeText() {
+        return Frame.of(message).newReader(WireFormat.TEXT);
+    }
+
+    @Benchmark
+    public ByteBuffer encodeBinary() {
+        return Frame.of(message).newReader(WireFormat.BINARY);
+    }
+
+    @Benchmark
+    public ChatFrame decodeTextLine() {
+        return TextCodec.decode(textLine);
+    }
+
+    @Benchmark
+    public ChatFrame decodeBinaryFrame() throws IOException {
+        return BinaryCodec.decode(binaryFrame, 0, binaryFrameLength);
+    }
+
+    /** Per message: divide the score by {@value #STREAM_MESSAGES}. */
+    @Benchmark
+    public void decodeTextStream(Blackhole blackhole) throws IOException {
+        decodeStream(textStream, WireFormat.TEXT, blackhole);
+    }
+
+    /** Per message: divide the score by {@value #STREAM_MESSAGES}. */
+    @Benchmark
+    public void decodeBinaryStream(Blackhole blackhole) throws IOException {
+        decodeStream(binaryStream, WireFormat.BINARY, blackhole);
+    }
+
+    private static void decodeStream(ByteBuffer stream, WireFormat format, Blackhole blackhole) throws IOException {
+        FrameDecoder decoder = new FrameDecoder();
+        decoder.setFormat(format);
+        ByteBufferChannel source = new ByteBufferChannel(stream.duplicate());
+        while (decoder.readFrom(source) > 0) {
+            ChatFrame frame;
+            while ((frame = decoder.next()) != null) {
+                blackhole.consume(frame);
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.modern.lanchat.network;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketOption;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.spi.SelectorProvider;
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * A connected socket whose send buffer never fills: every write takes all it is given. Lets
+ * {@link ClientSession#flush()} run its real write loop without a peer or a system call.
+ */
+final class SinkSocketChannel extends SocketChannel {
+
+    SinkSocketChannel() {
+        super(SelectorProvider.provider());
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        int count = src.remaining();
+        src.position(src.limit());
+        return count;
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) {
+        long count = 0;
+        for (int i = offset; i < offset + length; i++) {
+            count += write(srcs[i]);
+        }
+        return count;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) {
+        return 0;
+    }
+
+    @Override
+    public long read(ByteBuffer[] dsts, int offset, int length) {
+        return 0;
+    }
+
+    @Override
+    public SocketChannel bind(SocketAddress local) {
+        return this;
+    }
+
+    @Override
+    public <T> SocketChannel setOption(SocketOption<T> name, T value) {
+        return this;
+    }
+
+    @Override
+    public <T> T getOption(SocketOption<T> name) {
+        return null;
+    }
+
+    @Override
+    public Set<SocketOption<?>> supportedOptions() {
+        return Collections.emptySet();
+    }
+
+    @Override
+    public SocketChannel shutdownInput() {
+        return this;
+    }
+
+    @Override
+    public SocketChannel shutdownOutput() {
+        return this;
+    }
+
+    @Override
+    public Socket socket() {
+        throw new UnsupportedOperationException("No socket behind a sink");
+    }
+
+    @Override
+    public boolean isConnected() {
+        return true;
+    }
+
+    @Override
+    public boolean isConnectionPending() {
+        return false;
+    }
+
+    @Override
+    public boolean connect(SocketAddress remote) {
+        return true;
+    }
+
+    @Override
+    public boolean finishConnect() {
+        return true;
+    }
+
+    @Override
+    public SocketAddress getRemoteAddress() {
+        return null;
+    }
+
+    @Override
+    public SocketAddress getLocalAddress() {
+        return null;
+    }
+
+    @Override
+    protected void implCloseSelectableChannel() throws IOException {
+        // Nothing to release
+    }
+
+    @Override
+    protected void implConfigureBlocking(boolean block) {
+        // Writes never block anyway
+    }
+}
@@ -0,0 +1,80 @@
+package com.modern.lanchat.loadgen;
+
+import com.modern.lanchat.metrics.MetricsRegistry;
+import com.modern.lanchat.network.ChatFrame;
+import com.modern.lanchat.network.ClientSession;
+import com.modern.lanchat.network.RelayServer;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link RelayServer} on a loopback port that relays chat the way the app's host does, minus
+ * the database: every message gets the next id and goes to everyone but its sender. What the
+ * load generator measures against it is therefore the relay alone, which is what makes runs
+ * comparable from one release to the next.
+ */
+final class EmbeddedRelay implements RelayServer.Listener {
+
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    private final AtomicLong nextId = new AtomicLong();
+    private final RelayServer relay;
+    private final Thread thread;
+
+    EmbeddedRelay() throws IOException {
+        relay = new RelayServer(RelayServer.bind(0), this);
+        relay.setMetrics(metrics);
+        relay.open();
+        thread = new Thread(relay, "embedded-relay");
+        thread.start();
+    }
+
+    int getPort() {
+        return relay.getLocalPort();
+    }
+
+    int getClientCount() {
+        return relay.getSessions().size();
+    }
+
+    long getSlowConsumersDisconnected() {
+        return relay.getSlowConsumersDisconnected();
+    }
+
+    /** The relay's own counters and histograms, e.g. its broadcast fan-out time. */
+    String metricsDump() {
+        return metrics.dump();
+    }
+
+    void close() throws InterruptedException {
+        relay.close();
+        thread.join(5000);
+    }
+
+    @Override
+    public void onClientJoined(ClientSession session) {
+        // Nothing to replay: the room has no stored history
+    }
+
+    @Override
+    public void onClientMessage(ClientSession session, ChatFrame frame) {
+        if (frame.getType() == ChatFrame.Type.CHAT) {
+            relay.broadcast(frame.withId(nextId.incrementAndGet()), session);
+        }
+    }
+
+    @Override
+    public void onClientLeft(ClientSession session) {
+        // Clients leave only when the run ends
+    }
+
+    @Override
+    public void onAcceptFailed(IOException e) {
+        System.err.println("Embedded relay dropped a connection while accepting it: " + e);
+    }
+
+    @Override
+    public void onServerError(IOException e) {
+        System.err.println("Embedded relay failed: " + e);
+    }
+}
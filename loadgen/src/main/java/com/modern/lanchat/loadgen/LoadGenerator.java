@@ -0,0 +1,202 @@
+package com.modern.lanchat.loadgen;
+
+import com.modern.lanchat.metrics.Counter;
+import com.modern.lanchat.metrics.Histogram;
+import com.modern.lanchat.metrics.MetricsRegistry;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Headless load test for the chat relay. Opens {@code --clients} simulated members in one room,
+ * has each send {@code --rate} messages a second, and measures how long every message takes to
+ * reach each of the other members. All clients live in this JVM, so send and receive times come
+ * from the same {@link System#nanoTime()} clock and need no synchronisation.
+ *
+ * <p>By default the relay under test is an {@link EmbeddedRelay} on loopback, built from the
+ * same sources as the app, so two runs on the same machine compare two versions of the relay.
+ * With {@code --host} and {@code --port} it loads a real phone instead; that result then also
+ * includes the phone's database writes and the Wi-Fi.</p>
+ *
+ * <p>Sends follow a fixed schedule per client. When the relay pushes back hard enough to block a
+ * send, later sends on that thread go out late, and their latency is measured from when they
+ * actually left, so a saturated relay shows up as a throughput shortfall as much as in the
+ * percentiles.</p>
+ *
+ * <pre>
+ * ./gradlew :loadgen:run --args="--clients 100 --rate 5 --duration 60"
+ * ./gradlew :loadgen:run --args="--host 192.168.1.20 --port 41234 --clients 20 --protocol binary"
+ * </pre>
+ */
+public final class LoadGenerator {
+
+    static final String PAYLOAD_PREFIX = "lg:"; // Then the send time in nanos, ':' and padding
+    static final int MIN_MESSAGE_SIZE = 24;     // Room for the prefix and any nanoTime value
+
+    private static final long DRAIN_MS = 2000; // After the last send, for deliveries still in flight
+
+    private final LoadOptions options;
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    private final Histogram latency = metrics.histogram("delivery_latency", "us");
+    private final Counter sent = metrics.counter("sent");
+    private final Counter delivered = metrics.counter("delivered");
+    private final Counter sendErrors = metrics.counter("send_errors");
+    private volatile long measureStartNanos = Long.MAX_VALUE;
+    private volatile long measureEndNanos = Long.MAX_VALUE;
+
+    private LoadGenerator(LoadOptions options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadOptions options;
+        try {
+            options = LoadOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.print(LoadOptions.USAGE);
+            System.exit(2);
+            return;
+        }
+        if (options.help) {
+            System.out.print(LoadOptions.USAGE);
+            return;
+        }
+        new LoadGenerator(options).run();
+    }
+
+    private void run() throws IOException, InterruptedException {
+        System.out.println("Relay load test: " + options);
+        EmbeddedRelay embedded = options.host == null ? new EmbeddedRelay() : null;
+        String host = embedded != null ? "127.0.0.1" : options.host;
+        int port = embedded != null ? embedded.getPort() : options.port;
+
+        List<SimulatedClient> clients = new ArrayList<>(options.clients);
+        ExecutorService readers = Executors.newCachedThreadPool(daemonThreads("loadgen-reader"));
+        ScheduledExecutorService senders = Executors.newScheduledThreadPool(options.senderThreads, daemonThreads("loadgen-sender"));
+        try {
+            for (int i = 0; i < options.clients; i++) {
+                SimulatedClient client = new SimulatedClient("lg-" + i, options.protocol);
+                client.connect(host, port);
+                clients.add(client);
+                readers.execute(() -> readUntilClosed(client));
+            }
+            if (embedded != null) awaitJoined(embedded);
+            System.out.println("Connected " + clients.size() + " clients to " + host + ":" + port);
+
+            long startNanos = System.nanoTime();
+            measureStartNanos = startNanos + TimeUnit.SECONDS.toNanos(options.warmupSeconds);
+            measureEndNanos = measureStartNanos + TimeUnit.SECONDS.toNanos(options.durationSeconds);
+            scheduleSends(clients, senders);
+            TimeUnit.NANOSECONDS.sleep(measureEndNanos - System.nanoTime());
+            senders.shutdownNow();
+            Thread.sleep(DRAIN_MS);
+        } finally {
+            senders.shutdownNow();
+            for (SimulatedClient client : clients) {
+                client.close();
+            }
+            readers.shutdownNow();
+            if (embedded != null) embedded.close();
+        }
+        report(embedded);
+    }
+
+    // Spreads each client's first send over one period, so the room does not send in lockstep
+    private void scheduleSends(List<SimulatedClient> clients, ScheduledExecutorService senders) {
+        long periodNanos = (long) (TimeUnit.SECONDS.toNanos(1) / options.rate);
+        Random random = new Random();
+        for (SimulatedClient client : clients) {
+            long firstDelay = (long) (random.nextDouble() * periodNanos);
+            senders.scheduleAtFixedRate(() -> sendOne(client), firstDelay, periodNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void sendOne(SimulatedClient client) {
+        long now = System.nanoTime();
+        if (now >= measureEndNanos) return;
+        try {
+            client.send(payload(now, options.size));
+            if (now >= measureStartNanos) sent.increment();
+        } catch (IOException e) {
+            sendErrors.increment();
+        }
+    }
+
+    private void readUntilClosed(SimulatedClient client) {
+        try {
+            client.read((sender, text, receivedNanos) -> {
+                long sentNanos = parseSentNanos(text);
+                if (sentNanos < measureStartNanos || sentNanos >= measureEndNanos) return; // Warm-up, or not ours
+                latency.record((receivedNanos - sentNanos) / 1000);
+                delivered.increment();
+            });
+        } catch (IOException e) {
+            // Closed at the end of the run, or dropped by the relay; the loss shows in the report
+        }
+    }
+
+    private void awaitJoined(EmbeddedRelay relay) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (relay.getClientCount() < options.clients && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(200); // Text clients join once the relay has read their name line
+    }
+
+    static String payload(long sentNanos, int size) {
+        StringBuilder text = new StringBuilder(size).append(PAYLOAD_PREFIX).append(sentNanos).append(':');
+        while (text.length() < size) {
+            text.append('x');
+        }
+        return text.toString();
+    }
+
+    /** The send time carried by a load generator message, or -1 for any other text. */
+    static long parseSentNanos(String text) {
+        if (text == null || !text.startsWith(PAYLOAD_PREFIX)) return -1;
+        int end = text.indexOf(':', PAYLOAD_PREFIX.length());
+        if (end < 0) return -1;
+        try {
+            return Long.parseLong(text.substring(PAYLOAD_PREFIX.length(), end));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private void report(EmbeddedRelay embedded) {
+        double seconds = options.durationSeconds;
+        long sentCount = sent.get();
+        long expected = sentCount * (options.clients - 1); // The relay does not echo to the sender
+        long deliveredCount = delivered.get();
+        StringBuilder out = new StringBuilder("\n");
+        out.append(String.format(Locale.US, "Sent:       %d (%.1f msg/s)%n", sentCount, sentCount / seconds));
+        out.append(String.format(Locale.US, "Delivered:  %d of %d expected (%.1f msg/s), missing %d%n",
+                deliveredCount, expected, deliveredCount / seconds, Math.max(0, expected - deliveredCount)));
+        if (sendErrors.get() > 0) out.append("Send errors: ").append(sendErrors.get()).append('\n');
+        out.append(String.format(Locale.US, "Latency:    p50=%d p99=%d p999=%d max=%d mean=%.0f us%n",
+                latency.getValueAtPercentile(50), latency.getValueAtPercentile(99),
+                latency.getValueAtPercentile(99.9), latency.getMax(), latency.getMean()));
+        if (embedded != null) {
+            out.append("Slow clients disconnected: ").append(embedded.getSlowConsumersDisconnected()).append('\n');
+            out.append("\nRelay metrics:\n").append(embedded.metricsDump());
+        }
+        System.out.print(out);
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,101 @@
+package com.modern.lanchat.loadgen;
+
+import com.modern.lanchat.network.WireFormat;
+
+import java.util.Locale;
+
+/** Command line settings for {@link LoadGenerator}; see {@link #USAGE}. */
+final class LoadOptions {
+
+    static final String USAGE = "Usage: loadgen [options]\n"
+            + "  --host HOST        Relay to load, e.g. a phone hosting a room; default: an embedded relay on loopback\n"
+            + "  --port PORT        Port of --host, as the host shows when the room opens; ignored without --host\n"
+            + "  --clients N        Simulated clients, all in the same room (default 10)\n"
+            + "  --rate R           Messages per second sent by each client (default 1)\n"
+            + "  --size BYTES       Length of each message text (default 64)\n"
+            + "  --warmup SECONDS   Traffic before measuring starts (default 5)\n"
+            + "  --duration SECONDS Measured traffic (default 30)\n"
+            + "  --protocol P       text (CLIENT_NAME:/SENDER:MESSAGE lines), binary, or deflate (binary with\n"
+            + "                     messages of 512 bytes and up compressed) (default text)\n"
+            + "  --senders N        Threads driving the send schedule (default 4)\n";
+
+    String host = null; // Null: start an embedded relay
+    int port = 0;
+    int clients = 10;
+    double rate = 1;
+    int size = 64;
+    int warmupSeconds = 5;
+    int durationSeconds = 30;
+    WireFormat protocol = WireFormat.TEXT;
+    int senderThreads = 4;
+    boolean help = false;
+
+    /** @throws IllegalArgumentException with a message for the user if an option is unknown or out of range. */
+    static LoadOptions parse(String[] args) {
+        LoadOptions options = new LoadOptions();
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (option.equals("--help") || option.equals("-h")) {
+                options.help = true;
+                continue;
+            }
+            if (i + 1 >= args.length) throw new IllegalArgumentException("Missing value for " + option);
+            String value = args[++i];
+            switch (option) {
+                case "--host": options.host = value; break;
+                case "--port": options.port = parseInt(option, value, 1, 65535); break;
+                case "--clients": options.clients = parseInt(option, value, 2, 100_000); break;
+                case "--rate": options.rate = parseRate(value); break;
+                case "--size": options.size = parseInt(option, value, LoadGenerator.MIN_MESSAGE_SIZE, 200_000); break;
+                case "--warmup": options.warmupSeconds = parseInt(option, value, 0, 3600); break;
+                case "--duration": options.durationSeconds = parseInt(option, value, 1, 24 * 3600); break;
+                case "--protocol": options.protocol = parseProtocol(value); break;
+                case "--senders": options.senderThreads = parseInt(option, value, 1, 256); break;
+                default: throw new IllegalArgumentException("Unknown option " + option);
+            }
+        }
+        if (options.host != null && options.port == 0) {
+            throw new IllegalArgumentException("--host needs --port");
+        }
+        return options;
+    }
+
+    private static int parseInt(String option, String value, int min, int max) {
+        int parsed;
+        try {
+            parsed = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(option + " expects a number, got " + value);
+        }
+        if (parsed < min || parsed > max) {
+            throw new IllegalArgumentException(option + " must be between " + min + " and " + max);
+        }
+        return parsed;
+    }
+
+    private static double parseRate(String value) {
+        try {
+            double rate = Double.parseDouble(value);
+            if (rate > 0 && rate <= 10_000) return rate;
+        } catch (NumberFormatException ignored) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("--rate must be a number above 0 and at most 10000");
+    }
+
+    private static WireFormat parseProtocol(String value) {
+        switch (value.toLowerCase(Locale.US)) {
+            case "text": return WireFormat.TEXT;
+            case "binary": return WireFormat.BINARY;
+            case "deflate": return WireFormat.BINARY_DEFLATE;
+            default: throw new IllegalArgumentException("--protocol must be text, binary or deflate");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%d %s clients, %.1f msg/s each, %d-byte messages, %d s measured after %d s warm-up, %s",
+                clients, protocol.name().toLowerCase(Locale.US), rate, size, durationSeconds, warmupSeconds,
+                host != null ? "relay at " + host + ":" + port : "embedded relay");
+    }
+}
@@ -0,0 +1,114 @@
+package com.modern.lanchat.loadgen;
+
+import com.modern.lanchat.network.ChatClient;
+import com.modern.lanchat.network.ChatFrame;
+import com.modern.lanchat.network.ChatProtocol;
+import com.modern.lanchat.network.WireFormat;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * One room member. In text mode it talks like the oldest app builds, over a plain socket:
+ * a {@code CLIENT_NAME:} line, then {@code SENDER:MESSAGE} lines each way. In the binary modes it
+ * uses {@link ChatClient}, as current builds do, offering compression or not. {@link #read}
+ * blocks its thread delivering chat messages; {@link #send} may be called from any other thread.
+ */
+final class SimulatedClient {
+
+    interface Listener {
+        /** A chat line from the room; {@code receivedNanos} is the {@link System#nanoTime()} it was read at. */
+        void onChat(String sender, String text, long receivedNanos);
+    }
+
+    private static final int CONNECT_TIMEOUT_MS = 10_000;
+
+    private final String name;
+    private final WireFormat protocol;
+    private Socket socket;       // Text mode
+    private OutputStream out;    // Text mode, guarded by itself
+    private ChatClient client;   // Binary modes
+
+    SimulatedClient(String name, WireFormat protocol) {
+        this.name = name;
+        this.protocol = protocol;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    void connect(String host, int port) throws IOException {
+        if (protocol.isBinary()) {
+            int version = protocol == WireFormat.BINARY_DEFLATE
+                    ? ChatProtocol.PROTOCOL_VERSION_DEFLATE : ChatProtocol.PROTOCOL_VERSION_BINARY;
+            client = ChatClient.connect(host, port, name, 0, version);
+            if (client.getWireFormat() != protocol) {
+                client.close();
+                throw new IOException("Relay at " + host + ":" + port + " does not speak the "
+                        + protocol.name().toLowerCase(Locale.US) + " protocol");
+            }
+            return;
+        }
+        socket = new Socket();
+        socket.setTcpNoDelay(true);
+        socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MS);
+        out = socket.getOutputStream();
+        writeLine(ChatProtocol.CLIENT_NAME_PREFIX + name);
+    }
+
+    void send(String text) throws IOException {
+        if (client != null) {
+            client.send(ChatFrame.chat(name, text));
+        } else {
+            writeLine(name + ChatProtocol.MSG_DELIMITER + text);
+        }
+    }
+
+    private void writeLine(String line) throws IOException {
+        byte[] bytes = (line + "\n").getBytes(StandardCharsets.UTF_8);
+        synchronized (out) {
+            out.write(bytes);
+            out.flush();
+        }
+    }
+
+    /** Reads until the connection closes. */
+    void read(Listener listener) throws IOException {
+        if (client != null) {
+            client.run(frame -> {
+                if (frame.getType() == ChatFrame.Type.CHAT) {
+                    listener.onChat(frame.getSender(), frame.getText(), System.nanoTime());
+                }
+            });
+            return;
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            long receivedNanos = System.nanoTime();
+            int colon = line.indexOf(ChatProtocol.MSG_DELIMITER);
+            if (colon > 0) {
+                listener.onChat(line.substring(0, colon), line.substring(colon + 1), receivedNanos);
+            }
+        }
+    }
+
+    void close() {
+        if (client != null) {
+            client.close();
+            return;
+        }
+        try {
+            if (socket != null) socket.close();
+        } catch (IOException ignored) {
+            // Already closed
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.modern.lanchat.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/** A running total, such as frames or bytes relayed. Cheap to bump from any thread. */
+public final class Counter {
+
+    private final LongAdder total = new LongAdder();
+
+    Counter() {
+    }
+
+    public void increment() {
+        total.increment();
+    }
+
+    public void add(long amount) {
+        total.add(amount);
+    }
+
+    public long get() {
+        return total.sum();
+    }
+}
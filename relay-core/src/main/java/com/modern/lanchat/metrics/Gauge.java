@@ -0,0 +1,6 @@
+package com.modern.lanchat.metrics;
+
+/** A value read when metrics are dumped, such as the number of connected clients. */
+public interface Gauge {
+    long read();
+}
@@ -0,0 +1,109 @@
+package com.modern.lanchat.metrics;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Distribution of non-negative values, laid out like HdrHistogram: values below 128 are counted
+ * exactly, and every power of two above that is split into 64 equal buckets. Any recorded value
+ * is therefore off by less than 1/64 (about 1.6%), while the whole range up to about 2^37 fits
+ * in a fixed array of 2,048 counters. Recording is lock-free and never allocates.
+ */
+public final class Histogram {
+
+    private static final int LINEAR_LIMIT = 128;                 // Values below this are exact
+    private static final int SUB_BUCKETS = 64;                   // Buckets per power of two above it
+    private static final int SHIFT_OFFSET = 6;                   // log2(SUB_BUCKETS)
+    private static final int MAX_SHIFT = 30;
+    private static final long MAX_TRACKABLE = ((long) 2 * SUB_BUCKETS << MAX_SHIFT) - 1; // Larger values are clamped
+    private static final int BUCKETS = LINEAR_LIMIT + MAX_SHIFT * SUB_BUCKETS;
+
+    private final String unit;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    Histogram(String unit) {
+        this.unit = unit;
+    }
+
+    public String getUnit() {
+        return unit;
+    }
+
+    public void record(long value) {
+        long v = Math.max(0, Math.min(value, MAX_TRACKABLE));
+        counts.incrementAndGet(indexOf(v));
+        count.incrementAndGet();
+        sum.addAndGet(v);
+        long seen;
+        while (v > (seen = max.get()) && !max.compareAndSet(seen, v)) {
+            // Another thread raised the max meanwhile; try again against its value
+        }
+    }
+
+    /** Records the time since {@code startNanos}, a {@link System#nanoTime()} reading, in microseconds. */
+    public void recordMicrosSince(long startNanos) {
+        record((System.nanoTime() - startNanos) / 1000);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    /**
+     * The value at or below which {@code percentile} percent of recordings fall, reported as the
+     * highest value its bucket can hold. 0 if nothing has been recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long total = count.get();
+        if (total == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) return Math.min(highestValueIn(i), max.get());
+        }
+        return max.get(); // Recordings landed while we were scanning
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "n=%d p50=%d p99=%d p999=%d max=%d %s",
+                getCount(), getValueAtPercentile(50), getValueAtPercentile(99),
+                getValueAtPercentile(99.9), getMax(), unit);
+    }
+
+    static int indexOf(long value) {
+        if (value < LINEAR_LIMIT) return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SHIFT_OFFSET; // >= 1
+        return LINEAR_LIMIT + (shift - 1) * SUB_BUCKETS + (int) ((value >> shift) - SUB_BUCKETS);
+    }
+
+    static long highestValueIn(int index) {
+        if (index < LINEAR_LIMIT) return index;
+        int shift = (index - LINEAR_LIMIT) / SUB_BUCKETS + 1;
+        long subBucket = (index - LINEAR_LIMIT) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
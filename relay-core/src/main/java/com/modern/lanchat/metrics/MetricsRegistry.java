@@ -0,0 +1,69 @@
+package com.modern.lanchat.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Named counters, gauges and histograms for one room. Components look their instruments up
+ * once, when they are wired together, and then update them directly, so the hot paths never
+ * touch this map. {@link #dump()} renders everything as text, with each counter's rate since
+ * the previous dump, for a stats screen that refreshes itself.
+ */
+public class MetricsRegistry {
+
+    private final Map<String, Counter> counters = new LinkedHashMap<>();
+    private final Map<String, Gauge> gauges = new LinkedHashMap<>();
+    private final Map<String, Histogram> histograms = new LinkedHashMap<>();
+
+    private final Map<String, Long> lastTotals = new LinkedHashMap<>();
+    private long lastDumpNanos = System.nanoTime();
+
+    /** The counter called {@code name}, created on first use. */
+    public synchronized Counter counter(String name) {
+        Counter counter = counters.get(name);
+        if (counter == null) {
+            counter = new Counter();
+            counters.put(name, counter);
+        }
+        return counter;
+    }
+
+    /** The histogram called {@code name}, created on first use with values measured in {@code unit}. */
+    public synchronized Histogram histogram(String name, String unit) {
+        Histogram histogram = histograms.get(name);
+        if (histogram == null) {
+            histogram = new Histogram(unit);
+            histograms.put(name, histogram);
+        }
+        return histogram;
+    }
+
+    /** Registers {@code gauge} under {@code name}, replacing any earlier one. */
+    public synchronized void gauge(String name, Gauge gauge) {
+        gauges.put(name, gauge);
+    }
+
+    /** Everything as one line per metric; counters show their total and their rate since the last dump. */
+    public synchronized String dump() {
+        long now = System.nanoTime();
+        double seconds = Math.max(1e-3, (now - lastDumpNanos) / 1e9);
+        lastDumpNanos = now;
+
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            long total = entry.getValue().get();
+            Long last = lastTotals.put(entry.getKey(), total);
+            double rate = (total - (last != null ? last : 0)) / seconds;
+            out.append(entry.getKey()).append(": ").append(total)
+                    .append(String.format(Locale.US, " (%.1f/s)", rate)).append('\n');
+        }
+        for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+            out.append(entry.getKey()).append(": ").append(entry.getValue().read()).append('\n');
+        }
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            out.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+        }
+        return out.toString();
+    }
+}
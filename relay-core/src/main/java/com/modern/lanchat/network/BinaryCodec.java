@@ -0,0 +1,358 @@
+package com.modern.lanchat.network;
+
+import java.io.ByteArrayOutputStream;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Length-prefixed binary framing negotiated with {@link ChatProtocol#PROTOCOL_VERSION_BINARY}.
+ *
+ * <pre>
+ * frame := varint(bodyLength) body
+ * body  := typeByte field*
+ * field := varint(byteLength) utf8Bytes | varint(number)
+ * </pre>
+ *
+ * Field order and kind are fixed per type (see {@link #encode}). Because every field carries its own
+ * length, messages may contain newlines and names may contain colons. Unknown type bytes are
+ * skipped so newer peers can add frame types without breaking older ones, and decoders ignore
+ * bytes after the fields they know, so a type can grow optional trailing fields the same way:
+ * a traced chat message carries its {@link TraceStamps} after the text.
+ *
+ * <p>On {@link WireFormat#BINARY_DEFLATE} connections a run of frames may also travel packed
+ * into one compressed block, {@code typeByte varint(inflatedLength) deflateBytes}, which unpacks
+ * into ordinary frames. Each block is compressed on its own rather than continuing a
+ * per-connection stream, so the host compresses a broadcast or a history page once and every
+ * recipient shares the result.</p>
+ */
+final class BinaryCodec {
+
+    static final int MAX_FRAME_BYTES = 256 * 1024;
+    /** Frames shorter than this go out as they are; live chat lines rarely reach it, history pages do. */
+    static final int DEFLATE_THRESHOLD_BYTES = 512;
+    static final int MAX_INFLATED_BYTES = 4 * 1024 * 1024;
+
+    private static final byte TYPE_CHAT = 1;
+    private static final byte TYPE_HISTORY = 2;
+    private static final byte TYPE_HISTORY_END = 3;
+    private static final byte TYPE_ROOM_CLOSED = 4;
+    private static final byte TYPE_HISTORY_REQUEST = 5;
+    private static final byte TYPE_HISTORY_AFTER_REQUEST = 6;
+    private static final byte TYPE_TRACE_MODE = 7;
+    private static final byte TYPE_TRACE_SYNC = 8;
+    private static final byte TYPE_TRACE_REPORT = 9;
+    private static final byte TYPE_DEFLATE = 10;
+
+    private BinaryCodec() {}
+
+    /** Appends the encoded frame to {@code out}. Handshake frames always travel as text. */
+    static void encode(ChatFrame frame, ByteArrayOutputStream out) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(64);
+        switch (frame.getType()) {
+            case CHAT:
+                body.write(TYPE_CHAT);
+                writeVarLong(body, frame.getId());
+                writeString(body, frame.getSender());
+                writeString(body, frame.getText());
+                if (frame.getTrace() != null) {
+                    writeStamps(body, frame.getTrace(), 3); // Sent, host received, host relayed
+                }
+                break;
+            case HISTORY:
+                body.write(TYPE_HISTORY);
+                writeVarLong(body, frame.getId());
+                writeString(body, frame.getSender());
+                writeVarLong(body, frame.getTimestamp());
+                writeString(body, frame.getText());
+                break;
+            case HISTORY_END:
+                body.write(TYPE_HISTORY_END);
+                writeVarLong(body, frame.hasMore() ? 1 : 0);
+                break;
+            case HISTORY_REQUEST:
+                body.write(TYPE_HISTORY_REQUEST);
+                writeVarLong(body, frame.getId());
+                writeVarLong(body, frame.getLimit());
+                break;
+            case HISTORY_AFTER_REQUEST:
+                body.write(TYPE_HISTORY_AFTER_REQUEST);
+                writeVarLong(body, frame.getId());
+                writeVarLong(body, frame.getLimit());
+                break;
+            case ROOM_CLOSED:
+                body.write(TYPE_ROOM_CLOSED);
+                break;
+            case TRACE_MODE:
+                body.write(TYPE_TRACE_MODE);
+                writeVarLong(body, frame.isTraceEnabled() ? 1 : 0);
+                break;
+            case TRACE_SYNC:
+                body.write(TYPE_TRACE_SYNC);
+                writeStamps(body, frame.getTrace(), 3);
+                break;
+            case TRACE_REPORT:
+                body.write(TYPE_TRACE_REPORT);
+                writeVarLong(body, frame.getId());
+                writeStamps(body, frame.getTrace(), 5);
+                break;
+            default:
+                throw new IllegalArgumentException("Not a binary frame type: " + frame.getType());
+        }
+        byte[] bodyBytes = body.toByteArray();
+        writeVarint(out, bodyBytes.length);
+        out.write(bodyBytes, 0, bodyBytes.length);
+    }
+
+    /**
+     * Length of the complete frame starting at {@code pos}, header included, or -1 if
+     * {@code [pos, end)} does not hold all of it yet.
+     */
+    static int frameLength(ByteBuffer buffer, int pos, int end) throws ProtocolException {
+        int bodyLength = 0;
+        int shift = 0;
+        int i = pos;
+        while (true) {
+            if (i >= end) return -1;
+            byte b = buffer.get(i++);
+            bodyLength |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) break;
+            shift += 7;
+            if (shift > 28) throw new ProtocolException("Malformed frame length");
+        }
+        if (bodyLength <= 0 || bodyLength > MAX_FRAME_BYTES) {
+            throw new ProtocolException("Frame length out of range: " + bodyLength);
+        }
+        int total = (i - pos) + bodyLength;
+        return end - pos >= total ? total : -1;
+    }
+
+    /**
+     * Decodes the complete frame of {@code length} bytes at {@code pos}, as measured by
+     * {@link #frameLength}. Returns null for a frame type this version does not know.
+     */
+    static ChatFrame decode(ByteBuffer buffer, int pos, int length) throws ProtocolException {
+        Reader reader = new Reader(buffer, pos, pos + length);
+        reader.readVarint(); // Body length, already validated
+        byte type = reader.readByte();
+        switch (type) {
+            case TYPE_CHAT: {
+                long id = reader.readVarLong();
+                String sender = reader.readString();
+                ChatFrame chat = ChatFrame.chat(sender, reader.readString()).withId(id);
+                return reader.hasRemaining() ? chat.withTrace(reader.readStamps(3)) : chat;
+            }
+            case TYPE_HISTORY: {
+                long id = reader.readVarLong();
+                String sender = reader.readString();
+                long timestamp = reader.readVarLong();
+                return ChatFrame.history(id, sender, timestamp, reader.readString());
+            }
+            case TYPE_HISTORY_END:
+                return ChatFrame.historyEnd(reader.readVarLong() != 0);
+            case TYPE_HISTORY_REQUEST: {
+                long beforeId = reader.readVarLong();
+                return ChatFrame.historyRequest(beforeId, (int) Math.min(reader.readVarLong(), Integer.MAX_VALUE));
+            }
+            case TYPE_HISTORY_AFTER_REQUEST: {
+                long afterId = reader.readVarLong();
+                return ChatFrame.historyAfterRequest(afterId, (int) Math.min(reader.readVarLong(), Integer.MAX_VALUE));
+            }
+            case TYPE_ROOM_CLOSED:
+                return ChatFrame.roomClosed();
+            case TYPE_TRACE_MODE:
+                return ChatFrame.traceMode(reader.readVarLong() != 0);
+            case TYPE_TRACE_SYNC:
+                return ChatFrame.traceSync(reader.readStamps(3));
+            case TYPE_TRACE_REPORT: {
+                long messageId = reader.readVarLong();
+                return ChatFrame.traceReport(messageId, reader.readStamps(5));
+            }
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Packs {@code frames}, one or more encoded frames, into a single compressed block.
+     * Returns null when the block would be no smaller than the frames, or too large to send.
+     */
+    static byte[] deflate(ByteBuffer frames) {
+        int inflatedLength = frames.remaining();
+        if (inflatedLength > MAX_INFLATED_BYTES) return null;
+        byte[] input = new byte[inflatedLength];
+        frames.duplicate().get(input);
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream(inflatedLength / 2 + 16);
+        body.write(TYPE_DEFLATE);
+        writeVarint(body, inflatedLength);
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(input);
+            deflater.finish();
+            byte[] chunk = new byte[4096];
+            while (!deflater.finished()) {
+                int count = deflater.deflate(chunk);
+                body.write(chunk, 0, count);
+                if (body.size() >= inflatedLength || body.size() > MAX_FRAME_BYTES) return null;
+            }
+        } finally {
+            deflater.end();
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.size() + 4);
+        writeVarint(out, body.size());
+        byte[] bodyBytes = body.toByteArray();
+        out.write(bodyBytes, 0, bodyBytes.length);
+        return out.size() < inflatedLength ? out.toByteArray() : null;
+    }
+
+    /**
+     * Unpacks the complete frame of {@code length} bytes at {@code pos} if it is a compressed
+     * block, returning the frames it holds; returns null for any other frame.
+     */
+    static ByteBuffer inflate(ByteBuffer buffer, int pos, int length) throws ProtocolException {
+        Reader reader = new Reader(buffer, pos, pos + length);
+        reader.readVarint(); // Body length, already validated
+        if (reader.readByte() != TYPE_DEFLATE) return null;
+        int inflatedLength = reader.readVarint();
+        if (inflatedLength <= 0 || inflatedLength > MAX_INFLATED_BYTES) {
+            throw new ProtocolException("Compressed block length out of range: " + inflatedLength);
+        }
+        byte[] input = reader.readRemaining();
+        byte[] output = new byte[inflatedLength + 1]; // One spare byte to notice a block that inflates too far
+        int produced = 0;
+        boolean complete;
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(input);
+            while (!inflater.finished() && produced < output.length) {
+                int count = inflater.inflate(output, produced, output.length - produced);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                produced += count;
+            }
+            complete = inflater.finished();
+        } catch (DataFormatException e) {
+            throw new ProtocolException("Corrupt compressed block");
+        } finally {
+            inflater.end();
+        }
+        if (!complete || produced != inflatedLength) {
+            throw new ProtocolException("Compressed block inflates to " + produced + " bytes, not " + inflatedLength);
+        }
+        return ByteBuffer.wrap(output, 0, produced);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    // The first count stamps in TraceStamps order; a stamp not taken yet goes out as 0
+    private static void writeStamps(ByteArrayOutputStream out, TraceStamps stamps, int count) {
+        long[] values = {stamps.getSentMicros(), stamps.getHostReceivedMicros(), stamps.getHostRelayedMicros(),
+                stamps.getReceivedMicros(), stamps.getRenderedMicros()};
+        for (int i = 0; i < count; i++) {
+            writeVarLong(out, Math.max(0, values[i]));
+        }
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        byte[] bytes = (value != null ? value : "").getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    // Reads fields straight out of the receive buffer using absolute offsets
+    private static final class Reader {
+        private final ByteBuffer buffer;
+        private final int end;
+        private int pos;
+
+        Reader(ByteBuffer buffer, int pos, int end) {
+            this.buffer = buffer;
+            this.pos = pos;
+            this.end = end;
+        }
+
+        boolean hasRemaining() {
+            return pos < end;
+        }
+
+        byte readByte() throws ProtocolException {
+            if (pos >= end) throw new ProtocolException("Truncated frame");
+            return buffer.get(pos++);
+        }
+
+        int readVarint() throws ProtocolException {
+            int value = 0;
+            int shift = 0;
+            while (true) {
+                byte b = readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return value;
+                shift += 7;
+                if (shift > 28) throw new ProtocolException("Malformed varint");
+            }
+        }
+
+        long readVarLong() throws ProtocolException {
+            long value = 0;
+            int shift = 0;
+            while (true) {
+                byte b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return value;
+                shift += 7;
+                if (shift > 63) throw new ProtocolException("Malformed varint");
+            }
+        }
+
+        byte[] readRemaining() {
+            byte[] bytes = new byte[end - pos];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = buffer.get(pos + i);
+            }
+            pos = end;
+            return bytes;
+        }
+
+        TraceStamps readStamps(int count) throws ProtocolException {
+            long[] values = new long[5];
+            for (int i = 0; i < count; i++) {
+                values[i] = readVarLong();
+            }
+            return new TraceStamps(values[0], values[1], values[2], values[3], values[4]);
+        }
+
+        String readString() throws ProtocolException {
+            int length = readVarint();
+            if (length < 0 || length > end - pos) throw new ProtocolException("Field overruns frame");
+            String value;
+            if (buffer.hasArray()) {
+                value = new String(buffer.array(), buffer.arrayOffset() + pos, length, StandardCharsets.UTF_8);
+            } else {
+                byte[] bytes = new byte[length];
+                for (int i = 0; i < length; i++) {
+                    bytes[i] = buffer.get(pos + i);
+                }
+                value = new String(bytes, StandardCharsets.UTF_8);
+            }
+            pos += length;
+            return value;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.modern.lanchat.network;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+
+/**
+ * Client side of a room connection. Opens a blocking channel, offers the binary protocol in a
+ * versioned hello and falls back to the text protocol if the host answers like an older build.
+ * {@link #run} blocks its thread delivering frames; {@link #send} may be called from any other.
+ *
+ * <p>For latency tracing the client also keeps a {@link ClockOffset} to the host: replies to
+ * {@link #requestClockSync()} are consumed by {@link #run} and never reach the listener, and
+ * {@link #hostMicros()} reads the host's clock from then on.</p>
+ */
+public class ChatClient {
+
+    public interface Listener {
+        /** A frame from the host. Called on the thread running {@link #run}. */
+        void onFrame(ChatFrame frame);
+    }
+
+    private static final int CONNECT_TIMEOUT_MS = 5_000;
+    private static final int HANDSHAKE_TIMEOUT_MS = 10_000; // A host that accepts but never answers
+
+    private final SocketChannel channel;
+    private final FrameDecoder decoder = new FrameDecoder();
+    private volatile WireFormat format = WireFormat.TEXT;
+    private ChatFrame pendingFirstFrame; // An old host's first line, delivered once run() starts
+    private final ClockOffset clockOffset = new ClockOffset();
+
+    private ChatClient(SocketChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Connects and performs the hello exchange. Blocks until the host has answered, for at most
+     * {@code CONNECT_TIMEOUT_MS} to connect and {@code HANDSHAKE_TIMEOUT_MS} for the answer.
+     * @param lastSeenId newest host message id already shown, so the host only sends the gap; 0 on first join.
+     * @throws IOException if the host cannot be reached, closes or times out before answering.
+     */
+    public static ChatClient connect(String host, int port, String userName, long lastSeenId) throws IOException {
+        return connect(host, port, userName, lastSeenId, ChatProtocol.PROTOCOL_VERSION);
+    }
+
+    /**
+     * Like {@link #connect(String, int, String, long)}, but offers at most {@code maxVersion},
+     * e.g. {@link ChatProtocol#PROTOCOL_VERSION_BINARY} to compare against a compressing connection.
+     */
+    public static ChatClient connect(String host, int port, String userName, long lastSeenId, int maxVersion)
+            throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        ChatClient client = new ChatClient(channel);
+        try {
+            Socket socket = channel.socket();
+            socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MS);
+            socket.setTcpNoDelay(true);
+            client.handshake(userName, lastSeenId, maxVersion);
+        } catch (IOException e) {
+            client.close();
+            throw e;
+        }
+        return client;
+    }
+
+    private void handshake(String userName, long lastSeenId, int maxVersion) throws IOException {
+        writeFully(Frame.of(ChatFrame.hello(maxVersion, userName, lastSeenId)), WireFormat.TEXT);
+        // Channel reads ignore SO_TIMEOUT, the socket's stream does not: read the answer through it
+        Socket socket = channel.socket();
+        socket.setSoTimeout(HANDSHAKE_TIMEOUT_MS);
+        ChatFrame first = readFrame(Channels.newChannel(socket.getInputStream())); // Throws SocketTimeoutException
+        socket.setSoTimeout(0);
+        if (first == null) {
+            throw new IOException("Host closed the connection during handshake");
+        }
+        if (first.getType() == ChatFrame.Type.HELLO_ACK && first.getVersion() >= ChatProtocol.PROTOCOL_VERSION_BINARY) {
+            // The host acks the lower of our two versions, so it only compresses if we offered to
+            format = first.getVersion() >= ChatProtocol.PROTOCOL_VERSION_DEFLATE ? WireFormat.BINARY_DEFLATE : WireFormat.BINARY;
+            decoder.setFormat(format);
+        } else {
+            // Host predates the hello: it named us after our IP and is already talking text
+            pendingFirstFrame = first;
+        }
+    }
+
+    public WireFormat getWireFormat() {
+        return format;
+    }
+
+    /** Reads frames until the host closes the connection or {@link #close()} is called. */
+    public void run(Listener listener) throws IOException {
+        if (pendingFirstFrame != null) {
+            ChatFrame first = pendingFirstFrame;
+            pendingFirstFrame = null;
+            listener.onFrame(first);
+        }
+        ChatFrame frame;
+        while ((frame = readFrame(channel)) != null) {
+            if (frame.getType() == ChatFrame.Type.TRACE_SYNC) {
+                clockOffset.onReply(frame.getTrace(), TraceClock.nowMicros());
+                continue;
+            }
+            listener.onFrame(frame);
+        }
+    }
+
+    private ChatFrame readFrame(ReadableByteChannel source) throws IOException {
+        ChatFrame frame;
+        while ((frame = decoder.next()) == null) {
+            if (decoder.readFrom(source) < 0) {
+                return null;
+            }
+        }
+        return frame;
+    }
+
+    /** Sends one message, blocking until it is handed to the socket. */
+    public void send(ChatFrame message) throws IOException {
+        writeFully(Frame.of(message), format);
+    }
+
+    /** Sends several messages in one write, e.g. a batch of trace reports; compressed if the host agreed to it. */
+    public void send(List<ChatFrame> messages) throws IOException {
+        if (messages.isEmpty()) return;
+        writeFully(Frame.of(messages), format);
+    }
+
+    private void writeFully(Frame frame, WireFormat wireFormat) throws IOException {
+        ByteBuffer buffer = frame.newReader(wireFormat);
+        synchronized (channel) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * Sends one clock sync request; the host's answer refines {@link #hostMicros()} once it
+     * arrives. Needs the binary protocol. Each call is a fresh sample, and the best one is kept.
+     */
+    public void requestClockSync() throws IOException {
+        send(ChatFrame.traceSync(TraceStamps.sent(TraceClock.nowMicros())));
+    }
+
+    /** The host's {@link TraceClock} as best we know it; our own until a sync reply has arrived. */
+    public long hostMicros() {
+        return TraceClock.nowMicros() + clockOffset.getOffsetMicros();
+    }
+
+    /** Round trip of the clock sync sample in use, or -1 if none has arrived. */
+    public long getClockSyncRoundTripMicros() {
+        return clockOffset.getRoundTripMicros();
+    }
+
+    public boolean isConnected() {
+        return channel.isOpen() && channel.isConnected();
+    }
+
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // Already closed
+        }
+    }
+}
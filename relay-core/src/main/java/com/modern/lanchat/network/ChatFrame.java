@@ -0,0 +1,161 @@
+package com.modern.lanchat.network;
+
+/**
+ * One decoded protocol message, independent of whether it travelled as a text line or as a
+ * binary frame. Instances are immutable and safe to hand between threads.
+ */
+public final class ChatFrame {
+
+    public enum Type {
+        HELLO,        // Client introduces itself: name, highest protocol version, last message id it saw
+        HELLO_ACK,    // Host accepts the binary protocol
+        CHAT,         // A live message, including SYSTEM notices
+        HISTORY,         // One stored message replayed to a client
+        HISTORY_END,     // End of a block of history
+        HISTORY_REQUEST, // Client asks for an older page (binary protocol only)
+        HISTORY_AFTER_REQUEST, // Client asks for a newer page after dropping it from its window (binary only)
+        ROOM_CLOSED,     // Host is shutting the room down
+        TRACE_MODE,      // Host turns latency tracing on or off (binary only)
+        TRACE_SYNC,      // Clock sync round trip: client asks, host answers with its stamps (binary only)
+        TRACE_REPORT     // Client reports the stamps of a traced message it showed (binary only)
+    }
+
+    private final Type type;
+    private final String sender;
+    private final String text;
+    private final long timestamp;
+    private final int version;
+    private final long id;
+    private final int limit;
+    private final boolean hasMore;
+    private final TraceStamps trace;
+
+    private ChatFrame(Type type, String sender, String text, long timestamp, int version,
+                      long id, int limit, boolean hasMore, TraceStamps trace) {
+        this.type = type;
+        this.sender = sender;
+        this.text = text;
+        this.timestamp = timestamp;
+        this.version = version;
+        this.id = id;
+        this.limit = limit;
+        this.hasMore = hasMore;
+        this.trace = trace;
+    }
+
+    private ChatFrame(Type type, String sender, String text, long timestamp, int version,
+                      long id, int limit, boolean hasMore) {
+        this(type, sender, text, timestamp, version, id, limit, hasMore, null);
+    }
+
+    private ChatFrame(Type type, String sender, String text, long timestamp, int version) {
+        this(type, sender, text, timestamp, version, 0, 0, false);
+    }
+
+    /** {@code lastSeenId} is the newest host message id the client already shows, 0 on first join. */
+    public static ChatFrame hello(int version, String name, long lastSeenId) {
+        return new ChatFrame(Type.HELLO, name, null, 0, version, lastSeenId, 0, false);
+    }
+
+    public static ChatFrame helloAck(int version) {
+        return new ChatFrame(Type.HELLO_ACK, null, null, 0, version);
+    }
+
+    public static ChatFrame chat(String sender, String text) {
+        return new ChatFrame(Type.CHAT, sender, text, 0, 0);
+    }
+
+    /** The same chat message stamped with the sequence id the host assigned to it. */
+    public ChatFrame withId(long messageId) {
+        return new ChatFrame(type, sender, text, timestamp, version, messageId, limit, hasMore, trace);
+    }
+
+    /** The same message carrying latency trace stamps; only the binary protocol transmits them. */
+    public ChatFrame withTrace(TraceStamps stamps) {
+        return new ChatFrame(type, sender, text, timestamp, version, id, limit, hasMore, stamps);
+    }
+
+    public static ChatFrame system(String text) {
+        return chat(ChatProtocol.SENDER_SYSTEM, text);
+    }
+
+    /** A stored message; {@code id} is the host's message id, 0 when the peer did not send one. */
+    public static ChatFrame history(long id, String sender, long timestamp, String text) {
+        return new ChatFrame(Type.HISTORY, sender, text, timestamp, 0, id, 0, false);
+    }
+
+    /** Closes a block of history; {@code hasMore} tells the client older pages can be requested. */
+    public static ChatFrame historyEnd(boolean hasMore) {
+        return new ChatFrame(Type.HISTORY_END, null, null, 0, 0, 0, 0, hasMore);
+    }
+
+    /** Asks for up to {@code limit} messages older than {@code beforeId}. */
+    public static ChatFrame historyRequest(long beforeId, int limit) {
+        return new ChatFrame(Type.HISTORY_REQUEST, null, null, 0, 0, beforeId, limit, false);
+    }
+
+    /** Asks for up to {@code limit} messages newer than {@code afterId}. */
+    public static ChatFrame historyAfterRequest(long afterId, int limit) {
+        return new ChatFrame(Type.HISTORY_AFTER_REQUEST, null, null, 0, 0, afterId, limit, false);
+    }
+
+    public static ChatFrame roomClosed() {
+        return new ChatFrame(Type.ROOM_CLOSED, null, null, 0, 0);
+    }
+
+    /** Tells a client to stamp the messages it sends and report the ones it shows, or to stop. */
+    public static ChatFrame traceMode(boolean enabled) {
+        return new ChatFrame(Type.TRACE_MODE, null, null, 0, 0, 0, 0, enabled);
+    }
+
+    /** One half of a clock sync round trip; see {@link ClockOffset} for which stamps are set. */
+    public static ChatFrame traceSync(TraceStamps stamps) {
+        return new ChatFrame(Type.TRACE_SYNC, null, null, 0, 0, 0, 0, false, stamps);
+    }
+
+    /** The full stamps of traced message {@code messageId}, as the reporting client showed it. */
+    public static ChatFrame traceReport(long messageId, TraceStamps stamps) {
+        return new ChatFrame(Type.TRACE_REPORT, null, null, 0, 0, messageId, 0, false, stamps);
+    }
+
+    public Type getType() { return type; }
+
+    /** Sender of a message, or the client's name for {@link Type#HELLO}. */
+    public String getSender() { return sender; }
+
+    public String getText() { return text; }
+
+    /** Epoch millis the host stored a {@link Type#HISTORY} message at, 0 if unknown; live messages are stamped by the receiver. */
+    public long getTimestamp() { return timestamp; }
+
+    /** Protocol version carried by {@link Type#HELLO} and {@link Type#HELLO_ACK}. */
+    public int getVersion() { return version; }
+
+    /**
+     * Host-assigned message id for {@link Type#CHAT}, {@link Type#HISTORY} and {@link Type#TRACE_REPORT} (0 if unknown), the
+     * exclusive bound for {@link Type#HISTORY_REQUEST} and {@link Type#HISTORY_AFTER_REQUEST}, or the
+     * last id seen for {@link Type#HELLO}.
+     */
+    public long getId() { return id; }
+
+    /** Page size asked for by {@link Type#HISTORY_REQUEST} and {@link Type#HISTORY_AFTER_REQUEST}. */
+    public int getLimit() { return limit; }
+
+    /** Set on {@link Type#HISTORY_END} when more history exists beyond what was sent, in the direction asked for. */
+    public boolean hasMore() { return hasMore; }
+
+    /** Whether {@link Type#TRACE_MODE} turns tracing on. */
+    public boolean isTraceEnabled() { return type == Type.TRACE_MODE && hasMore; }
+
+    /** Latency stamps of a traced {@link Type#CHAT}, {@link Type#TRACE_SYNC} or {@link Type#TRACE_REPORT}; null if untraced. */
+    public TraceStamps getTrace() { return trace; }
+
+    public boolean isSystemMessage() {
+        return type == Type.CHAT && ChatProtocol.SENDER_SYSTEM.equals(sender);
+    }
+
+    @Override
+    public String toString() {
+        return "ChatFrame{" + type + ", sender='" + sender + "', text='" + text + "'}";
+    }
+}
@@ -0,0 +1,32 @@
+package com.modern.lanchat.network;
+
+/**
+ * Wire constants shared by host and clients. The original protocol is newline-delimited text
+ * where every line is either a control marker or a "SENDER:MESSAGE" chat line. A client that
+ * opens with {@link #HELLO_PREFIX} and a version of at least {@link #PROTOCOL_VERSION_BINARY}
+ * switches to {@link BinaryCodec} framing once the host answers with {@link #HELLO_ACK_PREFIX}.
+ * The ack carries the lower of the two peers' versions, and from {@link #PROTOCOL_VERSION_DEFLATE}
+ * on both sides may send large frames compressed.
+ */
+public final class ChatProtocol {
+
+    public static final String MSG_DELIMITER = ":"; // For "SENDER:MESSAGE"
+    public static final String SENDER_SYSTEM = "SYSTEM";
+    public static final String HIST_PREFIX = "HIST" + MSG_DELIMITER;
+    public static final String HIST_END_MARKER = "HIST_END";
+    public static final String CLIENT_NAME_PREFIX = "CLIENT_NAME" + MSG_DELIMITER; // Legacy hello, implies text
+    public static final String ROOM_CLOSED_MSG = SENDER_SYSTEM + MSG_DELIMITER + "ROOM_CLOSED_BY_HOST";
+
+    // Versioned handshake: "HELLO:<version>:<lastSeenId>:<name>" answered by "HELLO_ACK:<version>", both as text lines
+    public static final String HELLO_PREFIX = "HELLO" + MSG_DELIMITER;
+    public static final String HELLO_ACK_PREFIX = "HELLO_ACK" + MSG_DELIMITER;
+    public static final int PROTOCOL_VERSION_TEXT = 1;
+    public static final int PROTOCOL_VERSION_BINARY = 2;
+    public static final int PROTOCOL_VERSION_DEFLATE = 3;
+    public static final int PROTOCOL_VERSION = PROTOCOL_VERSION_DEFLATE; // Highest version this build speaks
+
+    // Plain system text so older clients simply display it
+    public static final String SLOW_CONSUMER_TEXT = "Disconnected by host: your connection fell too far behind the room.";
+
+    private ChatProtocol() {}
+}
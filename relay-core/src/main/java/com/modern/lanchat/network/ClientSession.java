@@ -0,0 +1,174 @@
+package com.modern.lanchat.network;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+/**
+ * One connected client as seen by the {@link RelayServer}. Holds the non-blocking channel,
+ * a {@link FrameDecoder} over its receive buffer, and a bounded queue of shared {@link Frame}s
+ * still to be written. Only the selector thread reads and writes the channel; other threads just enqueue.
+ */
+public class ClientSession {
+
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final FrameDecoder decoder = new FrameDecoder();
+    private final OutboundQueue outbound;
+    private final RelayMetrics metrics;
+
+    private volatile String clientName;
+    private volatile long lastSeenId; // From the hello; non-zero when the client is resuming
+    private volatile boolean handshakeDone = false;
+    private volatile boolean closed = false;
+
+    ClientSession(SocketChannel channel, SelectionKey key, OutboundQueue outbound, RelayMetrics metrics) {
+        this.channel = channel;
+        this.key = key;
+        this.outbound = outbound;
+        this.metrics = metrics;
+    }
+
+    public String getClientName() {
+        return clientName;
+    }
+
+    void setClientName(String clientName) {
+        this.clientName = clientName;
+    }
+
+    /** Newest message id the client reported already having, 0 for a fresh join. */
+    public long getLastSeenId() {
+        return lastSeenId;
+    }
+
+    void setLastSeenId(long lastSeenId) {
+        this.lastSeenId = lastSeenId;
+    }
+
+    boolean isHandshakeDone() {
+        return handshakeDone;
+    }
+
+    void markHandshakeDone() {
+        handshakeDone = true;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public String getRemoteAddress() {
+        Socket socket = channel.socket();
+        if (socket.getRemoteSocketAddress() instanceof InetSocketAddress) {
+            return ((InetSocketAddress) socket.getRemoteSocketAddress()).getAddress().getHostAddress();
+        }
+        return String.valueOf(socket.getRemoteSocketAddress());
+    }
+
+    SelectionKey getKey() {
+        return key;
+    }
+
+    /**
+     * Reads whatever is available into the receive buffer; follow with {@link #nextFrame()}.
+     * @return false once the peer has closed its side of the connection.
+     */
+    boolean fill() throws IOException {
+        int read = decoder.readFrom(channel);
+        if (read > 0) metrics.bytesIn.add(read);
+        return read >= 0;
+    }
+
+    /** The next complete frame already received, or null if more bytes are needed. */
+    ChatFrame nextFrame() throws IOException {
+        return decoder.next();
+    }
+
+    public WireFormat getWireFormat() {
+        return decoder.getFormat();
+    }
+
+    /** Switches both directions to {@code format}. Selector thread only, during the handshake. */
+    void setWireFormat(WireFormat format) {
+        decoder.setFormat(format);
+        outbound.setFormat(format);
+    }
+
+    /** Queues one frame for writing, subject to the queue's overflow policy. Safe to call from any thread. */
+    OutboundQueue.OfferResult enqueue(Frame frame) {
+        OutboundQueue.OfferResult result = outbound.offer(frame);
+        metrics.queueDepth.record(outbound.size());
+        if (getWireFormat() == WireFormat.BINARY_DEFLATE) {
+            metrics.deflateBytesIn.add(frame.size(WireFormat.BINARY));
+            metrics.deflateBytesOut.add(frame.size(WireFormat.BINARY_DEFLATE));
+        }
+        return result;
+    }
+
+    /**
+     * Writes as much of the queue as the socket accepts without blocking.
+     * @return true when the queue has been fully drained.
+     */
+    boolean flush() throws IOException {
+        ByteBuffer head;
+        while ((head = outbound.peekReader()) != null) {
+            metrics.bytesOut.add(channel.write(head));
+            if (head.hasRemaining()) {
+                return false; // Socket send buffer is full, wait for OP_WRITE
+            }
+            outbound.advance();
+            metrics.framesOut.increment();
+        }
+        return true;
+    }
+
+    boolean hasPendingWrites() {
+        return !outbound.isEmpty();
+    }
+
+    /** Frames waiting to be written, including one that is partially written. */
+    public int getQueuedFrames() {
+        return outbound.size();
+    }
+
+    /**
+     * Waits until fewer than {@code frames} history frames are queued for this client.
+     * @return false on timeout, or if the session closed meanwhile.
+     */
+    boolean awaitHistoryBelow(int frames, long timeoutMs) throws InterruptedException {
+        return outbound.awaitHistoryBelow(frames, timeoutMs) && !closed;
+    }
+
+    public QueueStats getQueueStats() {
+        return outbound.stats();
+    }
+
+    /**
+     * Drops pending output, makes one non-blocking attempt to deliver {@code reason} after any
+     * partially written frame, then closes. Selector thread only.
+     */
+    void closeWithReason(Frame reason) {
+        outbound.replacePending(reason);
+        try {
+            flush();
+        } catch (IOException ignored) {
+            // Best effort, the peer may already be gone
+        }
+        close();
+    }
+
+    void close() {
+        closed = true;
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // Nothing useful left to do with a channel we are discarding
+        }
+        outbound.clear();
+    }
+}
@@ -0,0 +1,35 @@
+package com.modern.lanchat.network;
+
+/**
+ * Estimates how far the host's {@link TraceClock} is ahead of ours from {@link ChatFrame.Type#TRACE_SYNC}
+ * round trips, the way NTP does: with our send and receive times t0 and t3 and the host's receive
+ * and reply times t1 and t2, the offset is ((t1 - t0) + (t2 - t3)) / 2, and its error is at most
+ * half the round trip. The sample with the shortest round trip is kept, since it is the one
+ * least skewed by queueing on the way. Thread-safe.
+ */
+final class ClockOffset {
+
+    private long offsetMicros = 0;
+    private long bestRoundTripMicros = Long.MAX_VALUE;
+
+    /** Folds in one exchange; {@code receivedMicros} is when the reply arrived, on our clock. */
+    synchronized void onReply(TraceStamps reply, long receivedMicros) {
+        long t0 = reply.getSentMicros();
+        long t1 = reply.getHostReceivedMicros();
+        long t2 = reply.getHostRelayedMicros();
+        long roundTrip = (receivedMicros - t0) - (t2 - t1);
+        if (t0 <= 0 || roundTrip < 0 || roundTrip >= bestRoundTripMicros) return;
+        bestRoundTripMicros = roundTrip;
+        offsetMicros = ((t1 - t0) + (t2 - receivedMicros)) / 2;
+    }
+
+    /** Microseconds to add to a local {@link TraceClock} reading to get the host's; 0 until a reply arrives. */
+    synchronized long getOffsetMicros() {
+        return offsetMicros;
+    }
+
+    /** Round trip of the sample in use, or -1 if there is none yet. */
+    synchronized long getRoundTripMicros() {
+        return bestRoundTripMicros == Long.MAX_VALUE ? -1 : bestRoundTripMicros;
+    }
+}
@@ -0,0 +1,143 @@
+package com.modern.lanchat.network;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One or more {@link ChatFrame}s, encoded at most once per {@link WireFormat} and shared
+ * read-only by every recipient. Each writer drains its own {@link #newReader} view, so a
+ * broadcast to N clients costs one encode per format in use plus N cheap buffer duplicates.
+ * Likewise a frame is compressed at most once, however many {@link WireFormat#BINARY_DEFLATE}
+ * clients receive it.
+ */
+public final class Frame {
+
+    private final List<ChatFrame> messages; // Null for pre-encoded frames
+    private final boolean history; // Paced by OutboundQueue#awaitHistoryBelow, unlike live traffic
+    private volatile ByteBuffer text;
+    private volatile ByteBuffer binary;
+    private volatile ByteBuffer deflated; // The binary bytes themselves when compressing does not pay
+
+    private Frame(List<ChatFrame> messages, boolean history, ByteBuffer text, ByteBuffer binary, ByteBuffer deflated) {
+        this.messages = messages;
+        this.history = history;
+        this.text = text;
+        this.binary = binary;
+        this.deflated = deflated;
+    }
+
+    public static Frame of(ChatFrame message) {
+        return new Frame(Collections.singletonList(message), false, null, null, null);
+    }
+
+    /** Several messages sent back to back as a single frame. */
+    public static Frame of(List<ChatFrame> messages) {
+        return new Frame(messages, false, null, null, null);
+    }
+
+    /** A page of stored history, which a client's queue counts apart from its live messages. */
+    static Frame history(List<ChatFrame> messages) {
+        return new Frame(messages, true, null, null, null);
+    }
+
+    /** Bytes that go out unchanged whatever the connection's format, e.g. the hello reply. */
+    static Frame raw(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+        return new Frame(null, false, buffer, buffer, buffer);
+    }
+
+    /** Joins frames already encoded for {@code format} into one, preserving their order. */
+    static Frame concat(Collection<Frame> frames, WireFormat format) {
+        int total = 0;
+        boolean history = false;
+        for (Frame frame : frames) {
+            total += frame.size(format);
+            history |= frame.history;
+        }
+        ByteBuffer joined = ByteBuffer.allocate(total);
+        for (Frame frame : frames) {
+            joined.put(frame.newReader(format));
+        }
+        joined.flip();
+        ByteBuffer readOnly = joined.asReadOnlyBuffer();
+        switch (format) {
+            case BINARY: return new Frame(null, history, null, readOnly, null);
+            case BINARY_DEFLATE: return new Frame(null, history, null, null, readOnly);
+            default: return new Frame(null, history, readOnly, null, null);
+        }
+    }
+
+    boolean isHistory() {
+        return history;
+    }
+
+    /** Size on the wire in bytes for the given format. */
+    public int size(WireFormat format) {
+        return encoded(format).remaining();
+    }
+
+    /** Independent position/limit over the shared bytes, for a single writer to consume. */
+    ByteBuffer newReader(WireFormat format) {
+        return encoded(format).duplicate();
+    }
+
+    private ByteBuffer encoded(WireFormat format) {
+        // Racing threads may both encode; the results are identical so either may win
+        if (format == WireFormat.BINARY_DEFLATE) {
+            ByteBuffer result = deflated;
+            if (result == null) {
+                deflated = result = encodeDeflated();
+            }
+            return result;
+        }
+        if (format == WireFormat.BINARY) {
+            ByteBuffer result = binary;
+            if (result == null) {
+                binary = result = encodeBinary();
+            }
+            return result;
+        }
+        ByteBuffer result = text;
+        if (result == null) {
+            text = result = encodeText();
+        }
+        return result;
+    }
+
+    private ByteBuffer encodeText() {
+        requireMessages();
+        StringBuilder builder = new StringBuilder();
+        for (ChatFrame message : messages) {
+            builder.append(TextCodec.encode(message)).append('\n');
+        }
+        return ByteBuffer.wrap(builder.toString().getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer();
+    }
+
+    private ByteBuffer encodeBinary() {
+        requireMessages();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 * messages.size());
+        for (ChatFrame message : messages) {
+            BinaryCodec.encode(message, out);
+        }
+        return ByteBuffer.wrap(out.toByteArray()).asReadOnlyBuffer();
+    }
+
+    private ByteBuffer encodeDeflated() {
+        ByteBuffer plain = encoded(WireFormat.BINARY);
+        if (plain.remaining() < BinaryCodec.DEFLATE_THRESHOLD_BYTES) {
+            return plain; // Compressing a short live message costs more than it saves
+        }
+        byte[] block = BinaryCodec.deflate(plain);
+        return block != null ? ByteBuffer.wrap(block).asReadOnlyBuffer() : plain;
+    }
+
+    private void requireMessages() {
+        if (messages == null) {
+            throw new IllegalStateException("Frame was pre-encoded for a different wire format");
+        }
+    }
+}
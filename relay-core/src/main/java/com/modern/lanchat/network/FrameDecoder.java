@@ -0,0 +1,147 @@
+package com.modern.lanchat.network;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Receive buffer for one connection that hands out {@link ChatFrame}s one at a time, straight
+ * from the bytes read off the channel. The wire format can change between two calls to
+ * {@link #next()}, which is how a connection switches to binary right after the hello.
+ * A compressed block is unpacked whole and its frames are handed out before anything read after it.
+ */
+class FrameDecoder {
+
+    private static final int INITIAL_BUFFER_SIZE = 4 * 1024;
+    static final int MAX_BUFFER_SIZE = BinaryCodec.MAX_FRAME_BYTES + 16; // Longest frame plus its header
+
+    private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE); // position() is the write index
+    private int readIndex = 0; // Start of the first unconsumed byte
+    private int scanIndex = 0; // Text mode: bytes before this hold no newline
+    private WireFormat format = WireFormat.TEXT;
+    private boolean expectHandshake = true;
+    private ByteBuffer inflated; // Frames of the last compressed block not handed out yet, null if none
+
+    void setFormat(WireFormat format) {
+        this.format = format;
+    }
+
+    WireFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * Reads whatever the channel has into the buffer, growing it if a single frame needs room.
+     * @return the channel's result: bytes read, or -1 at end of stream.
+     */
+    int readFrom(ReadableByteChannel channel) throws IOException {
+        if (readIndex == buffer.position()) {
+            buffer.clear();
+            readIndex = 0;
+            scanIndex = 0;
+        } else if (!buffer.hasRemaining()) {
+            makeRoom();
+        }
+        return channel.read(buffer);
+    }
+
+    private void makeRoom() throws ProtocolException {
+        if (readIndex > 0) {
+            int unread = buffer.position() - readIndex;
+            buffer.position(readIndex);
+            buffer.limit(readIndex + unread);
+            buffer.compact();
+            scanIndex -= readIndex;
+            readIndex = 0;
+            if (buffer.hasRemaining()) return;
+        }
+        if (buffer.capacity() >= MAX_BUFFER_SIZE) {
+            throw new ProtocolException("Frame exceeds " + MAX_BUFFER_SIZE + " bytes");
+        }
+        ByteBuffer bigger = ByteBuffer.allocate(Math.min(buffer.capacity() * 2, MAX_BUFFER_SIZE));
+        buffer.flip();
+        bigger.put(buffer);
+        buffer = bigger;
+    }
+
+    /**
+     * Decodes the next complete frame, or returns null when more bytes are needed.
+     * Malformed text lines and unknown binary frame types are skipped.
+     */
+    ChatFrame next() throws ProtocolException {
+        while (true) {
+            int end = buffer.position();
+            if (inflated != null) {
+                ChatFrame frame = nextInflated();
+                if (frame != null) return frame;
+            } else if (format.isBinary()) {
+                int length = BinaryCodec.frameLength(buffer, readIndex, end);
+                if (length < 0) return null;
+                // Blocks are accepted from any binary peer; the format only limits what we send
+                inflated = BinaryCodec.inflate(buffer, readIndex, length);
+                ChatFrame frame = inflated == null ? BinaryCodec.decode(buffer, readIndex, length) : null;
+                readIndex += length;
+                scanIndex = readIndex;
+                if (frame != null) return frame;
+            } else {
+                int newline = -1;
+                for (int i = scanIndex; i < end; i++) {
+                    if (buffer.get(i) == '\n') {
+                        newline = i;
+                        break;
+                    }
+                }
+                if (newline < 0) {
+                    scanIndex = end;
+                    if (end - readIndex > MAX_BUFFER_SIZE - 1) {
+                        throw new ProtocolException("Line exceeds " + MAX_BUFFER_SIZE + " bytes");
+                    }
+                    return null;
+                }
+                int lineEnd = newline;
+                if (lineEnd > readIndex && buffer.get(lineEnd - 1) == '\r') {
+                    lineEnd--;
+                }
+                String line = decodeUtf8(readIndex, lineEnd);
+                readIndex = newline + 1;
+                scanIndex = readIndex;
+                ChatFrame frame = null;
+                if (expectHandshake) {
+                    expectHandshake = false;
+                    frame = TextCodec.decodeHandshake(line);
+                }
+                if (frame == null) {
+                    frame = TextCodec.decode(line);
+                }
+                if (frame != null) return frame;
+            }
+        }
+    }
+
+    // The next frame of the current compressed block, or null once the block is used up or skipped
+    private ChatFrame nextInflated() throws ProtocolException {
+        ByteBuffer block = inflated;
+        while (block.hasRemaining()) {
+            int length = BinaryCodec.frameLength(block, block.position(), block.limit());
+            if (length < 0) throw new ProtocolException("Compressed block ends inside a frame");
+            ChatFrame frame = BinaryCodec.decode(block, block.position(), length);
+            block.position(block.position() + length);
+            if (frame != null) return frame;
+        }
+        inflated = null;
+        return null;
+    }
+
+    private String decodeUtf8(int start, int end) {
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + start, end - start, StandardCharsets.UTF_8);
+        }
+        byte[] bytes = new byte[end - start];
+        for (int i = start; i < end; i++) {
+            bytes[i - start] = buffer.get(i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
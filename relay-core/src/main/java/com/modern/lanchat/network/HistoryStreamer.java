@@ -0,0 +1,113 @@
+package com.modern.lanchat.network;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Sends stored history to clients in keyset-paginated blocks on its own executor, so a join
+ * never loads a whole room into memory and never occupies the shared database thread.
+ *
+ * <p>Binary clients get the latest page on join and request older pages themselves with
+ * {@link ChatFrame.Type#HISTORY_REQUEST}, and newer ones again with
+ * {@link ChatFrame.Type#HISTORY_AFTER_REQUEST} once their window has dropped them; a binary client that reconnects with a last-seen id
+ * is sent only the messages after it. Text clients cannot ask, so they are streamed the full
+ * history. Streams go page by page, each page waiting for the client to drain the previous ones;
+ * a client that has not drained them within {@code DRAIN_TIMEOUT_MS} is disconnected rather
+ * than left waiting for a HISTORY_END that would never come.</p>
+ */
+public class HistoryStreamer {
+
+    /** Reads pages of stored messages. Implementations may block; they run on the streamer's executor. */
+    public interface Source {
+        /** Up to {@code limit} messages with an id greater than {@code afterId}, oldest first. */
+        List<ChatFrame> loadAfter(long afterId, int limit);
+
+        /** Up to {@code limit} messages with an id less than {@code beforeId}, oldest first. */
+        List<ChatFrame> loadBefore(long beforeId, int limit);
+    }
+
+    public static final int DEFAULT_PAGE_SIZE = 100;
+    public static final int MAX_PAGE_SIZE = 500;
+
+    private static final int MAX_PAGES_IN_FLIGHT = 2;
+    private static final long DRAIN_TIMEOUT_MS = 30_000;
+
+    private final RelayServer relay;
+    private final Source source;
+    private final ExecutorService executor;
+    private final int pageSize;
+
+    public HistoryStreamer(RelayServer relay, Source source, ExecutorService executor, int pageSize) {
+        this.relay = relay;
+        this.source = source;
+        this.executor = executor;
+        this.pageSize = pageSize;
+    }
+
+    /** Starts history for a client that just joined, choosing the mode its protocol supports. */
+    public void onClientJoined(ClientSession session) {
+        if (!session.getWireFormat().isBinary()) {
+            streamAfter(session, 0);
+        } else if (session.getLastSeenId() > 0) {
+            streamAfter(session, session.getLastSeenId()); // Resync: only the gap since the drop
+        } else {
+            sendBefore(session, Long.MAX_VALUE, pageSize);
+        }
+    }
+
+    /** Answers a client's request for up to {@code limit} messages older than {@code beforeId}. */
+    public void sendBefore(ClientSession session, long beforeId, int limit) {
+        int pageLimit = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+        executor.execute(() -> {
+            if (session.isClosed()) return;
+            // Ask for one extra row to learn whether anything older remains
+            List<ChatFrame> rows = source.loadBefore(beforeId, pageLimit + 1);
+            boolean hasMore = rows.size() > pageLimit;
+            List<ChatFrame> page = new ArrayList<>(Math.min(rows.size(), pageLimit) + 1);
+            page.addAll(hasMore ? rows.subList(1, rows.size()) : rows);
+            page.add(ChatFrame.historyEnd(hasMore));
+            relay.sendHistory(session, page);
+        });
+    }
+
+    /** Answers a client's request for up to {@code limit} messages newer than {@code afterId}. */
+    public void sendAfter(ClientSession session, long afterId, int limit) {
+        int pageLimit = Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+        executor.execute(() -> {
+            if (session.isClosed()) return;
+            List<ChatFrame> rows = source.loadAfter(afterId, pageLimit + 1);
+            boolean hasMore = rows.size() > pageLimit;
+            List<ChatFrame> page = new ArrayList<>(Math.min(rows.size(), pageLimit) + 1);
+            page.addAll(hasMore ? rows.subList(0, pageLimit) : rows);
+            page.add(ChatFrame.historyEnd(hasMore));
+            relay.sendHistory(session, page);
+        });
+    }
+
+    private void streamAfter(ClientSession session, long fromId) {
+        executor.execute(() -> {
+            long afterId = fromId;
+            try {
+                while (!session.isClosed()) {
+                    List<ChatFrame> page = source.loadAfter(afterId, pageSize);
+                    if (page.isEmpty()) break;
+                    afterId = page.get(page.size() - 1).getId();
+                    // Backpressure: let the client catch up on earlier pages; live messages don't count
+                    if (!session.awaitHistoryBelow(MAX_PAGES_IN_FLIGHT, DRAIN_TIMEOUT_MS)) {
+                        // Without HISTORY_END it would wait for the rest forever; a binary client
+                        // reconnects and resyncs from the last id it did get
+                        if (!session.isClosed()) relay.disconnectSlowConsumer(session);
+                        return;
+                    }
+                    relay.sendHistory(session, page);
+                    if (page.size() < pageSize) break;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            relay.send(session, ChatFrame.historyEnd(false));
+        });
+    }
+}
@@ -0,0 +1,197 @@
+package com.modern.lanchat.network;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Bounded FIFO of frames waiting to be written to one client, capped both in frames and in
+ * bytes. Producers on any thread call {@link #offer}; only the selector thread calls
+ * {@link #peekReader()}/{@link #advance()}. The frame currently being written is held
+ * separately so a partial write keeps its position and is never evicted.
+ */
+class OutboundQueue {
+
+    enum OfferResult { ACCEPTED, EVICTED, REJECTED }
+
+    private final int maxMessages;
+    private final long maxBytes;
+    private final OverflowPolicy policy;
+
+    private final ArrayDeque<Frame> frames = new ArrayDeque<>();
+    private volatile WireFormat format = WireFormat.TEXT;
+    private long queuedBytes = 0;
+    private volatile ByteBuffer current; // Frame being written, only advanced by the selector thread
+    private boolean currentIsHistory = false;
+    private int historyFrames = 0; // Queued or being written, see Frame#isHistory
+
+    private int highWaterMark = 0;
+    private long evictedFrames = 0;
+
+    OutboundQueue(int maxMessages, long maxBytes, OverflowPolicy policy) {
+        this.maxMessages = maxMessages;
+        this.maxBytes = maxBytes;
+        this.policy = policy;
+    }
+
+    /**
+     * Sets how queued frames are encoded when they are written. Only switch while the queue is
+     * empty apart from pre-encoded frames, i.e. during the handshake.
+     */
+    synchronized void setFormat(WireFormat format) {
+        this.format = format;
+    }
+
+    /**
+     * Adds a frame, applying the overflow policy if it does not fit.
+     * @return {@link OfferResult#REJECTED} when the client should be disconnected.
+     */
+    synchronized OfferResult offer(Frame frame) {
+        OfferResult result = OfferResult.ACCEPTED;
+        if (!fits(frame)) {
+            switch (policy) {
+                case DISCONNECT:
+                    return OfferResult.REJECTED;
+                case COALESCE:
+                    // Merging saves no bytes, so only lines beyond the byte cap are dropped;
+                    // what remains is merged to make room under the frame cap
+                    dropOldestUntilBytesFit(frame);
+                    if (!fits(frame)) {
+                        coalesce();
+                    }
+                    if (!fits(frame)) {
+                        dropOldestUntilFits(frame); // A cap of a single frame
+                    }
+                    break;
+                case DROP_OLDEST:
+                    dropOldestUntilFits(frame);
+                    break;
+            }
+            result = OfferResult.EVICTED;
+        }
+        frames.addLast(frame);
+        queuedBytes += frame.size(format);
+        if (frame.isHistory()) historyFrames++;
+        highWaterMark = Math.max(highWaterMark, frames.size());
+        return result;
+    }
+
+    private boolean fits(Frame frame) {
+        return bytesFit(frame) && (frames.isEmpty() || frames.size() < maxMessages);
+    }
+
+    private boolean bytesFit(Frame frame) {
+        if (frames.isEmpty()) {
+            return true; // Always take one frame, even an oversized history block, or it could never be sent
+        }
+        return queuedBytes + frame.size(format) <= maxBytes;
+    }
+
+    private void coalesce() {
+        if (frames.size() < 2) return;
+        Frame merged = Frame.concat(frames, format);
+        evictedFrames += frames.size() - 1;
+        frames.clear();
+        frames.addLast(merged);
+        historyFrames = (currentIsHistory ? 1 : 0) + (merged.isHistory() ? 1 : 0);
+        notifyAll();
+    }
+
+    private void dropOldestUntilFits(Frame frame) {
+        while (!frames.isEmpty() && !fits(frame)) {
+            dropOldest();
+        }
+    }
+
+    private void dropOldestUntilBytesFit(Frame frame) {
+        while (!frames.isEmpty() && !bytesFit(frame)) {
+            dropOldest();
+        }
+    }
+
+    private void dropOldest() {
+        Frame dropped = frames.pollFirst();
+        queuedBytes -= dropped.size(format);
+        evictedFrames++;
+        if (dropped.isHistory()) {
+            historyFrames--;
+            notifyAll();
+        }
+    }
+
+    /** The buffer to write next, or null when there is nothing pending. */
+    ByteBuffer peekReader() {
+        if (current == null) {
+            Frame next;
+            synchronized (this) {
+                next = frames.pollFirst();
+                if (next != null) {
+                    queuedBytes -= next.size(format);
+                    currentIsHistory = next.isHistory();
+                    current = next.newReader(format);
+                }
+            }
+        }
+        return current;
+    }
+
+    /** Drops the current buffer once it has been written completely. */
+    void advance() {
+        synchronized (this) {
+            current = null;
+            if (currentIsHistory) {
+                currentIsHistory = false;
+                historyFrames--;
+                notifyAll(); // Wakes a history stream pacing itself in awaitHistoryBelow()
+            }
+        }
+    }
+
+    /**
+     * Blocks a producer until fewer than {@code frames} history frames are waiting or being
+     * written, so history streaming goes no faster than the client reads. Live messages queued
+     * meanwhile do not count: they are paced by the overflow policy, not by this.
+     * @return false if that many were still in flight when the timeout expired.
+     */
+    synchronized boolean awaitHistoryBelow(int frames, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (historyFrames >= frames) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) return false;
+            wait(remaining);
+        }
+        return true;
+    }
+
+    synchronized boolean isEmpty() {
+        return current == null && frames.isEmpty();
+    }
+
+    synchronized int size() {
+        return frames.size() + (current != null ? 1 : 0);
+    }
+
+    synchronized QueueStats stats() {
+        ByteBuffer inFlight = current;
+        long bytes = queuedBytes + (inFlight != null ? inFlight.remaining() : 0);
+        return new QueueStats(size(), bytes, highWaterMark, evictedFrames);
+    }
+
+    /** Discards everything not yet started and queues {@code last} as the final frame. */
+    synchronized void replacePending(Frame last) {
+        evictedFrames += frames.size();
+        frames.clear();
+        frames.addLast(last);
+        queuedBytes = last.size(format);
+        historyFrames = (currentIsHistory ? 1 : 0) + (last.isHistory() ? 1 : 0);
+        notifyAll();
+    }
+
+    synchronized void clear() {
+        frames.clear();
+        queuedBytes = 0;
+        current = null;
+        currentIsHistory = false;
+        historyFrames = 0;
+        notifyAll();
+    }
+}
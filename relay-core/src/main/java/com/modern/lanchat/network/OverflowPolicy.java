@@ -0,0 +1,14 @@
+package com.modern.lanchat.network;
+
+/** What a client's {@link OutboundQueue} does when a new frame would exceed its limits. */
+public enum OverflowPolicy {
+    /** Evict the oldest queued frames until the new one fits. The client silently misses them. */
+    DROP_OLDEST,
+    /**
+     * Drop only the oldest frames that the byte limit leaves no room for, then merge the rest
+     * into a single frame so many small lines count as one message against the frame limit.
+     */
+    COALESCE,
+    /** Tell the client why and close the connection. */
+    DISCONNECT
+}
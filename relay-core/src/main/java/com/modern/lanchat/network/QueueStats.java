@@ -0,0 +1,25 @@
+package com.modern.lanchat.network;
+
+import java.util.Locale;
+
+/** Point-in-time snapshot of one client's outbound queue. */
+public final class QueueStats {
+
+    public final int depth;          // Frames waiting, including one partially written
+    public final long queuedBytes;
+    public final int highWaterMark;  // Deepest the queue has been since the client joined
+    public final long evictedFrames; // Frames dropped or merged away by the overflow policy
+
+    QueueStats(int depth, long queuedBytes, int highWaterMark, long evictedFrames) {
+        this.depth = depth;
+        this.queuedBytes = queuedBytes;
+        this.highWaterMark = highWaterMark;
+        this.evictedFrames = evictedFrames;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "depth=%d (%d B), high=%d, evicted=%d",
+                depth, queuedBytes, highWaterMark, evictedFrames);
+    }
+}
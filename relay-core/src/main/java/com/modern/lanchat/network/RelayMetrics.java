@@ -0,0 +1,36 @@
+package com.modern.lanchat.network;
+
+import com.modern.lanchat.metrics.Counter;
+import com.modern.lanchat.metrics.Histogram;
+import com.modern.lanchat.metrics.MetricsRegistry;
+
+/** The relay's instruments, looked up once so the selector loop never goes through the registry. */
+final class RelayMetrics {
+
+    final Counter framesIn;
+    final Counter bytesIn;
+    final Counter framesOut;
+    final Counter bytesOut;
+    final Counter acceptFailures;    // Connections dropped while being accepted; the room carries on
+    final Histogram broadcastMicros; // Encoding once plus queueing for every recipient
+    final Histogram queueDepth;      // A client's queued frames, sampled as each frame joins it
+    final Counter deflateBytesIn;    // Frames queued for compressing clients, at their uncompressed size
+    final Counter deflateBytesOut;   // The same frames as sent, compressed or not
+
+    RelayMetrics(MetricsRegistry registry) {
+        framesIn = registry.counter("relay.frames_in");
+        bytesIn = registry.counter("relay.bytes_in");
+        framesOut = registry.counter("relay.frames_out");
+        bytesOut = registry.counter("relay.bytes_out");
+        acceptFailures = registry.counter("relay.accept_failures");
+        broadcastMicros = registry.histogram("relay.broadcast_fanout", "us");
+        queueDepth = registry.histogram("relay.client_queue_depth", "frames");
+        deflateBytesIn = registry.counter("relay.deflate_bytes_in");
+        deflateBytesOut = registry.counter("relay.deflate_bytes_out");
+        // Sent bytes per 100 uncompressed ones: 25 means output to those clients shrank fourfold
+        registry.gauge("relay.deflate_ratio_pct", () -> {
+            long in = deflateBytesIn.get();
+            return in > 0 ? deflateBytesOut.get() * 100 / in : 100;
+        });
+    }
+}
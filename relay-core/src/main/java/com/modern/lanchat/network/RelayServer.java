@@ -0,0 +1,452 @@
+package com.modern.lanchat.network;
+
+import com.modern.lanchat.metrics.MetricsRegistry;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Host side of a chat room. A single selector thread accepts clients, reads their lines and
+ * writes queued output when the socket is writable, so a room costs one thread no matter how
+ * many members it has. Each client speaks either the original text protocol or, after a
+ * versioned hello, the binary framing described in {@link ChatProtocol}.
+ *
+ * <p>Call {@link #open()} to bind, then {@link #run()} on a dedicated thread. {@link #send} and
+ * {@link #broadcast} may be called from any thread; {@link Listener} callbacks arrive on the
+ * selector thread and must not block. A caller that needs the port before the room starts, for
+ * example to show or advertise it, binds with {@link #bind(int)} and hands the channel over
+ * through {@link #RelayServer(ServerSocketChannel, Listener)}, so the port is bound only once.</p>
+ */
+public class RelayServer implements Runnable {
+
+    public interface Listener {
+        /** The client sent its hello (or skipped it and was named after its IP). */
+        void onClientJoined(ClientSession session);
+
+        /** A regular frame arrived from an already joined client. */
+        void onClientMessage(ClientSession session, ChatFrame frame);
+
+        /** The connection was closed by the peer or dropped because of an I/O error. */
+        void onClientLeft(ClientSession session);
+
+        /**
+         * One incoming connection could not be set up, e.g. it was reset straight away or the
+         * process is out of file descriptors. The server drops it and carries on.
+         */
+        void onAcceptFailed(IOException e);
+
+        /** The accept loop failed in a way the server cannot recover from. */
+        void onServerError(IOException e);
+    }
+
+    public static final int DEFAULT_MAX_QUEUED_FRAMES = 1024;
+    public static final long DEFAULT_MAX_QUEUED_BYTES = 4L * 1024 * 1024;
+
+    // After the listening socket itself fails to accept, e.g. out of file descriptors, it is left
+    // alone this long; it would otherwise stay ready and spin the selector
+    private static final long ACCEPT_BACKOFF_MS = 100;
+
+    private static final Frame SLOW_CONSUMER_FRAME = Frame.of(ChatFrame.system(ChatProtocol.SLOW_CONSUMER_TEXT));
+    private static final Frame HELLO_ACK_BINARY_FRAME = helloAck(ChatProtocol.PROTOCOL_VERSION_BINARY);
+    private static final Frame HELLO_ACK_DEFLATE_FRAME = helloAck(ChatProtocol.PROTOCOL_VERSION_DEFLATE);
+
+    private final int port;
+    private final Listener listener;
+    private Runnable onListening;
+    private int maxQueuedFrames = DEFAULT_MAX_QUEUED_FRAMES;
+    private long maxQueuedBytes = DEFAULT_MAX_QUEUED_BYTES;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DISCONNECT;
+    private final AtomicLong slowConsumersDisconnected = new AtomicLong();
+    private final List<ClientSession> sessions = new CopyOnWriteArrayList<>();
+    private final Queue<ClientSession> pendingWrites = new ConcurrentLinkedQueue<>();
+    private final Queue<ClientSession> overflowed = new ConcurrentLinkedQueue<>();
+    private RelayMetrics metrics = new RelayMetrics(new MetricsRegistry()); // Counted even when nobody reads them
+
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private SelectionKey acceptKey;
+    private long acceptResumeNanos = 0; // Selector thread only; non-zero while accepting is backed off
+    private volatile boolean running = false;
+    private volatile boolean loopStarted = false;
+    private volatile long firstAcceptNanos = 0; // System.nanoTime() of the first accept, 0 until then
+
+    public RelayServer(int port, Listener listener) {
+        this.port = port;
+        this.listener = listener;
+    }
+
+    /** Serves on a channel already bound by {@link #bind(int)}; the server owns and closes it from now on. */
+    public RelayServer(ServerSocketChannel boundChannel, Listener listener) {
+        this.port = boundChannel.socket().getLocalPort();
+        this.serverChannel = boundChannel;
+        this.listener = listener;
+    }
+
+    private static Frame helloAck(int version) {
+        return Frame.raw((ChatProtocol.HELLO_ACK_PREFIX + version + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Binds a listening channel on {@code port}, or on any free port if it is 0. */
+    public static ServerSocketChannel bind(int port) throws IOException {
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        try {
+            channel.socket().setReuseAddress(true);
+            channel.socket().bind(new InetSocketAddress(port));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    /**
+     * Runs {@code callback} on the selector thread once the loop is about to accept clients, for
+     * work that should wait until the room can be joined, such as advertising it. Set it before
+     * {@link #run()}.
+     */
+    public void setOnListening(Runnable callback) {
+        this.onListening = callback;
+    }
+
+    /**
+     * Sets the per-client outbound limits and what happens when a client exceeds them.
+     * Applies to clients accepted after the call, so set it before {@link #open()}.
+     */
+    public void setOutboundLimits(int maxFrames, long maxBytes, OverflowPolicy policy) {
+        this.maxQueuedFrames = maxFrames;
+        this.maxQueuedBytes = maxBytes;
+        this.overflowPolicy = policy;
+    }
+
+    /**
+     * Reports traffic into {@code registry}: frames and bytes each way, broadcast fan-out time,
+     * client queue depths, the number of clients and how well output to compressing clients
+     * compresses. Set it before {@link #open()}.
+     */
+    public void setMetrics(MetricsRegistry registry) {
+        metrics = new RelayMetrics(registry);
+        registry.gauge("relay.clients", sessions::size);
+        registry.gauge("relay.deepest_client_queue", () -> {
+            int deepest = 0;
+            for (ClientSession session : sessions) {
+                deepest = Math.max(deepest, session.getQueuedFrames());
+            }
+            return deepest;
+        });
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /** Clients closed by {@link OverflowPolicy#DISCONNECT} since the server started. */
+    public long getSlowConsumersDisconnected() {
+        return slowConsumersDisconnected.get();
+    }
+
+    /**
+     * Binds the listening channel, or takes over the one passed to the constructor. Must be
+     * called once before {@link #run()}.
+     */
+    public void open() throws IOException {
+        selector = Selector.open();
+        if (serverChannel == null) {
+            serverChannel = bind(port);
+        }
+        serverChannel.configureBlocking(false);
+        acceptKey = serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        running = true;
+    }
+
+    public int getLocalPort() {
+        return serverChannel != null ? serverChannel.socket().getLocalPort() : -1;
+    }
+
+    public List<ClientSession> getSessions() {
+        return sessions;
+    }
+
+    /** {@link System#nanoTime()} when the first client was accepted, or 0 if none has been yet. */
+    public long getFirstAcceptNanos() {
+        return firstAcceptNanos;
+    }
+
+    @Override
+    public void run() {
+        loopStarted = true;
+        if (onListening != null && running) {
+            onListening.run();
+        }
+        try {
+            while (running && !Thread.currentThread().isInterrupted()) {
+                if (acceptResumeNanos == 0) {
+                    selector.select();
+                } else {
+                    long waitMs = (acceptResumeNanos - System.nanoTime()) / 1_000_000;
+                    if (waitMs > 0) selector.select(waitMs);
+                    resumeAcceptingIfDue();
+                }
+                applyPendingWrites();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) continue;
+
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else {
+                        ClientSession session = (ClientSession) key.attachment();
+                        if (key.isReadable()) {
+                            handleRead(session);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            handleWrite(session);
+                        }
+                    }
+                }
+            }
+        } catch (ClosedSelectorException e) {
+            // close() raced with select(), nothing left to do
+        } catch (IOException e) {
+            if (running) {
+                listener.onServerError(e);
+            }
+        } finally {
+            shutdownChannels();
+        }
+    }
+
+    // A failure here concerns one connection only, so it never reaches run()'s catch and ends the room
+    private void accept() {
+        SocketChannel channel;
+        try {
+            channel = serverChannel.accept();
+        } catch (IOException e) {
+            metrics.acceptFailures.increment();
+            acceptKey.interestOps(0);
+            acceptResumeNanos = System.nanoTime() + ACCEPT_BACKOFF_MS * 1_000_000;
+            listener.onAcceptFailed(e);
+            return;
+        }
+        if (channel == null) return;
+        if (firstAcceptNanos == 0) firstAcceptNanos = System.nanoTime();
+        try {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            OutboundQueue queue = new OutboundQueue(maxQueuedFrames, maxQueuedBytes, overflowPolicy);
+            ClientSession session = new ClientSession(channel, key, queue, metrics);
+            key.attach(session);
+            sessions.add(session);
+        } catch (IOException e) {
+            metrics.acceptFailures.increment();
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // Dropping it either way
+            }
+            listener.onAcceptFailed(e);
+        }
+    }
+
+    private void resumeAcceptingIfDue() {
+        if (System.nanoTime() - acceptResumeNanos < 0) return;
+        acceptResumeNanos = 0;
+        if (acceptKey.isValid()) {
+            acceptKey.interestOps(SelectionKey.OP_ACCEPT);
+        }
+    }
+
+    private void handleRead(ClientSession session) {
+        boolean open;
+        try {
+            open = session.fill();
+            ChatFrame frame;
+            while ((frame = session.nextFrame()) != null) {
+                metrics.framesIn.increment();
+                if (!session.isHandshakeDone()) {
+                    handshake(session, frame);
+                    if (frame.getType() == ChatFrame.Type.HELLO) continue;
+                }
+                if (frame.getType() == ChatFrame.Type.HELLO || frame.getType() == ChatFrame.Type.HELLO_ACK) {
+                    continue; // Handshake frames are only meaningful as the first line
+                }
+                listener.onClientMessage(session, frame);
+            }
+        } catch (IOException e) {
+            open = false; // Includes ProtocolException for a peer sending garbage
+        }
+        if (!open) {
+            disconnect(session);
+        }
+    }
+
+    private void handshake(ClientSession session, ChatFrame first) {
+        if (first.getType() == ChatFrame.Type.HELLO) {
+            session.setClientName(first.getSender());
+            if (first.getVersion() >= ChatProtocol.PROTOCOL_VERSION_BINARY) {
+                session.setLastSeenId(first.getId()); // Only binary clients can make use of ids
+                // The ack goes out as text; everything queued after it, and everything read after the hello, is binary
+                boolean deflate = first.getVersion() >= ChatProtocol.PROTOCOL_VERSION_DEFLATE;
+                session.enqueue(deflate ? HELLO_ACK_DEFLATE_FRAME : HELLO_ACK_BINARY_FRAME);
+                session.setWireFormat(deflate ? WireFormat.BINARY_DEFLATE : WireFormat.BINARY);
+                pendingWrites.add(session);
+                wakeup(); // The client waits for the ack; don't leave it until some other write wakes the loop
+            }
+        } else {
+            // Client did not introduce itself, fall back to its address and treat the frame as chat
+            session.setClientName(session.getRemoteAddress());
+        }
+        session.markHandshakeDone();
+        listener.onClientJoined(session);
+    }
+
+    private void handleWrite(ClientSession session) {
+        try {
+            if (session.flush()) {
+                SelectionKey key = session.getKey();
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                // A writer may have enqueued between the drain and clearing OP_WRITE
+                if (session.hasPendingWrites()) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                }
+            }
+        } catch (IOException e) {
+            disconnect(session);
+        }
+    }
+
+    private void applyPendingWrites() {
+        ClientSession session;
+        while ((session = overflowed.poll()) != null) {
+            if (session.isClosed()) continue;
+            slowConsumersDisconnected.incrementAndGet();
+            session.closeWithReason(SLOW_CONSUMER_FRAME);
+            sessions.remove(session);
+            listener.onClientLeft(session);
+        }
+        while ((session = pendingWrites.poll()) != null) {
+            SelectionKey key = session.getKey();
+            if (key.isValid()) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+            }
+        }
+    }
+
+    private void disconnect(ClientSession session) {
+        if (session.isClosed()) return;
+        session.close();
+        sessions.remove(session);
+        if (session.isHandshakeDone()) {
+            listener.onClientLeft(session);
+        }
+    }
+
+    /** Queues one message for a single client. */
+    public void send(ClientSession session, ChatFrame message) {
+        if (session.isClosed()) return;
+        enqueue(session, Frame.of(message));
+        wakeup();
+    }
+
+    /** Queues a block of messages for a single client as one frame. */
+    public void send(ClientSession session, List<ChatFrame> messages) {
+        if (session.isClosed() || messages.isEmpty()) return;
+        enqueue(session, Frame.of(messages));
+        wakeup();
+    }
+
+    /** Queues a page of history for a single client, counted apart from live messages for pacing. */
+    void sendHistory(ClientSession session, List<ChatFrame> messages) {
+        if (session.isClosed() || messages.isEmpty()) return;
+        enqueue(session, Frame.history(messages));
+        wakeup();
+    }
+
+    /** Disconnects a client that stopped reading, the same way as one whose queue overflowed. */
+    void disconnectSlowConsumer(ClientSession session) {
+        overflowed.add(session);
+        wakeup();
+    }
+
+    /**
+     * Queues one message for every joined client except {@code exclude} (which may be null).
+     * The message is encoded at most once per wire format; recipients share the read-only bytes.
+     */
+    public void broadcast(ChatFrame message, ClientSession exclude) {
+        long start = System.nanoTime();
+        Frame frame = Frame.of(message);
+        for (ClientSession session : sessions) {
+            if (session != exclude && session.isHandshakeDone() && !session.isClosed()) {
+                enqueue(session, frame);
+            }
+        }
+        wakeup();
+        metrics.broadcastMicros.recordMicrosSince(start);
+    }
+
+    private void enqueue(ClientSession session, Frame frame) {
+        if (session.enqueue(frame) == OutboundQueue.OfferResult.REJECTED) {
+            // This client stopped reading; close it on the selector thread so it can't hold up the room
+            overflowed.add(session);
+        } else {
+            pendingWrites.add(session);
+        }
+    }
+
+    private void wakeup() {
+        Selector s = selector;
+        if (s != null) {
+            s.wakeup();
+        }
+    }
+
+    /**
+     * Stops the selector loop. Output that is already queued (for example the room-closed
+     * notice) gets one last non-blocking flush before the sockets are closed.
+     */
+    public void close() {
+        running = false;
+        if (loopStarted) {
+            wakeup();
+        } else {
+            shutdownChannels(); // run() never got a thread, release the channels here
+        }
+    }
+
+    private void shutdownChannels() {
+        for (ClientSession session : sessions) {
+            try {
+                session.flush();
+            } catch (IOException ignored) {
+                // Peer is gone, the close below is all that is left
+            }
+            session.close();
+        }
+        sessions.clear();
+        try {
+            if (serverChannel != null) serverChannel.close();
+        } catch (IOException ignored) {
+            // Already closed
+        }
+        try {
+            if (selector != null) selector.close();
+        } catch (IOException ignored) {
+            // Already closed
+        }
+    }
+}
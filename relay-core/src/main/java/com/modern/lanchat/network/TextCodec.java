@@ -0,0 +1,106 @@
+package com.modern.lanchat.network;
+
+/**
+ * Maps {@link ChatFrame}s to and from the original newline-delimited text protocol.
+ * Kept for peers that did not negotiate {@link WireFormat#BINARY}.
+ */
+final class TextCodec {
+
+    private TextCodec() {}
+
+    /** Encodes a frame as one line, without the trailing newline. */
+    static String encode(ChatFrame frame) {
+        switch (frame.getType()) {
+            case HELLO:
+                if (frame.getVersion() <= ChatProtocol.PROTOCOL_VERSION_TEXT) {
+                    return ChatProtocol.CLIENT_NAME_PREFIX + frame.getSender();
+                }
+                return ChatProtocol.HELLO_PREFIX + frame.getVersion() + ChatProtocol.MSG_DELIMITER
+                        + frame.getId() + ChatProtocol.MSG_DELIMITER + frame.getSender();
+            case HELLO_ACK:
+                return ChatProtocol.HELLO_ACK_PREFIX + frame.getVersion();
+            case HISTORY:
+                return ChatProtocol.HIST_PREFIX + frame.getSender() + ChatProtocol.MSG_DELIMITER
+                        + frame.getTimestamp() + ChatProtocol.MSG_DELIMITER + singleLine(frame.getText());
+            case HISTORY_END:
+                return ChatProtocol.HIST_END_MARKER;
+            case ROOM_CLOSED:
+                return ChatProtocol.ROOM_CLOSED_MSG;
+            case HISTORY_REQUEST:
+            case HISTORY_AFTER_REQUEST:
+                throw new IllegalArgumentException("History paging needs the binary protocol");
+            case TRACE_MODE:
+            case TRACE_SYNC:
+            case TRACE_REPORT:
+                throw new IllegalArgumentException("Latency tracing needs the binary protocol");
+            case CHAT:
+            default:
+                return frame.getSender() + ChatProtocol.MSG_DELIMITER + singleLine(frame.getText());
+        }
+    }
+
+    // A raw newline would split the message into two lines for a text peer
+    private static String singleLine(String text) {
+        return text.indexOf('\n') < 0 ? text : text.replace('\n', ' ');
+    }
+
+    /**
+     * Recognises the first line a client sends: the versioned hello, or the legacy
+     * {@code CLIENT_NAME:} line which implies the text protocol. Also recognises the host's
+     * hello acknowledgement. Returns null for any other line.
+     */
+    static ChatFrame decodeHandshake(String line) {
+        if (line.startsWith(ChatProtocol.CLIENT_NAME_PREFIX)) {
+            return ChatFrame.hello(ChatProtocol.PROTOCOL_VERSION_TEXT,
+                    line.substring(ChatProtocol.CLIENT_NAME_PREFIX.length()), 0);
+        }
+        if (line.startsWith(ChatProtocol.HELLO_PREFIX)) {
+            String[] parts = line.substring(ChatProtocol.HELLO_PREFIX.length()).split(ChatProtocol.MSG_DELIMITER, 3); // version, lastSeenId, name
+            Integer version = parseVersion(parts[0]);
+            if (parts.length == 3 && version != null) {
+                try {
+                    return ChatFrame.hello(version, parts[2], Long.parseLong(parts[1]));
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            }
+        } else if (line.startsWith(ChatProtocol.HELLO_ACK_PREFIX)) {
+            Integer version = parseVersion(line.substring(ChatProtocol.HELLO_ACK_PREFIX.length()));
+            if (version != null) {
+                return ChatFrame.helloAck(version);
+            }
+        }
+        return null;
+    }
+
+    private static Integer parseVersion(String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /** Decodes a regular protocol line, or returns null if it is malformed. */
+    static ChatFrame decode(String line) {
+        if (line.startsWith(ChatProtocol.HIST_PREFIX)) {
+            String[] parts = line.substring(ChatProtocol.HIST_PREFIX.length()).split(ChatProtocol.MSG_DELIMITER, 3); // sender, timestamp, text
+            return parts.length == 3 ? ChatFrame.history(0, parts[0], parseTimestamp(parts[1]), parts[2]) : null;
+        } else if (line.equals(ChatProtocol.HIST_END_MARKER)) {
+            return ChatFrame.historyEnd(false);
+        } else if (line.equals(ChatProtocol.ROOM_CLOSED_MSG)) {
+            return ChatFrame.roomClosed();
+        }
+        String[] parts = line.split(ChatProtocol.MSG_DELIMITER, 2);
+        return parts.length == 2 ? ChatFrame.chat(parts[0], parts[1]) : null;
+    }
+
+    // Hosts before epoch timestamps sent "hh:mm a", which has no date to recover
+    private static long parseTimestamp(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
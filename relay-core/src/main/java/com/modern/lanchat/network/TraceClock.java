@@ -0,0 +1,20 @@
+package com.modern.lanchat.network;
+
+/**
+ * Microsecond clock for latency tracing. Anchored to the wall clock once per process, then
+ * advanced by {@link System#nanoTime()}, so readings taken on one device never step backwards
+ * when the system time is adjusted, while readings from different devices stay comparable once
+ * a {@link ClockOffset} has been applied.
+ */
+public final class TraceClock {
+
+    private static final long ANCHOR_MICROS = System.currentTimeMillis() * 1000;
+    private static final long ANCHOR_NANOS = System.nanoTime();
+
+    private TraceClock() {}
+
+    /** Epoch microseconds on this device. */
+    public static long nowMicros() {
+        return ANCHOR_MICROS + (System.nanoTime() - ANCHOR_NANOS) / 1000;
+    }
+}
@@ -0,0 +1,131 @@
+package com.modern.lanchat.network;
+
+import com.modern.lanchat.metrics.Counter;
+import com.modern.lanchat.metrics.Histogram;
+import com.modern.lanchat.metrics.MetricsRegistry;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Host side of latency tracing. Clients report the {@link TraceStamps} of every traced message
+ * they show; each report is split into hops, recorded into the room's histograms and kept as a
+ * row for {@link #writeCsv}, up to a fixed number of the newest rows.
+ *
+ * <pre>
+ * client_to_host  hostReceived - sent       (sender's clock sync error included)
+ * host_queue      hostRelayed - hostReceived (host only: parsing, taking the id, handing the row to the write buffer)
+ * host_to_client  received - hostRelayed    (outbound queue and network; receiver's sync error included)
+ * ui_dispatch     rendered - received       (receiver only: hand-off to the UI thread and the diff)
+ * end_to_end      rendered - sent
+ * </pre>
+ *
+ * Hops across devices rest on each client's clock offset, so they can come out slightly
+ * negative on a fast network; histograms count those as 0, the exported rows keep them as they
+ * are. Messages the host typed have no sent stamp and skip the first hop. Thread-safe.
+ */
+public class TraceCollector {
+
+    private static final String CSV_HEADER = "message_id,receiver,sent_us,host_received_us,host_relayed_us,"
+            + "received_us,rendered_us,client_to_host_us,host_queue_us,host_to_client_us,ui_dispatch_us,end_to_end_us\n";
+
+    private static final class Row {
+        final long messageId;
+        final String receiver;
+        final TraceStamps stamps;
+
+        Row(long messageId, String receiver, TraceStamps stamps) {
+            this.messageId = messageId;
+            this.receiver = receiver;
+            this.stamps = stamps;
+        }
+    }
+
+    private final Histogram clientToHost;
+    private final Histogram hostQueue;
+    private final Histogram hostToClient;
+    private final Histogram uiDispatch;
+    private final Histogram endToEnd;
+    private final Counter reports;
+    private final int maxRows;
+    private final ArrayDeque<Row> rows = new ArrayDeque<>(); // Oldest first; guarded by itself
+
+    public TraceCollector(MetricsRegistry registry, int maxRows) {
+        this.clientToHost = registry.histogram("trace.client_to_host", "us");
+        this.hostQueue = registry.histogram("trace.host_queue", "us");
+        this.hostToClient = registry.histogram("trace.host_to_client", "us");
+        this.uiDispatch = registry.histogram("trace.ui_dispatch", "us");
+        this.endToEnd = registry.histogram("trace.end_to_end", "us");
+        this.reports = registry.counter("trace.reports");
+        this.maxRows = maxRows;
+    }
+
+    /** Records one client's report; ignored unless the host stamped the message. */
+    public void record(long messageId, String receiver, TraceStamps stamps) {
+        if (stamps == null || stamps.getHostRelayedMicros() == 0 || stamps.getRenderedMicros() == 0) return;
+        reports.increment();
+        long start = stamps.getSentMicros() > 0 ? stamps.getSentMicros() : stamps.getHostReceivedMicros();
+        if (stamps.getSentMicros() > 0) {
+            clientToHost.record(stamps.getHostReceivedMicros() - stamps.getSentMicros());
+        }
+        hostQueue.record(stamps.getHostRelayedMicros() - stamps.getHostReceivedMicros());
+        hostToClient.record(stamps.getReceivedMicros() - stamps.getHostRelayedMicros());
+        uiDispatch.record(stamps.getRenderedMicros() - stamps.getReceivedMicros());
+        endToEnd.record(stamps.getRenderedMicros() - start);
+        synchronized (rows) {
+            if (rows.size() == maxRows) rows.removeFirst();
+            rows.addLast(new Row(messageId, receiver, stamps));
+        }
+    }
+
+    /** Rows held for export. */
+    public int size() {
+        synchronized (rows) {
+            return rows.size();
+        }
+    }
+
+    /** Writes the rows held, oldest first, as CSV with one column per stamp and per hop. */
+    public void writeCsv(Writer out) throws IOException {
+        List<Row> snapshot;
+        synchronized (rows) {
+            snapshot = new ArrayList<>(rows);
+        }
+        out.write(CSV_HEADER);
+        StringBuilder line = new StringBuilder(160);
+        for (Row row : snapshot) {
+            TraceStamps s = row.stamps;
+            boolean hasSent = s.getSentMicros() > 0;
+            line.setLength(0);
+            line.append(row.messageId).append(',').append(csvField(row.receiver)).append(',')
+                    .append(s.getSentMicros()).append(',')
+                    .append(s.getHostReceivedMicros()).append(',')
+                    .append(s.getHostRelayedMicros()).append(',')
+                    .append(s.getReceivedMicros()).append(',')
+                    .append(s.getRenderedMicros()).append(',');
+            if (hasSent) line.append(s.getHostReceivedMicros() - s.getSentMicros());
+            line.append(',').append(s.getHostRelayedMicros() - s.getHostReceivedMicros())
+                    .append(',').append(s.getReceivedMicros() - s.getHostRelayedMicros())
+                    .append(',').append(s.getRenderedMicros() - s.getReceivedMicros())
+                    .append(',').append(s.getRenderedMicros() - (hasSent ? s.getSentMicros() : s.getHostReceivedMicros()))
+                    .append('\n');
+            out.write(line.toString());
+        }
+    }
+
+    public void clear() {
+        synchronized (rows) {
+            rows.clear();
+        }
+    }
+
+    // Client names are free text
+    private static String csvField(String value) {
+        if (value == null) return "";
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) return value;
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
@@ -0,0 +1,63 @@
+package com.modern.lanchat.network;
+
+/**
+ * Timestamps a traced message collects on its way from one client to another, all in epoch
+ * microseconds of the host's {@link TraceClock}; each client converts its own readings with its
+ * {@link ClockOffset}. A stamp is 0 until its step happens, and {@link #getSentMicros()} stays 0
+ * for messages the host typed itself. Immutable.
+ *
+ * <p>The same five slots carry a clock sync exchange: the client's send time, the host's
+ * receive time and the host's reply time.</p>
+ */
+public final class TraceStamps {
+
+    private final long sentMicros;
+    private final long hostReceivedMicros;
+    private final long hostRelayedMicros;
+    private final long receivedMicros;
+    private final long renderedMicros;
+
+    public TraceStamps(long sentMicros, long hostReceivedMicros, long hostRelayedMicros,
+                       long receivedMicros, long renderedMicros) {
+        this.sentMicros = sentMicros;
+        this.hostReceivedMicros = hostReceivedMicros;
+        this.hostRelayedMicros = hostRelayedMicros;
+        this.receivedMicros = receivedMicros;
+        this.renderedMicros = renderedMicros;
+    }
+
+    /** Stamps for a message leaving its sender at {@code sentMicros}. */
+    public static TraceStamps sent(long sentMicros) {
+        return new TraceStamps(sentMicros, 0, 0, 0, 0);
+    }
+
+    public TraceStamps withHostReceived(long micros) {
+        return new TraceStamps(sentMicros, micros, hostRelayedMicros, receivedMicros, renderedMicros);
+    }
+
+    public TraceStamps withHostRelayed(long micros) {
+        return new TraceStamps(sentMicros, hostReceivedMicros, micros, receivedMicros, renderedMicros);
+    }
+
+    /** The receiving client's stamps: read off the socket, then shown on screen. */
+    public TraceStamps withDelivery(long receivedMicros, long renderedMicros) {
+        return new TraceStamps(sentMicros, hostReceivedMicros, hostRelayedMicros, receivedMicros, renderedMicros);
+    }
+
+    public long getSentMicros() { return sentMicros; }
+
+    public long getHostReceivedMicros() { return hostReceivedMicros; }
+
+    public long getHostRelayedMicros() { return hostRelayedMicros; }
+
+    public long getReceivedMicros() { return receivedMicros; }
+
+    public long getRenderedMicros() { return renderedMicros; }
+
+    @Override
+    public String toString() {
+        return "TraceStamps{sent=" + sentMicros + ", hostReceived=" + hostReceivedMicros
+                + ", hostRelayed=" + hostRelayedMicros + ", received=" + receivedMicros
+                + ", rendered=" + renderedMicros + "}";
+    }
+}
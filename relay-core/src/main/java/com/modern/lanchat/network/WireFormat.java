@@ -0,0 +1,16 @@
+package com.modern.lanchat.network;
+
+/** How frames are laid out on a connection, agreed during the hello exchange. */
+public enum WireFormat {
+    /** Newline-delimited "SENDER:MESSAGE" lines, spoken by every client version. */
+    TEXT,
+    /** Length-prefixed frames, see {@link BinaryCodec}. */
+    BINARY,
+    /** {@link #BINARY}, with large frames and history blocks sent as DEFLATE-compressed blocks. */
+    BINARY_DEFLATE;
+
+    /** Whether frames are length-prefixed, so the peer can use the binary-only frame types. */
+    public boolean isBinary() {
+        return this != TEXT;
+    }
+}
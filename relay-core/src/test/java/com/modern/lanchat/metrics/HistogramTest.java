@@ -0,0 +1,77 @@
+package com.modern.lanchat.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class HistogramTest {
+
+    @Test
+    public void valuesBelow128AreExact() {
+        for (int v = 0; v < 128; v++) {
+            assertEquals(v, Histogram.indexOf(v));
+            assertEquals(v, Histogram.highestValueIn(v));
+        }
+    }
+
+    @Test
+    public void firstLogarithmicBucketsHoldTwoValues() {
+        assertEquals(128, Histogram.indexOf(128));
+        assertEquals(128, Histogram.indexOf(129));
+        assertEquals(129, Histogram.indexOf(130));
+        assertEquals(129, Histogram.highestValueIn(128));
+        assertEquals(191, Histogram.indexOf(255));
+        assertEquals(255, Histogram.highestValueIn(191));
+        assertEquals(192, Histogram.indexOf(256)); // Next power of two: buckets four values wide
+        assertEquals(259, Histogram.highestValueIn(192));
+    }
+
+    @Test
+    public void bucketsAreContiguousAndWithinOneSixtyFourth() {
+        long previousHighest = -1;
+        for (int index = 0; index < 128 + 20 * 64; index++) {
+            long highest = Histogram.highestValueIn(index);
+            long lowest = previousHighest + 1;
+            assertEquals(index, Histogram.indexOf(lowest));
+            assertEquals(index, Histogram.indexOf(highest));
+            assertTrue("bucket " + index, highest - lowest <= Math.max(0, lowest / 64));
+            previousHighest = highest;
+        }
+    }
+
+    @Test
+    public void percentilesReportTheBucketCeilingCappedAtMax() {
+        Histogram histogram = new Histogram("us");
+        for (int v = 1; v <= 100; v++) {
+            histogram.record(v);
+        }
+        histogram.record(1000);
+        assertEquals(101, histogram.getCount());
+        assertEquals(51, histogram.getValueAtPercentile(50));
+        assertEquals(100, histogram.getValueAtPercentile(99));
+        assertEquals(1000, histogram.getValueAtPercentile(100));
+        assertEquals(1000, histogram.getMax());
+        assertEquals((5050 + 1000) / 101.0, histogram.getMean(), 1e-9);
+    }
+
+    @Test
+    public void negativeAndHugeValuesAreClamped() {
+        Histogram histogram = new Histogram("us");
+        histogram.record(-5);
+        assertEquals(0, histogram.getMax());
+        histogram.record(Long.MAX_VALUE);
+        assertTrue(histogram.getMax() < Long.MAX_VALUE);
+        assertEquals(histogram.getMax(), histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void resetForgetsEverything() {
+        Histogram histogram = new Histogram("us");
+        histogram.record(42);
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(99));
+        assertEquals(0, histogram.getMax());
+    }
+}
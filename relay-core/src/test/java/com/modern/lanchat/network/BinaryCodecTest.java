@@ -0,0 +1,165 @@
+package com.modern.lanchat.network;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import org.junit.Test;
+
+public class BinaryCodecTest {
+
+    @Test
+    public void shortFrameHasOneByteLengthPrefix() throws Exception {
+        byte[] bytes = encode(ChatFrame.historyEnd(true));
+        assertEquals(bytes.length - 1, bytes[0]);
+        assertEquals(bytes.length, BinaryCodec.frameLength(ByteBuffer.wrap(bytes), 0, bytes.length));
+    }
+
+    @Test
+    public void lengthOver127TakesTwoVarintBytes() throws Exception {
+        byte[] bytes = encode(ChatFrame.chat("alice", repeat('x', 300)));
+        int bodyLength = bytes.length - 2;
+        assertEquals((bodyLength & 0x7F) | 0x80, bytes[0] & 0xFF);
+        assertEquals(bodyLength >> 7, bytes[1]);
+        assertEquals(bytes.length, BinaryCodec.frameLength(ByteBuffer.wrap(bytes), 0, bytes.length));
+    }
+
+    @Test
+    public void frameLengthWaitsForTheWholeFrame() throws Exception {
+        byte[] bytes = encode(ChatFrame.chat("alice", repeat('x', 300)));
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        for (int end = 0; end < bytes.length; end++) {
+            assertEquals("end " + end, -1, BinaryCodec.frameLength(buffer, 0, end));
+        }
+    }
+
+    @Test
+    public void frameLengthMeasuresFromAnOffset() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryCodec.encode(ChatFrame.roomClosed(), out);
+        int first = out.size();
+        BinaryCodec.encode(ChatFrame.chat("bob", "hi"), out);
+        byte[] bytes = out.toByteArray();
+        ChatFrame frame = BinaryCodec.decode(ByteBuffer.wrap(bytes), first,
+                BinaryCodec.frameLength(ByteBuffer.wrap(bytes), first, bytes.length));
+        assertEquals("hi", frame.getText());
+    }
+
+    @Test
+    public void rejectsEmptyAndOversizedFrames() {
+        assertMalformed(new byte[] {0});
+        int tooLong = BinaryCodec.MAX_FRAME_BYTES + 1;
+        assertMalformed(new byte[] {(byte) (tooLong | 0x80), (byte) ((tooLong >> 7) | 0x80), (byte) (tooLong >> 14)});
+        assertMalformed(new byte[] {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 1});
+    }
+
+    @Test
+    public void unknownFrameTypeDecodesToNull() throws Exception {
+        byte[] bytes = {2, 99, 0};
+        assertNull(BinaryCodec.decode(ByteBuffer.wrap(bytes), 0, bytes.length));
+    }
+
+    @Test
+    public void roundTripsEveryBinaryType() throws Exception {
+        TraceStamps stamps = new TraceStamps(1, 2, 3, 4, 5);
+
+        ChatFrame chat = roundTrip(ChatFrame.chat("a:b", "line one\nline two").withId(1L << 40));
+        assertEquals(ChatFrame.Type.CHAT, chat.getType());
+        assertEquals(1L << 40, chat.getId());
+        assertEquals("a:b", chat.getSender());
+        assertEquals("line one\nline two", chat.getText());
+        assertNull(chat.getTrace());
+
+        ChatFrame traced = roundTrip(ChatFrame.chat("a", "hi").withId(7).withTrace(stamps));
+        assertEquals(3, traced.getTrace().getHostRelayedMicros());
+        assertEquals(0, traced.getTrace().getReceivedMicros()); // Only the first three travel with a message
+
+        ChatFrame history = roundTrip(ChatFrame.history(42, "bob", 1_700_000_000_000L, "héllo ✓"));
+        assertEquals(ChatFrame.Type.HISTORY, history.getType());
+        assertEquals(42, history.getId());
+        assertEquals(1_700_000_000_000L, history.getTimestamp());
+        assertEquals("héllo ✓", history.getText());
+
+        assertTrue(roundTrip(ChatFrame.historyEnd(true)).hasMore());
+        ChatFrame request = roundTrip(ChatFrame.historyRequest(500, 100));
+        assertEquals(500, request.getId());
+        assertEquals(100, request.getLimit());
+        ChatFrame after = roundTrip(ChatFrame.historyAfterRequest(9, 50));
+        assertEquals(ChatFrame.Type.HISTORY_AFTER_REQUEST, after.getType());
+        assertEquals(9, after.getId());
+        assertEquals(ChatFrame.Type.ROOM_CLOSED, roundTrip(ChatFrame.roomClosed()).getType());
+        assertTrue(roundTrip(ChatFrame.traceMode(true)).isTraceEnabled());
+        assertEquals(2, roundTrip(ChatFrame.traceSync(stamps)).getTrace().getHostReceivedMicros());
+        ChatFrame report = roundTrip(ChatFrame.traceReport(7, stamps));
+        assertEquals(7, report.getId());
+        assertEquals(5, report.getTrace().getRenderedMicros());
+    }
+
+    @Test
+    public void deflatedBlockInflatesToTheSameFrames() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < 20; i++) {
+            BinaryCodec.encode(ChatFrame.history(i, "alice", 1000 + i, "the same words again and again"), out);
+        }
+        byte[] plain = out.toByteArray();
+        byte[] block = BinaryCodec.deflate(ByteBuffer.wrap(plain));
+        assertNotNull(block);
+        assertTrue(block.length < plain.length);
+
+        int length = BinaryCodec.frameLength(ByteBuffer.wrap(block), 0, block.length);
+        assertEquals(block.length, length);
+        ByteBuffer inflated = BinaryCodec.inflate(ByteBuffer.wrap(block), 0, length);
+        byte[] unpacked = new byte[inflated.remaining()];
+        inflated.get(unpacked);
+        assertArrayEquals(plain, unpacked);
+    }
+
+    @Test
+    public void incompressibleInputIsNotDeflated() {
+        byte[] plain = encode(ChatFrame.chat("a", "b"));
+        assertNull(BinaryCodec.deflate(ByteBuffer.wrap(plain)));
+    }
+
+    @Test
+    public void inflateIgnoresOrdinaryFrames() throws Exception {
+        byte[] bytes = encode(ChatFrame.chat("a", "b"));
+        assertNull(BinaryCodec.inflate(ByteBuffer.wrap(bytes), 0, bytes.length));
+    }
+
+    private static ChatFrame roundTrip(ChatFrame frame) throws ProtocolException {
+        byte[] bytes = encode(frame);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int length = BinaryCodec.frameLength(buffer, 0, bytes.length);
+        assertEquals(bytes.length, length);
+        return BinaryCodec.decode(buffer, 0, length);
+    }
+
+    static byte[] encode(ChatFrame frame) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryCodec.encode(frame, out);
+        return out.toByteArray();
+    }
+
+    static String repeat(char c, int count) {
+        StringBuilder builder = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+
+    private static void assertMalformed(byte[] bytes) {
+        try {
+            BinaryCodec.frameLength(ByteBuffer.wrap(bytes), 0, bytes.length);
+            fail("Expected a ProtocolException");
+        } catch (ProtocolException expected) {
+            // The peer is dropped for this
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.modern.lanchat.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class FrameDecoderTest {
+
+    @Test
+    public void binaryFramesSurviveOneByteReads() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryCodec.encode(ChatFrame.chat("alice", BinaryCodecTest.repeat('x', 300)).withId(1), out);
+        BinaryCodec.encode(ChatFrame.chat("bob", "hi").withId(2), out);
+
+        FrameDecoder decoder = binaryDecoder();
+        List<ChatFrame> frames = readAll(decoder, new ChunkedChannel(out.toByteArray(), 1));
+        assertEquals(2, frames.size());
+        assertEquals(300, frames.get(0).getText().length());
+        assertEquals("hi", frames.get(1).getText());
+    }
+
+    @Test
+    public void frameSplitInsideItsLengthPrefixWaitsForTheRest() throws Exception {
+        byte[] bytes = BinaryCodecTest.encode(ChatFrame.chat("alice", BinaryCodecTest.repeat('y', 200)));
+        FrameDecoder decoder = binaryDecoder();
+        ChunkedChannel channel = new ChunkedChannel(bytes, 1); // Only the first varint byte arrives
+
+        decoder.readFrom(channel);
+        assertNull(decoder.next());
+        channel.chunk = bytes.length;
+        decoder.readFrom(channel);
+        assertEquals(200, decoder.next().getText().length());
+        assertNull(decoder.next());
+    }
+
+    @Test
+    public void frameLargerThanTheInitialBufferGrowsIt() throws Exception {
+        String text = BinaryCodecTest.repeat('z', 20_000);
+        byte[] bytes = BinaryCodecTest.encode(ChatFrame.chat("alice", text));
+        List<ChatFrame> frames = readAll(binaryDecoder(), new ChunkedChannel(bytes, 1000));
+        assertEquals(1, frames.size());
+        assertEquals(text, frames.get(0).getText());
+    }
+
+    @Test
+    public void textLinesSplitAcrossReads() throws Exception {
+        byte[] bytes = "CLIENT_NAME:alice\r\nalice:hello world\nHIST_END\n".getBytes(StandardCharsets.UTF_8);
+        List<ChatFrame> frames = readAll(new FrameDecoder(), new ChunkedChannel(bytes, 3));
+        assertEquals(3, frames.size());
+        assertEquals(ChatFrame.Type.HELLO, frames.get(0).getType());
+        assertEquals("alice", frames.get(0).getSender());
+        assertEquals("hello world", frames.get(1).getText());
+        assertEquals(ChatFrame.Type.HISTORY_END, frames.get(2).getType());
+    }
+
+    @Test
+    public void switchesToBinaryAfterTheHello() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] hello = (TextCodec.encode(ChatFrame.hello(ChatProtocol.PROTOCOL_VERSION_BINARY, "alice", 0)) + "\n")
+                .getBytes(StandardCharsets.UTF_8);
+        out.write(hello, 0, hello.length);
+        BinaryCodec.encode(ChatFrame.chat("alice", "binary now"), out);
+
+        FrameDecoder decoder = new FrameDecoder();
+        decoder.readFrom(new ChunkedChannel(out.toByteArray(), out.size()));
+        assertEquals(ChatFrame.Type.HELLO, decoder.next().getType());
+        decoder.setFormat(WireFormat.BINARY);
+        assertEquals("binary now", decoder.next().getText());
+        assertNull(decoder.next());
+    }
+
+    @Test
+    public void compressedBlockIsHandedOutBeforeLaterFrames() throws Exception {
+        ByteArrayOutputStream page = new ByteArrayOutputStream();
+        for (int i = 1; i <= 30; i++) {
+            BinaryCodec.encode(ChatFrame.history(i, "alice", i, "a fairly repetitive history line"), page);
+        }
+        byte[] block = BinaryCodec.deflate(ByteBuffer.wrap(page.toByteArray()));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(block, 0, block.length);
+        BinaryCodec.encode(ChatFrame.historyEnd(false), out);
+
+        List<ChatFrame> frames = readAll(binaryDecoder(), new ChunkedChannel(out.toByteArray(), 7));
+        assertEquals(31, frames.size());
+        for (int i = 0; i < 30; i++) {
+            assertEquals(i + 1, frames.get(i).getId());
+        }
+        assertEquals(ChatFrame.Type.HISTORY_END, frames.get(30).getType());
+    }
+
+    private static FrameDecoder binaryDecoder() {
+        FrameDecoder decoder = new FrameDecoder();
+        decoder.setFormat(WireFormat.BINARY);
+        return decoder;
+    }
+
+    private static List<ChatFrame> readAll(FrameDecoder decoder, ChunkedChannel channel) throws Exception {
+        List<ChatFrame> frames = new ArrayList<>();
+        while (decoder.readFrom(channel) >= 0) {
+            ChatFrame frame;
+            while ((frame = decoder.next()) != null) {
+                frames.add(frame);
+            }
+        }
+        return frames;
+    }
+
+    // Hands out at most chunk bytes per read, like a socket delivering a frame in pieces
+    private static final class ChunkedChannel implements ReadableByteChannel {
+        private final byte[] bytes;
+        private int position = 0;
+        int chunk;
+
+        ChunkedChannel(byte[] bytes, int chunk) {
+            this.bytes = bytes;
+            this.chunk = chunk;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            if (position == bytes.length) return -1;
+            int count = Math.min(Math.min(chunk, dst.remaining()), bytes.length - position);
+            dst.put(bytes, position, count);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.modern.lanchat.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import org.junit.Test;
+
+public class OutboundQueueTest {
+
+    @Test
+    public void disconnectPolicyRejectsWhatDoesNotFit() {
+        OutboundQueue queue = textQueue(2, OverflowPolicy.DISCONNECT);
+        assertEquals(OutboundQueue.OfferResult.ACCEPTED, queue.offer(line("1")));
+        assertEquals(OutboundQueue.OfferResult.ACCEPTED, queue.offer(line("2")));
+        assertEquals(OutboundQueue.OfferResult.REJECTED, queue.offer(line("3")));
+        assertEquals("a:1\na:2\n", drain(queue));
+    }
+
+    @Test
+    public void dropOldestEvictsFromTheHead() {
+        OutboundQueue queue = textQueue(2, OverflowPolicy.DROP_OLDEST);
+        queue.offer(line("1"));
+        queue.offer(line("2"));
+        assertEquals(OutboundQueue.OfferResult.EVICTED, queue.offer(line("3")));
+        assertEquals(1, queue.stats().evictedFrames);
+        assertEquals("a:2\na:3\n", drain(queue));
+    }
+
+    @Test
+    public void dropOldestNeverEvictsThePartlyWrittenFrame() {
+        OutboundQueue queue = textQueue(1, OverflowPolicy.DROP_OLDEST);
+        queue.offer(line("1"));
+        ByteBuffer writing = queue.peekReader();
+        writing.get(); // One byte of "a:1" is on the wire
+        queue.offer(line("2"));
+        queue.offer(line("3"));
+        assertEquals(":1\na:3\n", drain(queue));
+    }
+
+    @Test
+    public void coalesceMergesQueuedFramesInOrder() {
+        OutboundQueue queue = textQueue(3, OverflowPolicy.COALESCE);
+        queue.offer(line("1"));
+        queue.offer(line("2"));
+        queue.offer(line("3"));
+        assertEquals(OutboundQueue.OfferResult.EVICTED, queue.offer(line("4")));
+        assertEquals(2, queue.size());
+        assertEquals("a:1\na:2\na:3\na:4\n", drain(queue));
+    }
+
+    @Test
+    public void coalesceDropsOnlyWhatTheByteCapCannotHold() {
+        OutboundQueue queue = new OutboundQueue(100, 12, OverflowPolicy.COALESCE);
+        queue.offer(line("1")); // 4 bytes each
+        queue.offer(line("2"));
+        queue.offer(line("3"));
+        assertEquals(OutboundQueue.OfferResult.EVICTED, queue.offer(line("4")));
+        assertEquals(1, queue.stats().evictedFrames);
+        assertEquals("a:2\na:3\na:4\n", drain(queue));
+    }
+
+    @Test
+    public void coalesceLosesNothingWhileTheBytesFit() {
+        OutboundQueue queue = new OutboundQueue(2, 16, OverflowPolicy.COALESCE);
+        queue.offer(line("1"));
+        queue.offer(line("2"));
+        queue.offer(line("3"));
+        queue.offer(line("4")); // Exactly 16 bytes queued
+        assertEquals(2, queue.size());
+        assertEquals("a:1\na:2\na:3\na:4\n", drain(queue));
+    }
+
+    @Test
+    public void byteCapAppliesAsWellAsFrameCap() {
+        OutboundQueue queue = new OutboundQueue(100, 8, OverflowPolicy.DROP_OLDEST);
+        queue.offer(line("1")); // 4 bytes each
+        queue.offer(line("2"));
+        queue.offer(line("3"));
+        assertEquals("a:2\na:3\n", drain(queue));
+    }
+
+    @Test
+    public void emptyQueueTakesAnOversizedFrame() {
+        OutboundQueue queue = new OutboundQueue(10, 2, OverflowPolicy.DISCONNECT);
+        assertEquals(OutboundQueue.OfferResult.ACCEPTED, queue.offer(line("too long")));
+        assertEquals("a:too long\n", drain(queue));
+    }
+
+    @Test
+    public void historyPacingIgnoresLiveFrames() throws Exception {
+        OutboundQueue queue = textQueue(10, OverflowPolicy.DROP_OLDEST);
+        queue.offer(Frame.history(Collections.singletonList(ChatFrame.history(1, "a", 0, "old"))));
+        for (int i = 0; i < 5; i++) {
+            queue.offer(line("live"));
+        }
+        assertTrue(queue.awaitHistoryBelow(2, 0));
+        assertFalse(queue.awaitHistoryBelow(1, 0));
+
+        queue.peekReader(); // The history page is being written
+        assertFalse(queue.awaitHistoryBelow(1, 0));
+        queue.advance();
+        assertTrue(queue.awaitHistoryBelow(1, 0));
+    }
+
+    @Test
+    public void evictedHistoryNoLongerCountsAsInFlight() throws Exception {
+        OutboundQueue queue = textQueue(2, OverflowPolicy.DROP_OLDEST);
+        queue.offer(Frame.history(Collections.singletonList(ChatFrame.history(1, "a", 0, "old"))));
+        queue.offer(line("1"));
+        queue.offer(line("2"));
+        assertTrue(queue.awaitHistoryBelow(1, 0));
+    }
+
+    private static OutboundQueue textQueue(int maxFrames, OverflowPolicy policy) {
+        return new OutboundQueue(maxFrames, 1024, policy);
+    }
+
+    private static Frame line(String text) {
+        return Frame.of(ChatFrame.chat("a", text));
+    }
+
+    // What the selector thread would write, in order
+    private static String drain(OutboundQueue queue) {
+        StringBuilder written = new StringBuilder();
+        ByteBuffer buffer;
+        while ((buffer = queue.peekReader()) != null) {
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            written.append(new String(bytes, StandardCharsets.UTF_8));
+            queue.advance();
+        }
+        return written.toString();
+    }
+}
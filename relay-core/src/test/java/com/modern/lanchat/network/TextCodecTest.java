@@ -0,0 +1,107 @@
+package com.modern.lanchat.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+public class TextCodecTest {
+
+    @Test
+    public void chatRoundTripsAndKeepsColonsInTheText() {
+        ChatFrame frame = TextCodec.decode(TextCodec.encode(ChatFrame.chat("alice", "time: 10:30")));
+        assertEquals(ChatFrame.Type.CHAT, frame.getType());
+        assertEquals("alice", frame.getSender());
+        assertEquals("time: 10:30", frame.getText());
+    }
+
+    @Test
+    public void newlinesAreFlattenedForTextPeers() {
+        String line = TextCodec.encode(ChatFrame.chat("alice", "two\nlines"));
+        assertEquals("alice:two lines", line);
+    }
+
+    @Test
+    public void historyRoundTripsWithoutItsId() {
+        ChatFrame frame = TextCodec.decode(TextCodec.encode(ChatFrame.history(42, "bob", 1_700_000_000_000L, "old: news")));
+        assertEquals(ChatFrame.Type.HISTORY, frame.getType());
+        assertEquals(0, frame.getId()); // The text protocol has no ids
+        assertEquals("bob", frame.getSender());
+        assertEquals(1_700_000_000_000L, frame.getTimestamp());
+        assertEquals("old: news", frame.getText());
+    }
+
+    @Test
+    public void controlLinesRoundTrip() {
+        assertEquals(ChatFrame.Type.HISTORY_END, TextCodec.decode(TextCodec.encode(ChatFrame.historyEnd(true))).getType());
+        assertEquals(ChatFrame.Type.ROOM_CLOSED, TextCodec.decode(TextCodec.encode(ChatFrame.roomClosed())).getType());
+    }
+
+    @Test
+    public void handshakeRoundTrips() {
+        ChatFrame hello = TextCodec.decodeHandshake(TextCodec.encode(ChatFrame.hello(3, "alice:b", 99)));
+        assertEquals(3, hello.getVersion());
+        assertEquals("alice:b", hello.getSender());
+        assertEquals(99, hello.getId());
+
+        ChatFrame legacy = TextCodec.decodeHandshake(TextCodec.encode(ChatFrame.hello(ChatProtocol.PROTOCOL_VERSION_TEXT, "carol", 0)));
+        assertEquals(ChatProtocol.PROTOCOL_VERSION_TEXT, legacy.getVersion());
+        assertEquals("carol", legacy.getSender());
+
+        assertEquals(2, TextCodec.decodeHandshake(TextCodec.encode(ChatFrame.helloAck(2))).getVersion());
+        assertNull(TextCodec.decodeHandshake("alice:hello"));
+        assertNull(TextCodec.decodeHandshake("HELLO:x:0:alice"));
+    }
+
+    @Test
+    public void malformedLinesDecodeToNull() {
+        assertNull(TextCodec.decode("no delimiter"));
+        assertNull(TextCodec.decode("HIST:bob"));
+    }
+
+    @Test
+    public void sameFrameReadsTheSameInBothFormats() throws Exception {
+        List<ChatFrame> page = Arrays.asList(
+                ChatFrame.history(1, "alice", 1000, "first"),
+                ChatFrame.history(2, "bob", 2000, "second"),
+                ChatFrame.historyEnd(false));
+        Frame frame = Frame.of(page);
+
+        List<ChatFrame> text = decodeAll(frame, WireFormat.TEXT);
+        List<ChatFrame> binary = decodeAll(frame, WireFormat.BINARY);
+        assertEquals(3, text.size());
+        assertEquals(3, binary.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(page.get(i).getType(), text.get(i).getType());
+            assertEquals(page.get(i).getType(), binary.get(i).getType());
+            assertEquals(page.get(i).getSender(), text.get(i).getSender());
+            assertEquals(page.get(i).getSender(), binary.get(i).getSender());
+            assertEquals(page.get(i).getText(), text.get(i).getText());
+            assertEquals(page.get(i).getText(), binary.get(i).getText());
+            assertEquals(page.get(i).getTimestamp(), binary.get(i).getTimestamp());
+        }
+    }
+
+    // What a peer on a connection of that format decodes from the frame's bytes
+    private static List<ChatFrame> decodeAll(Frame frame, WireFormat format) throws Exception {
+        ByteBuffer bytes = frame.newReader(format);
+        List<ChatFrame> frames = new ArrayList<>();
+        if (format == WireFormat.TEXT) {
+            for (String line : StandardCharsets.UTF_8.decode(bytes).toString().split("\n")) {
+                frames.add(TextCodec.decode(line));
+            }
+            return frames;
+        }
+        while (bytes.hasRemaining()) {
+            int length = BinaryCodec.frameLength(bytes, bytes.position(), bytes.limit());
+            frames.add(BinaryCodec.decode(bytes, bytes.position(), length));
+            bytes.position(bytes.position() + length);
+        }
+        return frames;
+    }
+}